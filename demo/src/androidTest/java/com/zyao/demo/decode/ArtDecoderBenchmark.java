@@ -0,0 +1,116 @@
+package com.zyao.demo.decode;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.os.Build;
+import android.support.v4.util.Pools;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.memory.PoolConfig;
+import com.facebook.imagepipeline.memory.PoolFactory;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.platform.ArtDecoder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Measures the {@link ArtDecoder} on JPEGs whose dimensions are known, parsed with the metadata
+ * as the pipeline does, against the same JPEGs without dimensions, for which the decode options
+ * come from an extra bounds-only decode of the header.
+ * <p>
+ * Both cases are decoded alternately so that they see the same state of the bitmap pool and of
+ * the CPU. Only the decode is timed, and every size logs under {@link #TAG} the p50 and p90
+ * decode time of both cases and the share of the time the bounds decode adds.
+ */
+public class ArtDecoderBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "ArtDecoderBenchmark";
+    private static final int[] IMAGE_SIZES = {64, 256, 1024, 2048};
+    private static final int WARM_UP_ITERATIONS = 5;
+    private static final int ITERATIONS = 50;
+
+    public void testKnownDimensionsAgainstBoundsDecode() throws Exception {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            Log.i(TAG, "The ArtDecoder needs Lollipop, skipped");
+            return;
+        }
+        PoolFactory poolFactory = new PoolFactory(PoolConfig.newBuilder().build());
+        ArtDecoder decoder = new ArtDecoder(poolFactory.getBitmapPool(), 1, new Pools.SynchronizedPool<ByteBuffer>(1));
+        for (int size : IMAGE_SIZES) {
+            CloseableReference<PooledByteBuffer> bytes = CloseableReference.of(poolFactory.getPooledByteBufferFactory().newByteBuffer(createJpeg(size)));
+            try {
+                long[] knownNs = new long[ITERATIONS];
+                long[] boundsNs = new long[ITERATIONS];
+                for (int i = -WARM_UP_ITERATIONS; i < ITERATIONS; i++) {
+                    long known = decode(decoder, bytes, true, size);
+                    long bounds = decode(decoder, bytes, false, size);
+                    if (i >= 0) {
+                        knownNs[i] = known;
+                        boundsNs[i] = bounds;
+                    }
+                }
+                double knownP50 = percentileMs(knownNs, 50);
+                double boundsP50 = percentileMs(boundsNs, 50);
+                Log.i(TAG, String.format(Locale.US,
+                        "%dx%d: known dimensions p50 %.2fms p90 %.2fms, bounds decode p50 %.2fms p90 %.2fms, +%.1f%%",
+                        size,
+                        size,
+                        knownP50,
+                        percentileMs(knownNs, 90),
+                        boundsP50,
+                        percentileMs(boundsNs, 90),
+                        (boundsP50 - knownP50) * 100 / knownP50));
+            } finally {
+                CloseableReference.closeSafely(bytes);
+            }
+        }
+    }
+
+    /**
+     * @return the duration of the decode in nanoseconds
+     */
+    private static long decode(ArtDecoder decoder, CloseableReference<PooledByteBuffer> bytes, boolean knownDimensions, int size) {
+        EncodedImage encodedImage = new EncodedImage(bytes.clone());
+        CloseableReference<Bitmap> bitmap = null;
+        try {
+            if (knownDimensions) {
+                encodedImage.parseMetaData();
+            }
+            long startNs = System.nanoTime();
+            bitmap = decoder.decodeFromEncodedImage(encodedImage, Bitmap.Config.ARGB_8888);
+            long durationNs = System.nanoTime() - startNs;
+            assertEquals(size, bitmap.get().getWidth());
+            return durationNs;
+        } finally {
+            CloseableReference.closeSafely(bitmap);
+            EncodedImage.closeSafely(encodedImage);
+        }
+    }
+
+    private static double percentileMs(long[] timingsNs, int percentile) {
+        long[] sorted = Arrays.copyOf(timingsNs, timingsNs.length);
+        Arrays.sort(sorted);
+        int index = Math.min(sorted.length - 1, (int) Math.ceil(percentile / 100.0 * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    private static byte[] createJpeg(int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, size, size, 0xFF3366CC, 0xFFCC6633, Shader.TileMode.MIRROR));
+        new Canvas(bitmap).drawRect(0, 0, size, size, paint);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,247 @@
+package com.zyao.demo.network;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.datasource.BaseDataSubscriber;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.core.DefaultExecutorSupplier;
+import com.facebook.imagepipeline.core.ExecutorSupplier;
+import com.facebook.imagepipeline.core.ImagePipeline;
+import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
+import com.facebook.imagepipeline.core.SharedPoolExecutorSupplier;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.request.BasePostprocessor;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Compares the {@link SharedPoolExecutorSupplier} with the {@link DefaultExecutorSupplier} on a
+ * mixed CPU bound load: a third of the requests is only decoded, a third is resized before the
+ * decode and a third is postprocessed after it. Resizes and postprocesses run on the background
+ * executor, decodes on the decode one, so the load keeps both stages busy at once.
+ * <p>
+ * The images come from an unthrottled {@link StandInHttpServer}, each with its own query so that
+ * none of them hits the caches. Each supplier runs twice, alternately, and every run logs under
+ * {@link #TAG} the throughput and the p50 and p99 completion latency, overall and by kind.
+ */
+public class ExecutorSupplierBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "ExecutorSupplierBench";
+    private static final int[] IMAGE_SIZES = {512, 1024, 2048};
+    private static final String[] KINDS = {"decode", "resize", "postprocess"};
+    private static final int REQUESTS_PER_RUN = 96;
+    private static final int IN_FLIGHT = 16;
+    private static final int NETWORK_THREADS = 4;
+    private static final long RUN_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
+    private Map<String, byte[]> mCorpus;
+    private int mRunNumber;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCorpus = new HashMap<>();
+        for (int size : IMAGE_SIZES) {
+            mCorpus.put("image_" + size + ".jpg", createJpeg(size));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ImagePipelineFactory.shutDown();
+        super.tearDown();
+    }
+
+    public void testMixedLoad() throws Exception {
+        int numCpuBoundThreads = Runtime.getRuntime().availableProcessors();
+        StandInHttpServer server = new StandInHttpServer(mCorpus, new StandInHttpServer.Config());
+        server.start();
+        try {
+            for (int i = 0; i < 2; i++) {
+                Result defaultResult = run("default", new DefaultExecutorSupplier(numCpuBoundThreads), server);
+                assertEquals(REQUESTS_PER_RUN, defaultResult.succeeded);
+                Result sharedResult = run("shared pool", new SharedPoolExecutorSupplier(numCpuBoundThreads), server);
+                assertEquals(REQUESTS_PER_RUN, sharedResult.succeeded);
+            }
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Fetches {@link #REQUESTS_PER_RUN} images, keeping at most {@link #IN_FLIGHT} of them in
+     * flight.
+     */
+    private Result run(String name, ExecutorSupplier executorSupplier, StandInHttpServer server) throws Exception {
+        ImagePipelineFactory.shutDown();
+        ImagePipelineFactory.initialize(ImagePipelineConfig.newBuilder(getContext())
+                .setExecutorSupplier(executorSupplier)
+                .setNetworkFetcherNumThreads(NETWORK_THREADS)
+                .build());
+        ImagePipeline imagePipeline = ImagePipelineFactory.getInstance().getImagePipeline();
+        imagePipeline.clearCaches();
+
+        final Result result = new Result(REQUESTS_PER_RUN);
+        final Semaphore inFlight = new Semaphore(IN_FLIGHT);
+        final CountDownLatch finished = new CountDownLatch(REQUESTS_PER_RUN);
+        final int runNumber = mRunNumber++;
+        final long startNs = System.nanoTime();
+        for (int i = 0; i < REQUESTS_PER_RUN; i++) {
+            inFlight.acquire();
+            int size = IMAGE_SIZES[i % IMAGE_SIZES.length];
+            String url = server.getImageUrl("image_" + size + ".jpg");
+            ImageRequestBuilder builder = ImageRequestBuilder.newBuilderWithSource(Uri.parse(url + "?run=" + runNumber + "&i=" + i));
+            final int kind = (i / IMAGE_SIZES.length) % KINDS.length;
+            if (kind == 1) {
+                builder.setResizeOptions(new ResizeOptions(size / 4, size / 4));
+            } else if (kind == 2) {
+                builder.setPostprocessor(new GrayscalePostprocessor());
+            }
+            final int index = i;
+            final long submitNs = System.nanoTime();
+            final AtomicBoolean done = new AtomicBoolean();
+            DataSource<CloseableReference<CloseableImage>> dataSource = imagePipeline.fetchDecodedImage(builder.build(), null);
+            dataSource.subscribe(new BaseDataSubscriber<CloseableReference<CloseableImage>>() {
+                @Override
+                protected void onNewResultImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                    CloseableReference.closeSafely(dataSource.getResult());
+                    if (dataSource.isFinished() && done.compareAndSet(false, true)) {
+                        result.onSuccess(index, kind, System.nanoTime() - submitNs);
+                        inFlight.release();
+                        finished.countDown();
+                    }
+                }
+
+                @Override
+                protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                    if (done.compareAndSet(false, true)) {
+                        result.onFailure();
+                        inFlight.release();
+                        finished.countDown();
+                    }
+                }
+            }, CallerThreadExecutor.getInstance());
+        }
+        assertTrue("Timed out", finished.await(RUN_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        long durationNs = System.nanoTime() - startNs;
+
+        StringBuilder byKind = new StringBuilder();
+        for (int kind = 0; kind < KINDS.length; kind++) {
+            byKind.append(String.format(Locale.US, ", %s p50 %.1fms p99 %.1fms",
+                    KINDS[kind],
+                    result.getPercentileMs(kind, 50),
+                    result.getPercentileMs(kind, 99)));
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "%s, %d cpu threads: %d ok, %d failed, %.1f images/s, completion p50 %.1fms p99 %.1fms%s",
+                name,
+                Runtime.getRuntime().availableProcessors(),
+                result.succeeded,
+                result.failed,
+                result.succeeded * 1e9 / durationNs,
+                result.getPercentileMs(-1, 50),
+                result.getPercentileMs(-1, 99),
+                byKind));
+        return result;
+    }
+
+    private static byte[] createJpeg(int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, size, size, 0xFF3366CC, 0xFFCC6633, Shader.TileMode.MIRROR));
+        new Canvas(bitmap).drawRect(0, 0, size, size, paint);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    /**
+     * Converts the image to grayscale pixel by pixel, a CPU bound postprocess of the size of the
+     * image like a blur would be.
+     */
+    private static class GrayscalePostprocessor extends BasePostprocessor {
+
+        @Override
+        public void process(Bitmap bitmap) {
+            int width = bitmap.getWidth();
+            int height = bitmap.getHeight();
+            int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                bitmap.getPixels(row, 0, width, 0, y, width, 1);
+                for (int x = 0; x < width; x++) {
+                    int pixel = row[x];
+                    int gray = (((pixel >> 16) & 0xFF) * 77 + ((pixel >> 8) & 0xFF) * 151 + (pixel & 0xFF) * 28) >> 8;
+                    row[x] = (pixel & 0xFF000000) | (gray << 16) | (gray << 8) | gray;
+                }
+                bitmap.setPixels(row, 0, width, 0, y, width, 1);
+            }
+        }
+    }
+
+    /**
+     * Completion times of the requests of a run by kind, in nanoseconds, -1 while unknown.
+     */
+    private static class Result {
+        final long[] completionNs;
+        final int[] kinds;
+        int succeeded;
+        int failed;
+
+        Result(int numRequests) {
+            completionNs = new long[numRequests];
+            kinds = new int[numRequests];
+            Arrays.fill(completionNs, -1);
+        }
+
+        synchronized void onSuccess(int index, int kind, long elapsedNs) {
+            completionNs[index] = elapsedNs;
+            kinds[index] = kind;
+            succeeded++;
+        }
+
+        synchronized void onFailure() {
+            failed++;
+        }
+
+        /**
+         * @param kind kind of the requests, -1 for all of them
+         * @return the percentile of the known completion times, -1 if none is known
+         */
+        synchronized double getPercentileMs(int kind, int percentile) {
+            long[] known = new long[completionNs.length];
+            int count = 0;
+            for (int i = 0; i < completionNs.length; i++) {
+                if (completionNs[i] >= 0 && (kind < 0 || kinds[i] == kind)) {
+                    known[count++] = completionNs[i];
+                }
+            }
+            if (count == 0) {
+                return -1;
+            }
+            Arrays.sort(known, 0, count);
+            int index = Math.min(count - 1, (int) Math.ceil(percentile / 100.0 * count) - 1);
+            return known[Math.max(0, index)] / 1e6;
+        }
+    }
+}
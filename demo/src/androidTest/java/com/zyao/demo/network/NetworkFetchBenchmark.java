@@ -0,0 +1,293 @@
+package com.zyao.demo.network;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.datasource.BaseDataSubscriber;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.core.ImagePipeline;
+import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Measures the network path of the {@link ImagePipeline}, from the fetcher to the decoded image,
+ * against a {@link StandInHttpServer}.
+ * <p>
+ * Each run fetches the corpus through a pipeline whose network fetcher has as many threads as
+ * requests are kept in flight, and logs under {@link #TAG}: the throughput, the p50 time to the
+ * first intermediate result, and the p50 and p99 completion latency. Every request has its own
+ * query so that none of them hits the caches.
+ * <p>
+ * The corpus has every size as a baseline JPEG and as a progressive one, written by
+ * {@link ProgressiveJpegEncoder}, so only the progressive half has intermediate results.
+ */
+public class NetworkFetchBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "NetworkFetchBenchmark";
+    private static final int[] IMAGE_SIZES = {128, 256, 512, 1024};
+    private static final int[] CONCURRENCIES = {1, 2, 4, 8};
+    private static final int REQUESTS_PER_RUN = 64;
+    private static final int JPEG_QUALITY = 90;
+    private static final long RUN_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(2);
+
+    private Map<String, byte[]> mCorpus;
+    private int mRunNumber;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCorpus = new HashMap<>();
+        for (int size : IMAGE_SIZES) {
+            Bitmap bitmap = createBitmap(size);
+            mCorpus.put("image_" + size + ".jpg", createJpeg(bitmap));
+            mCorpus.put("image_" + size + "_progressive.jpg", createProgressiveJpeg(bitmap));
+            bitmap.recycle();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ImagePipelineFactory.shutDown();
+        super.tearDown();
+    }
+
+    public void testThroughputByConcurrency() throws Exception {
+        StandInHttpServer.Config config = new StandInHttpServer.Config()
+                .setLatencyMs(50)
+                .setBytesPerSecond(512 * 1024);
+        for (int concurrency : CONCURRENCIES) {
+            Result result = runWithServer("latency 50ms, 512KB/s", config, concurrency, 0);
+            assertEquals(REQUESTS_PER_RUN, result.succeeded);
+        }
+    }
+
+    public void testChunkedEncoding() throws Exception {
+        StandInHttpServer.Config config = new StandInHttpServer.Config()
+                .setLatencyMs(50)
+                .setBytesPerSecond(512 * 1024)
+                .setChunked(true);
+        Result result = runWithServer("chunked", config, 4, 0);
+        assertEquals(REQUESTS_PER_RUN, result.succeeded);
+    }
+
+    public void testProgressive() throws Exception {
+        StandInHttpServer.Config config = new StandInHttpServer.Config()
+                .setLatencyMs(50)
+                .setBytesPerSecond(128 * 1024);
+        Result result = runWithServer("progressive, 128KB/s", config, 4, 0);
+        assertEquals(REQUESTS_PER_RUN, result.succeeded);
+        assertTrue("No intermediate result", result.hasIntermediateResults());
+    }
+
+    public void testRedirects() throws Exception {
+        StandInHttpServer.Config config = new StandInHttpServer.Config().setLatencyMs(20);
+        Result result = runWithServer("2 redirects", config, 4, 2);
+        assertEquals(REQUESTS_PER_RUN, result.succeeded);
+    }
+
+    public void testFailures() throws Exception {
+        StandInHttpServer.Config config = new StandInHttpServer.Config()
+                .setLatencyMs(20)
+                .setFailureRate(0.1f)
+                .setSeed(42);
+        StandInHttpServer server = new StandInHttpServer(mCorpus, config);
+        server.start();
+        try {
+            Result result = run("10% failures", server, 4, 0);
+            assertEquals(server.getFailureCount(), result.failed);
+            assertEquals(REQUESTS_PER_RUN, result.succeeded + result.failed);
+        } finally {
+            server.close();
+        }
+    }
+
+    private Result runWithServer(String name, StandInHttpServer.Config config, int concurrency, int redirects) throws Exception {
+        StandInHttpServer server = new StandInHttpServer(mCorpus, config);
+        server.start();
+        try {
+            return run(name, server, concurrency, redirects);
+        } finally {
+            server.close();
+        }
+    }
+
+    /**
+     * Fetches {@link #REQUESTS_PER_RUN} images, keeping at most concurrency of them in flight.
+     */
+    private Result run(String name, StandInHttpServer server, int concurrency, int redirects) throws Exception {
+        ImagePipelineFactory.shutDown();
+        ImagePipelineFactory.initialize(ImagePipelineConfig.newBuilder(getContext())
+                .setNetworkFetcherNumThreads(concurrency)
+                .build());
+        ImagePipeline imagePipeline = ImagePipelineFactory.getInstance().getImagePipeline();
+        imagePipeline.clearCaches();
+
+        final List<String> names = new ArrayList<>(mCorpus.keySet());
+        final Result result = new Result(REQUESTS_PER_RUN);
+        final Semaphore inFlight = new Semaphore(concurrency);
+        final CountDownLatch finished = new CountDownLatch(REQUESTS_PER_RUN);
+        final int runNumber = mRunNumber++;
+        final long startNs = System.nanoTime();
+        for (int i = 0; i < REQUESTS_PER_RUN; i++) {
+            inFlight.acquire();
+            String imageName = names.get(i % names.size());
+            String url = redirects > 0 ? server.getRedirectUrl(imageName, redirects) : server.getImageUrl(imageName);
+            ImageRequest request = ImageRequestBuilder.newBuilderWithSource(Uri.parse(url + "?run=" + runNumber + "&i=" + i))
+                    .setProgressiveRenderingEnabled(true)
+                    .build();
+            final int index = i;
+            final long submitNs = System.nanoTime();
+            final AtomicBoolean done = new AtomicBoolean();
+            DataSource<CloseableReference<CloseableImage>> dataSource = imagePipeline.fetchDecodedImage(request, null);
+            dataSource.subscribe(new BaseDataSubscriber<CloseableReference<CloseableImage>>() {
+                @Override
+                protected void onNewResultImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                    CloseableReference.closeSafely(dataSource.getResult());
+                    if (!dataSource.isFinished()) {
+                        result.onIntermediateResult(index, System.nanoTime() - submitNs);
+                    } else if (done.compareAndSet(false, true)) {
+                        result.onSuccess(index, System.nanoTime() - submitNs);
+                        inFlight.release();
+                        finished.countDown();
+                    }
+                }
+
+                @Override
+                protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                    if (done.compareAndSet(false, true)) {
+                        result.onFailure();
+                        inFlight.release();
+                        finished.countDown();
+                    }
+                }
+            }, CallerThreadExecutor.getInstance());
+        }
+        assertTrue("Timed out", finished.await(RUN_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        long durationNs = System.nanoTime() - startNs;
+
+        long bytes = 0;
+        for (int i = 0; i < REQUESTS_PER_RUN; i++) {
+            bytes += mCorpus.get(names.get(i % names.size())).length;
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "%s, concurrency %d: %d ok, %d failed, %.1f images/s, %.1f KB/s, first intermediate p50 %s, completion p50 %.1fms p99 %.1fms",
+                name,
+                concurrency,
+                result.succeeded,
+                result.failed,
+                result.succeeded * 1e9 / durationNs,
+                bytes / 1024.0 * 1e9 / durationNs,
+                result.hasIntermediateResults() ? String.format(Locale.US, "%.1fms", result.getIntermediatePercentileMs(50)) : "n/a",
+                result.getCompletionPercentileMs(50),
+                result.getCompletionPercentileMs(99)));
+        return result;
+    }
+
+    private static Bitmap createBitmap(int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, size, size, 0xFF3366CC, 0xFFCC6633, Shader.TileMode.MIRROR));
+        new Canvas(bitmap).drawRect(0, 0, size, size, paint);
+        return bitmap;
+    }
+
+    private static byte[] createJpeg(Bitmap bitmap) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] createProgressiveJpeg(Bitmap bitmap) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+        return ProgressiveJpegEncoder.encode(pixels, width, height, JPEG_QUALITY);
+    }
+
+    /**
+     * Timings of the requests of a run, in nanoseconds, -1 while unknown.
+     */
+    private static class Result {
+        final long[] intermediateNs;
+        final long[] completionNs;
+        int succeeded;
+        int failed;
+
+        Result(int numRequests) {
+            intermediateNs = new long[numRequests];
+            completionNs = new long[numRequests];
+            Arrays.fill(intermediateNs, -1);
+            Arrays.fill(completionNs, -1);
+        }
+
+        synchronized void onIntermediateResult(int index, long elapsedNs) {
+            if (intermediateNs[index] < 0) {
+                intermediateNs[index] = elapsedNs;
+            }
+        }
+
+        synchronized void onSuccess(int index, long elapsedNs) {
+            completionNs[index] = elapsedNs;
+            succeeded++;
+        }
+
+        synchronized void onFailure() {
+            failed++;
+        }
+
+        synchronized boolean hasIntermediateResults() {
+            return percentileMs(intermediateNs, 50) >= 0;
+        }
+
+        synchronized double getIntermediatePercentileMs(int percentile) {
+            return percentileMs(intermediateNs, percentile);
+        }
+
+        synchronized double getCompletionPercentileMs(int percentile) {
+            return percentileMs(completionNs, percentile);
+        }
+
+        /**
+         * @return the percentile of the known timings, -1 if none is known
+         */
+        private static double percentileMs(long[] timingsNs, int percentile) {
+            long[] known = new long[timingsNs.length];
+            int count = 0;
+            for (long timingNs : timingsNs) {
+                if (timingNs >= 0) {
+                    known[count++] = timingNs;
+                }
+            }
+            if (count == 0) {
+                return -1;
+            }
+            Arrays.sort(known, 0, count);
+            int index = Math.min(count - 1, (int) Math.ceil(percentile / 100.0 * count) - 1);
+            return known[Math.max(0, index)] / 1e6;
+        }
+    }
+}
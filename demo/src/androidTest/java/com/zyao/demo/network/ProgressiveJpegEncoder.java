@@ -0,0 +1,361 @@
+package com.zyao.demo.network;
+
+import java.io.ByteArrayOutputStream;
+
+/**
+ * Minimal progressive JPEG encoder, {@code Bitmap.compress} only writes baseline JPEGs and the
+ * progressive decoding path needs progressive ones.
+ * <p>
+ * The image is written as YCbCr without subsampling, with the standard quantization and Huffman
+ * tables, in five spectral selection scans: the DC coefficients of all components, then the low
+ * luma frequencies, the chroma and the remaining luma frequencies, as a typical CDN encoder
+ * would. There is no successive approximation.
+ */
+public class ProgressiveJpegEncoder {
+
+    private static final int[] ZIGZAG = {
+            0, 1, 8, 16, 9, 2, 3, 10,
+            17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34,
+            27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36,
+            29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46,
+            53, 60, 61, 54, 47, 55, 62, 63};
+
+    private static final int[] LUMA_QUANTIZATION = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99};
+
+    private static final int[] CHROMA_QUANTIZATION = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99};
+
+    private static final int[] DC_LUMA_BITS = {0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0};
+    private static final int[] DC_CHROMA_BITS = {0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0};
+    private static final int[] DC_VALUES = {0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11};
+
+    private static final int[] AC_LUMA_BITS = {0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d};
+    private static final int[] AC_LUMA_VALUES = {
+            0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+            0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+            0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+            0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+            0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+            0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+            0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+            0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+            0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+            0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa};
+
+    private static final int[] AC_CHROMA_BITS = {0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77};
+    private static final int[] AC_CHROMA_VALUES = {
+            0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+            0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+            0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+            0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+            0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+            0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+            0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+            0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+            0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+            0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+            0xf9, 0xfa};
+
+    /**
+     * Scans as {component, first coefficient, last coefficient}, component -1 for all of them.
+     */
+    private static final int[][] SCANS = {
+            {-1, 0, 0},
+            {0, 1, 5},
+            {1, 1, 63},
+            {2, 1, 63},
+            {0, 6, 63}};
+
+    private static final double[][] COSINES = new double[8][8];
+
+    static {
+        for (int x = 0; x < 8; x++) {
+            for (int u = 0; u < 8; u++) {
+                COSINES[x][u] = Math.cos((2 * x + 1) * u * Math.PI / 16);
+            }
+        }
+    }
+
+    private ProgressiveJpegEncoder() {
+    }
+
+    /**
+     * @param argb    pixels, row after row, the alpha is ignored
+     * @param quality between 1 and 100, as for {@code Bitmap.compress}
+     */
+    public static byte[] encode(int[] argb, int width, int height, int quality) {
+        int[][] quantization = {
+                scaleQuantization(LUMA_QUANTIZATION, quality),
+                scaleQuantization(CHROMA_QUANTIZATION, quality)};
+        int blocksWide = (width + 7) / 8;
+        int blocksHigh = (height + 7) / 8;
+        int[][][] coefficients = new int[3][blocksWide * blocksHigh][];
+        double[][] samples = new double[3][64];
+        for (int blockY = 0; blockY < blocksHigh; blockY++) {
+            for (int blockX = 0; blockX < blocksWide; blockX++) {
+                readBlock(argb, width, height, blockX * 8, blockY * 8, samples);
+                for (int component = 0; component < 3; component++) {
+                    coefficients[component][blockY * blocksWide + blockX] = transform(samples[component], quantization[component == 0 ? 0 : 1]);
+                }
+            }
+        }
+
+        HuffmanTable[] dcTables = {new HuffmanTable(DC_LUMA_BITS, DC_VALUES), new HuffmanTable(DC_CHROMA_BITS, DC_VALUES)};
+        HuffmanTable[] acTables = {new HuffmanTable(AC_LUMA_BITS, AC_LUMA_VALUES), new HuffmanTable(AC_CHROMA_BITS, AC_CHROMA_VALUES)};
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeMarker(out, 0xD8);
+        writeSegment(out, 0xE0, new int[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+        for (int table = 0; table < 2; table++) {
+            int[] payload = new int[65];
+            payload[0] = table;
+            for (int k = 0; k < 64; k++) {
+                payload[k + 1] = quantization[table][ZIGZAG[k]];
+            }
+            writeSegment(out, 0xDB, payload);
+        }
+        writeSegment(out, 0xC2, new int[]{
+                8, height >> 8, height & 0xFF, width >> 8, width & 0xFF, 3,
+                1, 0x11, 0,
+                2, 0x11, 1,
+                3, 0x11, 1});
+        writeHuffmanTable(out, 0x00, DC_LUMA_BITS, DC_VALUES);
+        writeHuffmanTable(out, 0x01, DC_CHROMA_BITS, DC_VALUES);
+        writeHuffmanTable(out, 0x10, AC_LUMA_BITS, AC_LUMA_VALUES);
+        writeHuffmanTable(out, 0x11, AC_CHROMA_BITS, AC_CHROMA_VALUES);
+
+        for (int[] scan : SCANS) {
+            int component = scan[0];
+            int start = scan[1];
+            int end = scan[2];
+            BitWriter bits = new BitWriter(out);
+            if (component < 0) {
+                writeSegment(out, 0xDA, new int[]{3, 1, 0x00, 2, 0x11, 3, 0x11, start, end, 0});
+                int[] predictions = new int[3];
+                for (int block = 0; block < blocksWide * blocksHigh; block++) {
+                    for (int c = 0; c < 3; c++) {
+                        int dc = coefficients[c][block][0];
+                        writeDc(bits, dcTables[c == 0 ? 0 : 1], dc - predictions[c]);
+                        predictions[c] = dc;
+                    }
+                }
+            } else {
+                int table = component == 0 ? 0 : 1;
+                writeSegment(out, 0xDA, new int[]{1, component + 1, table, start, end, 0});
+                for (int block = 0; block < blocksWide * blocksHigh; block++) {
+                    writeAc(bits, acTables[table], coefficients[component][block], start, end);
+                }
+            }
+            bits.flush();
+        }
+        writeMarker(out, 0xD9);
+        return out.toByteArray();
+    }
+
+    private static int[] scaleQuantization(int[] table, int quality) {
+        quality = Math.max(1, Math.min(100, quality));
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        int[] scaled = new int[64];
+        for (int i = 0; i < 64; i++) {
+            scaled[i] = Math.max(1, Math.min(255, (table[i] * scale + 50) / 100));
+        }
+        return scaled;
+    }
+
+    /**
+     * Reads the 8x8 block at x, y as level shifted Y, Cb and Cr, repeating the last column and row
+     * past the edges.
+     */
+    private static void readBlock(int[] argb, int width, int height, int x, int y, double[][] samples) {
+        for (int row = 0; row < 8; row++) {
+            int offset = Math.min(y + row, height - 1) * width;
+            for (int column = 0; column < 8; column++) {
+                int pixel = argb[offset + Math.min(x + column, width - 1)];
+                int r = (pixel >> 16) & 0xFF;
+                int g = (pixel >> 8) & 0xFF;
+                int b = pixel & 0xFF;
+                int i = row * 8 + column;
+                samples[0][i] = 0.299 * r + 0.587 * g + 0.114 * b - 128;
+                samples[1][i] = -0.168736 * r - 0.331264 * g + 0.5 * b;
+                samples[2][i] = 0.5 * r - 0.418688 * g - 0.081312 * b;
+            }
+        }
+    }
+
+    /**
+     * @return the quantized DCT coefficients of the block, in zigzag order
+     */
+    private static int[] transform(double[] block, int[] quantization) {
+        double[] rows = new double[64];
+        for (int y = 0; y < 8; y++) {
+            for (int u = 0; u < 8; u++) {
+                double sum = 0;
+                for (int x = 0; x < 8; x++) {
+                    sum += block[y * 8 + x] * COSINES[x][u];
+                }
+                rows[y * 8 + u] = sum * (u == 0 ? Math.sqrt(0.5) : 1) / 2;
+            }
+        }
+        int[] coefficients = new int[64];
+        for (int k = 0; k < 64; k++) {
+            int u = ZIGZAG[k] % 8;
+            int v = ZIGZAG[k] / 8;
+            double sum = 0;
+            for (int y = 0; y < 8; y++) {
+                sum += rows[y * 8 + u] * COSINES[y][v];
+            }
+            sum = sum * (v == 0 ? Math.sqrt(0.5) : 1) / 2;
+            int value = (int) Math.round(sum / quantization[ZIGZAG[k]]);
+            coefficients[k] = Math.max(-1023, Math.min(1023, value));
+        }
+        return coefficients;
+    }
+
+    private static void writeDc(BitWriter bits, HuffmanTable table, int difference) {
+        int size = bitCount(difference);
+        table.write(bits, size);
+        bits.write(magnitudeBits(difference, size), size);
+    }
+
+    /**
+     * Writes the coefficients from start to end of a block, every block ends its own band so only
+     * the one block end of run is needed.
+     */
+    private static void writeAc(BitWriter bits, HuffmanTable table, int[] coefficients, int start, int end) {
+        int run = 0;
+        for (int k = start; k <= end; k++) {
+            int value = coefficients[k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                table.write(bits, 0xF0);
+                run -= 16;
+            }
+            int size = bitCount(value);
+            table.write(bits, (run << 4) | size);
+            bits.write(magnitudeBits(value, size), size);
+            run = 0;
+        }
+        if (run > 0) {
+            table.write(bits, 0x00);
+        }
+    }
+
+    private static int bitCount(int value) {
+        return 32 - Integer.numberOfLeadingZeros(Math.abs(value));
+    }
+
+    private static int magnitudeBits(int value, int size) {
+        return value < 0 ? value + (1 << size) - 1 : value;
+    }
+
+    private static void writeHuffmanTable(ByteArrayOutputStream out, int classAndId, int[] bits, int[] values) {
+        int[] payload = new int[1 + 16 + values.length];
+        payload[0] = classAndId;
+        System.arraycopy(bits, 0, payload, 1, 16);
+        System.arraycopy(values, 0, payload, 17, values.length);
+        writeSegment(out, 0xC4, payload);
+    }
+
+    private static void writeMarker(ByteArrayOutputStream out, int marker) {
+        out.write(0xFF);
+        out.write(marker);
+    }
+
+    private static void writeSegment(ByteArrayOutputStream out, int marker, int[] payload) {
+        writeMarker(out, marker);
+        int length = payload.length + 2;
+        out.write(length >> 8);
+        out.write(length & 0xFF);
+        for (int b : payload) {
+            out.write(b);
+        }
+    }
+
+    /**
+     * Canonical Huffman codes of a table given as its code counts per length and its symbols.
+     */
+    private static class HuffmanTable {
+        final int[] codes = new int[256];
+        final int[] lengths = new int[256];
+
+        HuffmanTable(int[] bits, int[] values) {
+            int code = 0;
+            int index = 0;
+            for (int length = 1; length <= 16; length++) {
+                for (int i = 0; i < bits[length - 1]; i++) {
+                    codes[values[index]] = code++;
+                    lengths[values[index]] = length;
+                    index++;
+                }
+                code <<= 1;
+            }
+        }
+
+        void write(BitWriter bits, int symbol) {
+            if (lengths[symbol] == 0) {
+                throw new IllegalArgumentException("No code for symbol " + symbol);
+            }
+            bits.write(codes[symbol], lengths[symbol]);
+        }
+    }
+
+    /**
+     * Entropy coded segment writer, stuffs a zero after every 0xFF and pads the last byte with
+     * ones.
+     */
+    private static class BitWriter {
+        final ByteArrayOutputStream out;
+        int buffer;
+        int count;
+
+        BitWriter(ByteArrayOutputStream out) {
+            this.out = out;
+        }
+
+        void write(int value, int size) {
+            for (int i = size - 1; i >= 0; i--) {
+                buffer = (buffer << 1) | ((value >> i) & 1);
+                if (++count == 8) {
+                    writeByte();
+                }
+            }
+        }
+
+        void flush() {
+            while (count != 0) {
+                write(1, 1);
+            }
+        }
+
+        private void writeByte() {
+            out.write(buffer);
+            if (buffer == 0xFF) {
+                out.write(0);
+            }
+            buffer = 0;
+            count = 0;
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.zyao.demo.network;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process HTTP/1.1 server standing in for an image CDN, so that the network fetchers can be
+ * measured without a real network.
+ * <p>
+ * Serves a corpus of images on the loopback interface:
+ * <ul>
+ * <li>{@code /images/<name>} the image, after the configured latency and at the configured
+ * bandwidth, chunked if configured, failing with a 503 at the configured rate</li>
+ * <li>{@code /redirect/<hops>/images/<name>} a 302 to the same path with one hop less, then to the
+ * image</li>
+ * <li>{@code /status/<code>} an empty response with that status code</li>
+ * </ul>
+ * The query string is ignored, so that a query can make each request miss the caches. Every
+ * connection is closed after its response.
+ */
+public class StandInHttpServer implements Closeable {
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String IMAGES_PATH = "/images/";
+    private static final String REDIRECT_PATH = "/redirect/";
+    private static final String STATUS_PATH = "/status/";
+    private static final int MAX_HEADER_BYTES = 16 * 1024;
+    private static final int WRITE_SIZE = 4 * 1024;
+
+    private final Map<String, byte[]> mCorpus;
+    private final Config mConfig;
+    private final Random mRandom;
+    private final ExecutorService mExecutor;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final AtomicInteger mFailureCount = new AtomicInteger();
+    private ServerSocket mServerSocket;
+
+    /**
+     * Behaviour of the server, the default serves the images right away, unthrottled, with a
+     * content length and without failures.
+     */
+    public static class Config {
+        long latencyMs = 0;
+        long bytesPerSecond = 0;
+        boolean chunked = false;
+        float failureRate = 0;
+        long seed = 0;
+
+        /**
+         * @param latencyMs delay before the status line of every response
+         */
+        public Config setLatencyMs(long latencyMs) {
+            this.latencyMs = latencyMs;
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond bandwidth of every connection, 0 for unthrottled
+         */
+        public Config setBytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param chunked whether images are sent with chunked transfer encoding instead of a
+         *                content length
+         */
+        public Config setChunked(boolean chunked) {
+            this.chunked = chunked;
+            return this;
+        }
+
+        /**
+         * @param failureRate share of the image requests, between 0 and 1, answered with a 503
+         */
+        public Config setFailureRate(float failureRate) {
+            this.failureRate = failureRate;
+            return this;
+        }
+
+        /**
+         * @param seed seed of the failures, so that runs are repeatable
+         */
+        public Config setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    /**
+     * @param corpus images by name
+     */
+    public StandInHttpServer(Map<String, byte[]> corpus, Config config) {
+        mCorpus = new HashMap<>(corpus);
+        mConfig = config;
+        mRandom = new Random(config.seed);
+        mExecutor = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Starts listening on an ephemeral port of the loopback interface.
+     */
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            throw new IllegalStateException("Already started");
+        }
+        mServerSocket = new ServerSocket(0, 64, InetAddress.getByName("127.0.0.1"));
+        final ServerSocket serverSocket = mServerSocket;
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                acceptConnections(serverSocket);
+            }
+        });
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (mServerSocket != null) {
+            mServerSocket.close();
+            mServerSocket = null;
+        }
+        mExecutor.shutdownNow();
+    }
+
+    public synchronized String getBaseUrl() {
+        if (mServerSocket == null) {
+            throw new IllegalStateException("Not started");
+        }
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort();
+    }
+
+    public String getImageUrl(String name) {
+        return getBaseUrl() + IMAGES_PATH + name;
+    }
+
+    public String getRedirectUrl(String name, int hops) {
+        return getBaseUrl() + REDIRECT_PATH + hops + IMAGES_PATH + name;
+    }
+
+    public String getStatusUrl(int statusCode) {
+        return getBaseUrl() + STATUS_PATH + statusCode;
+    }
+
+    /**
+     * @return number of requests received, redirects included
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    /**
+     * @return number of image requests that failed on purpose
+     */
+    public int getFailureCount() {
+        return mFailureCount.get();
+    }
+
+    private void acceptConnections(ServerSocket serverSocket) {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                // closed
+                return;
+            }
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        handleConnection(socket);
+                    } catch (IOException e) {
+                        // the client went away, typically a cancelled request
+                    } finally {
+                        closeQuietly(socket);
+                    }
+                }
+            });
+        }
+    }
+
+    private void handleConnection(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        String requestLine = readRequestHead(socket.getInputStream());
+        if (requestLine == null) {
+            return;
+        }
+        mRequestCount.incrementAndGet();
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), WRITE_SIZE);
+        sleep(mConfig.latencyMs);
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length < 2 || !"GET".equals(parts[0])) {
+            writeEmptyResponse(out, 405, "Method Not Allowed", null);
+            return;
+        }
+        String path = parts[1];
+        int queryStart = path.indexOf('?');
+        if (queryStart >= 0) {
+            path = path.substring(0, queryStart);
+        }
+
+        if (path.startsWith(REDIRECT_PATH)) {
+            handleRedirect(out, path);
+        } else if (path.startsWith(STATUS_PATH)) {
+            int statusCode = parseInt(path.substring(STATUS_PATH.length()), 500);
+            writeEmptyResponse(out, statusCode, "Status", null);
+        } else if (path.startsWith(IMAGES_PATH)) {
+            handleImage(out, path.substring(IMAGES_PATH.length()));
+        } else {
+            writeEmptyResponse(out, 404, "Not Found", null);
+        }
+    }
+
+    private void handleRedirect(OutputStream out, String path) throws IOException {
+        String rest = path.substring(REDIRECT_PATH.length());
+        int slash = rest.indexOf('/');
+        if (slash < 0) {
+            writeEmptyResponse(out, 404, "Not Found", null);
+            return;
+        }
+        int hops = parseInt(rest.substring(0, slash), 0);
+        String target = rest.substring(slash);
+        String location = hops > 1 ? REDIRECT_PATH + (hops - 1) + target : target;
+        writeEmptyResponse(out, 302, "Found", getBaseUrl() + location);
+    }
+
+    private void handleImage(OutputStream out, String name) throws IOException {
+        byte[] image = mCorpus.get(name);
+        if (image == null) {
+            writeEmptyResponse(out, 404, "Not Found", null);
+            return;
+        }
+        if (shouldFail()) {
+            mFailureCount.incrementAndGet();
+            writeEmptyResponse(out, 503, "Service Unavailable", null);
+            return;
+        }
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 200 OK\r\n");
+        head.append("Content-Type: application/octet-stream\r\n");
+        if (mConfig.chunked) {
+            head.append("Transfer-Encoding: chunked\r\n");
+        } else {
+            head.append("Content-Length: ").append(image.length).append("\r\n");
+        }
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes(ASCII));
+        out.flush();
+
+        long startNs = System.nanoTime();
+        for (int offset = 0; offset < image.length; offset += WRITE_SIZE) {
+            int count = Math.min(WRITE_SIZE, image.length - offset);
+            if (mConfig.chunked) {
+                out.write((Integer.toHexString(count) + "\r\n").getBytes(ASCII));
+                out.write(image, offset, count);
+                out.write("\r\n".getBytes(ASCII));
+            } else {
+                out.write(image, offset, count);
+            }
+            out.flush();
+            throttle(startNs, offset + count);
+        }
+        if (mConfig.chunked) {
+            out.write("0\r\n\r\n".getBytes(ASCII));
+        }
+        out.flush();
+    }
+
+    private synchronized boolean shouldFail() {
+        return mConfig.failureRate > 0 && mRandom.nextFloat() < mConfig.failureRate;
+    }
+
+    /**
+     * Sleeps until sending that many bytes took as long as it would at the configured bandwidth.
+     */
+    private void throttle(long startNs, long bytesSent) throws IOException {
+        if (mConfig.bytesPerSecond <= 0) {
+            return;
+        }
+        long expectedMs = bytesSent * 1000 / mConfig.bytesPerSecond;
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNs);
+        sleep(expectedMs - elapsedMs);
+    }
+
+    private static void writeEmptyResponse(OutputStream out, int statusCode, String reason, String location) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(statusCode).append(' ').append(reason).append("\r\n");
+        if (location != null) {
+            head.append("Location: ").append(location).append("\r\n");
+        }
+        head.append("Content-Length: 0\r\n");
+        head.append("Connection: close\r\n\r\n");
+        out.write(head.toString().getBytes(ASCII));
+        out.flush();
+    }
+
+    /**
+     * Reads the request line and the headers, which are ignored.
+     *
+     * @return the request line, null if the connection closed before it
+     */
+    private static String readRequestHead(InputStream in) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4 && head.size() < MAX_HEADER_BYTES) {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            head.write(b);
+            boolean expectCr = matched == 0 || matched == 2;
+            if ((expectCr && b == '\r') || (!expectCr && b == '\n')) {
+                matched++;
+            } else {
+                matched = b == '\r' ? 1 : 0;
+            }
+        }
+        String text = new String(head.toByteArray(), ASCII);
+        int end = text.indexOf("\r\n");
+        return end < 0 ? text : text.substring(0, end);
+    }
+
+    private static int parseInt(String value, int defaultValue) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private static void sleep(long ms) throws IOException {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SocketException("Interrupted");
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignored
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.zyao.demo.prefetch;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Shader;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.references.CloseableReference;
+import com.facebook.datasource.BaseDataSubscriber;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.core.ImagePipeline;
+import com.facebook.imagepipeline.core.ImagePipelineConfig;
+import com.facebook.imagepipeline.core.ImagePipelineFactory;
+import com.facebook.imagepipeline.core.ScrollPrefetcher;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.request.ImageRequest;
+import com.facebook.imagepipeline.request.ImageRequestBuilder;
+import com.zyao.demo.network.StandInHttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Replays a scroll trace over a list of network images served by a {@link StandInHttpServer},
+ * with and without a {@link ScrollPrefetcher}, and logs under {@link #TAG} the share of the items
+ * whose image is in the bitmap cache when they scroll into view, that is shown without a
+ * placeholder.
+ * <p>
+ * The list is simulated frame by frame on the test thread: every item that becomes visible is
+ * fetched like a list would, and the prefetcher is told of the visible range and velocity. The
+ * items visible before the first scroll are not counted, nothing can have prefetched them.
+ */
+public class ScrollPrefetcherBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "ScrollPrefetcherBench";
+    private static final int[] IMAGE_SIZES = {256, 384, 512};
+    private static final int ITEM_COUNT = 300;
+    private static final int VISIBLE_ITEMS = 6;
+    private static final long FRAME_MS = 16;
+
+    /**
+     * Scroll trace as {velocity in items per second, duration in ms}: a fling that slows down, a
+     * pause, a slow scroll, a reversal and a last fling.
+     */
+    private static final int[][] TRACE = {
+            {24, 1500},
+            {12, 1500},
+            {4, 1000},
+            {0, 1500},
+            {6, 3000},
+            {-8, 1500},
+            {0, 1000},
+            {16, 3000}};
+
+    private Map<String, byte[]> mCorpus;
+    private int mRunNumber;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mCorpus = new HashMap<>();
+        for (int size : IMAGE_SIZES) {
+            mCorpus.put("image_" + size + ".jpg", createJpeg(size));
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ImagePipelineFactory.shutDown();
+        super.tearDown();
+    }
+
+    public void testReadyWhenShown() throws Exception {
+        StandInHttpServer.Config config = new StandInHttpServer.Config()
+                .setLatencyMs(100)
+                .setBytesPerSecond(1024 * 1024);
+        StandInHttpServer server = new StandInHttpServer(mCorpus, config);
+        server.start();
+        try {
+            Result withoutPrefetcher = replay("without prefetcher", server, false);
+            Result withPrefetcher = replay("with prefetcher", server, true);
+            assertTrue(withoutPrefetcher.shown > 0);
+            assertTrue(withPrefetcher.shown > 0);
+        } finally {
+            server.close();
+        }
+    }
+
+    private Result replay(String name, final StandInHttpServer server, boolean prefetch) throws Exception {
+        ImagePipelineFactory.shutDown();
+        ImagePipelineFactory.initialize(ImagePipelineConfig.newBuilder(getContext()).build());
+        ImagePipeline imagePipeline = ImagePipelineFactory.getInstance().getImagePipeline();
+        imagePipeline.clearCaches();
+
+        final List<String> names = new ArrayList<>(mCorpus.keySet());
+        final int runNumber = mRunNumber++;
+        ScrollPrefetcher.ImageRequestProvider requestProvider = new ScrollPrefetcher.ImageRequestProvider() {
+            @Override
+            public ImageRequest getImageRequest(int position) {
+                String url = server.getImageUrl(names.get(position % names.size()));
+                return ImageRequestBuilder.newBuilderWithSource(Uri.parse(url + "?run=" + runNumber + "&item=" + position)).build();
+            }
+        };
+        ScrollPrefetcher prefetcher = prefetch ? new ScrollPrefetcher(imagePipeline, requestProvider, null) : null;
+        List<DataSource<CloseableReference<CloseableImage>>> dataSources = new ArrayList<>();
+        Result result = new Result();
+        int requestCountBefore = server.getRequestCount();
+
+        double position = 0;
+        // the last item of the range is partially visible
+        int shownUpTo = VISIBLE_ITEMS;
+        for (int i = 0; i <= shownUpTo; i++) {
+            dataSources.add(show(imagePipeline, requestProvider.getImageRequest(i)));
+        }
+        int shownFrom = 0;
+        for (int[] phase : TRACE) {
+            float velocity = phase[0];
+            long phaseEnd = SystemClock.uptimeMillis() + phase[1];
+            while (SystemClock.uptimeMillis() < phaseEnd) {
+                long frameStart = SystemClock.uptimeMillis();
+                position = Math.max(0, Math.min(ITEM_COUNT - VISIBLE_ITEMS, position + velocity * FRAME_MS / 1000));
+                int first = (int) position;
+                int last = Math.min(ITEM_COUNT - 1, first + VISIBLE_ITEMS);
+                // the items that scroll into view for the first time, in both directions
+                for (int item = first; item <= last; item++) {
+                    if (item < shownFrom || item > shownUpTo) {
+                        ImageRequest request = requestProvider.getImageRequest(item);
+                        result.onShown(imagePipeline.isInBitmapMemoryCache(request));
+                        dataSources.add(show(imagePipeline, request));
+                    }
+                }
+                shownFrom = Math.min(shownFrom, first);
+                shownUpTo = Math.max(shownUpTo, last);
+                if (prefetcher != null) {
+                    prefetcher.onScroll(first, last, ITEM_COUNT, velocity);
+                }
+                SystemClock.sleep(Math.max(0, frameStart + FRAME_MS - SystemClock.uptimeMillis()));
+            }
+        }
+
+        if (prefetcher != null) {
+            prefetcher.cancelAll();
+        }
+        for (DataSource<CloseableReference<CloseableImage>> dataSource : dataSources) {
+            dataSource.close();
+        }
+        Log.i(TAG, String.format(Locale.US,
+                "%s: %d items shown, %.1f%% ready when shown, %d requests to the server",
+                name,
+                result.shown,
+                result.ready * 100.0 / Math.max(1, result.shown),
+                server.getRequestCount() - requestCountBefore));
+        return result;
+    }
+
+    /**
+     * Fetches the image of an item that became visible, as the list would.
+     */
+    private static DataSource<CloseableReference<CloseableImage>> show(ImagePipeline imagePipeline, ImageRequest request) {
+        DataSource<CloseableReference<CloseableImage>> dataSource = imagePipeline.fetchDecodedImage(request, null);
+        dataSource.subscribe(new BaseDataSubscriber<CloseableReference<CloseableImage>>() {
+            @Override
+            protected void onNewResultImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+                CloseableReference.closeSafely(dataSource.getResult());
+            }
+
+            @Override
+            protected void onFailureImpl(DataSource<CloseableReference<CloseableImage>> dataSource) {
+            }
+        }, CallerThreadExecutor.getInstance());
+        return dataSource;
+    }
+
+    private static byte[] createJpeg(int size) {
+        Bitmap bitmap = Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888);
+        Paint paint = new Paint();
+        paint.setShader(new LinearGradient(0, 0, size, size, 0xFF33CC66, 0xFF6633CC, Shader.TileMode.MIRROR));
+        new Canvas(bitmap).drawRect(0, 0, size, size, paint);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 90, out);
+        bitmap.recycle();
+        return out.toByteArray();
+    }
+
+    private static class Result {
+        int shown;
+        int ready;
+
+        void onShown(boolean isReady) {
+            shown++;
+            if (isReady) {
+                ready++;
+            }
+        }
+    }
+}
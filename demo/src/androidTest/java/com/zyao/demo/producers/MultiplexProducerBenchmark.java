@@ -0,0 +1,212 @@
+package com.zyao.demo.producers;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.facebook.common.references.CloseableReference;
+import com.facebook.imagepipeline.cache.DefaultCacheKeyFactory;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.image.CloseableImage;
+import com.facebook.imagepipeline.listener.BaseRequestListener;
+import com.facebook.imagepipeline.producers.BaseConsumer;
+import com.facebook.imagepipeline.producers.BitmapMemoryCacheKeyMultiplexProducer;
+import com.facebook.imagepipeline.producers.Consumer;
+import com.facebook.imagepipeline.producers.Producer;
+import com.facebook.imagepipeline.producers.ProducerContext;
+import com.facebook.imagepipeline.producers.ProducerListener;
+import com.facebook.imagepipeline.producers.SettableProducerContext;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures the {@link com.facebook.imagepipeline.producers.MultiplexProducer} under contention:
+ * many threads submit requests at once on a small set of keys, so that most of them join a
+ * request in flight for the same key.
+ * <p>
+ * The multiplexer is the one of the bitmap memory cache, on top of a stub producer that completes
+ * its requests on a single thread, in order, with an intermediate and a final result, so that
+ * requests stay in flight long enough to overlap. For every number of threads and of keys, logs
+ * under {@link #TAG} the throughput and the share of the requests that were multiplexed into
+ * another one.
+ */
+public class MultiplexProducerBenchmark extends AndroidTestCase {
+
+    private static final String TAG = "MultiplexProducerBench";
+    private static final int[] THREADS = {1, 2, 4, 8, 16};
+    private static final int[] KEYS = {1, 8, 64, 1024};
+    private static final int REQUESTS_PER_THREAD = 2000;
+    private static final long RUN_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(1);
+
+    private final ProducerListener mProducerListener = new BaseRequestListener();
+
+    public void testOverlappingKeys() throws Exception {
+        for (int numKeys : KEYS) {
+            for (int numThreads : THREADS) {
+                run(numThreads, numKeys);
+            }
+        }
+    }
+
+    private void run(int numThreads, int numKeys) throws Exception {
+        final ImageRequest[] requests = new ImageRequest[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            requests[i] = ImageRequest.fromUri("http://127.0.0.1/images/image_" + i + ".jpg");
+        }
+        final DeferredProducer inputProducer = new DeferredProducer();
+        final BitmapMemoryCacheKeyMultiplexProducer multiplexProducer = new BitmapMemoryCacheKeyMultiplexProducer(DefaultCacheKeyFactory.getInstance(), inputProducer);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch finished = new CountDownLatch(numThreads * REQUESTS_PER_THREAD);
+        final AtomicInteger requestIds = new AtomicInteger();
+
+        Thread completer = new Thread(inputProducer, "completer");
+        completer.start();
+        for (int t = 0; t < numThreads; t++) {
+            final Random random = new Random(t);
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < REQUESTS_PER_THREAD; i++) {
+                        ImageRequest request = requests[random.nextInt(requests.length)];
+                        SettableProducerContext context = new SettableProducerContext(
+                                request,
+                                String.valueOf(requestIds.getAndIncrement()),
+                                mProducerListener,
+                                null,
+                                ImageRequest.RequestLevel.FULL_FETCH,
+                                false,
+                                true,
+                                Priority.MEDIUM);
+                        multiplexProducer.produceResults(new CountingConsumer(finished), context);
+                    }
+                }
+            }, "requester-" + t).start();
+        }
+
+        long startNs = System.nanoTime();
+        start.countDown();
+        try {
+            assertTrue("Timed out", finished.await(RUN_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        } finally {
+            completer.interrupt();
+        }
+        long durationNs = System.nanoTime() - startNs;
+
+        int numRequests = numThreads * REQUESTS_PER_THREAD;
+        Log.i(TAG, String.format(Locale.US,
+                "%d threads, %d keys: %.0f requests/s, %.1f%% multiplexed",
+                numThreads,
+                numKeys,
+                numRequests * 1e9 / durationNs,
+                (numRequests - inputProducer.getRequestCount()) * 100.0 / numRequests));
+    }
+
+    /**
+     * Completes every request it is given on the thread running it, in order, with an intermediate
+     * result and then a final one.
+     */
+    private static class DeferredProducer implements Producer<CloseableReference<CloseableImage>>, Runnable {
+        private final BlockingQueue<Consumer<CloseableReference<CloseableImage>>> mPending = new LinkedBlockingQueue<>();
+        private final AtomicInteger mRequestCount = new AtomicInteger();
+
+        @Override
+        public void produceResults(Consumer<CloseableReference<CloseableImage>> consumer, ProducerContext context) {
+            mRequestCount.incrementAndGet();
+            mPending.add(consumer);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Consumer<CloseableReference<CloseableImage>> consumer = mPending.take();
+                    deliver(consumer, false);
+                    deliver(consumer, true);
+                }
+            } catch (InterruptedException e) {
+                // the run is over
+            }
+        }
+
+        int getRequestCount() {
+            return mRequestCount.get();
+        }
+
+        private static void deliver(Consumer<CloseableReference<CloseableImage>> consumer, boolean isLast) {
+            CloseableReference<CloseableImage> image = CloseableReference.<CloseableImage>of(new StubImage());
+            try {
+                consumer.onNewResult(image, isLast);
+            } finally {
+                CloseableReference.closeSafely(image);
+            }
+        }
+    }
+
+    private static class CountingConsumer extends BaseConsumer<CloseableReference<CloseableImage>> {
+        private final CountDownLatch mFinished;
+
+        CountingConsumer(CountDownLatch finished) {
+            mFinished = finished;
+        }
+
+        @Override
+        protected void onNewResultImpl(CloseableReference<CloseableImage> newResult, boolean isLast) {
+            if (isLast) {
+                mFinished.countDown();
+            }
+        }
+
+        @Override
+        protected void onFailureImpl(Throwable t) {
+            fail(t.toString());
+        }
+
+        @Override
+        protected void onCancellationImpl() {
+            fail("Cancelled");
+        }
+    }
+
+    /**
+     * Image without pixels, only its reference is multiplexed.
+     */
+    private static class StubImage extends CloseableImage {
+        private boolean mClosed;
+
+        @Override
+        public int getSizeInBytes() {
+            return 0;
+        }
+
+        @Override
+        public synchronized void close() {
+            mClosed = true;
+        }
+
+        @Override
+        public synchronized boolean isClosed() {
+            return mClosed;
+        }
+
+        @Override
+        public int getWidth() {
+            return 1;
+        }
+
+        @Override
+        public int getHeight() {
+            return 1;
+        }
+    }
+}
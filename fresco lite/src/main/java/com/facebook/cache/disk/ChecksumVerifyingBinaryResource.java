@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.binaryresource.FileBinaryResource;
+import com.facebook.common.internal.Preconditions;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.CRC32;
+
+/**
+ * A file resource that verifies its content against the size and CRC32 stored at insertion time.
+ * <p>
+ * <p>Verification is lazy: a size mismatch (typically a truncated file) fails as soon as the stream
+ * is opened, the checksum itself is computed while the caller reads and checked when the end of
+ * the stream is reached, so there is no extra pass over the file. Both failures are reported with a
+ * {@link CorruptedResourceException}.
+ */
+class ChecksumVerifyingBinaryResource implements BinaryResource
+{
+    private final FileBinaryResource mResource;
+    private final long mExpectedSize;
+    private final long mExpectedChecksum;
+
+    ChecksumVerifyingBinaryResource (FileBinaryResource resource, long expectedSize, long expectedChecksum)
+    {
+        mResource = Preconditions.checkNotNull(resource);
+        mExpectedSize = expectedSize;
+        mExpectedChecksum = expectedChecksum;
+    }
+
+    @Override
+    public InputStream openStream () throws IOException
+    {
+        checkSize(mResource.size());
+        return new VerifyingInputStream(mResource.openStream());
+    }
+
+    @Override
+    public byte[] read () throws IOException
+    {
+        byte[] bytes = mResource.read();
+        checkSize(bytes.length);
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length);
+        checkChecksum(crc.getValue());
+        return bytes;
+    }
+
+    @Override
+    public long size ()
+    {
+        return mResource.size();
+    }
+
+    private void checkSize (long size) throws CorruptedResourceException
+    {
+        if (size != mExpectedSize)
+        {
+            throw new CorruptedResourceException("Size mismatch for " + mResource.getFile() + ". Expected: " + mExpectedSize + ", found: " + size);
+        }
+    }
+
+    private void checkChecksum (long checksum) throws CorruptedResourceException
+    {
+        if (checksum != mExpectedChecksum)
+        {
+            throw new CorruptedResourceException("Checksum mismatch for " + mResource.getFile());
+        }
+    }
+
+    /**
+     * Updates the checksum with every byte read, and checks it on end of stream. Skipping bytes
+     * makes the content unverifiable, so the check is then not done.
+     */
+    private class VerifyingInputStream extends FilterInputStream
+    {
+        private final CRC32 mCrc = new CRC32();
+        private long mCount;
+        private boolean mSkipped;
+        private boolean mVerified;
+
+        VerifyingInputStream (InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read () throws IOException
+        {
+            int b = in.read();
+            if (b == -1)
+            {
+                verify();
+            }
+            else
+            {
+                mCrc.update(b);
+                mCount++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read (byte[] buffer, int offset, int length) throws IOException
+        {
+            int read = in.read(buffer, offset, length);
+            if (read == -1)
+            {
+                verify();
+            }
+            else
+            {
+                mCrc.update(buffer, offset, read);
+                mCount += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip (long n) throws IOException
+        {
+            mSkipped = true;
+            return in.skip(n);
+        }
+
+        @Override
+        public boolean markSupported ()
+        {
+            return false;
+        }
+
+        private void verify () throws CorruptedResourceException
+        {
+            if (mVerified || mSkipped)
+            {
+                return;
+            }
+            mVerified = true;
+            checkSize(mCount);
+            checkChecksum(mCrc.getValue());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import java.io.IOException;
+
+/**
+ * Thrown while reading a cached resource whose content does not match the checksum stored when it
+ * was inserted. The entry is unusable and should be removed from the cache.
+ */
+public class CorruptedResourceException extends IOException
+{
+    public CorruptedResourceException (String message)
+    {
+        super(message);
+    }
+}
@@ -18,21 +18,28 @@ import com.facebook.cache.common.WriterCallback;
 import com.facebook.common.file.FileTree;
 import com.facebook.common.file.FileTreeVisitor;
 import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Closeables;
 import com.facebook.common.internal.CountingOutputStream;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.time.Clock;
 import com.facebook.common.time.SystemClock;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
 
 import javax.annotation.Nullable;
 
@@ -50,6 +57,7 @@ public class DefaultDiskStorage implements DiskStorage
     private static final Class<?> TAG = DefaultDiskStorage.class;
     private static final String CONTENT_FILE_EXTENSION = ".cnt";
     private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final String CHECKSUM_FILE_EXTENSION = ".crc";
     private static final String DEFAULT_DISK_STORAGE_VERSION_PREFIX = "v2";
     /*
      * We use sharding to avoid Samsung's RFS problem, and to avoid having one big directory
@@ -82,6 +90,11 @@ public class DefaultDiskStorage implements DiskStorage
     private final CacheErrorLogger mCacheErrorLogger;
     private final Clock mClock;
 
+    /**
+     * True if a checksum of each entry is stored at insertion time and verified when reading it
+     */
+    private final boolean mChecksumEnabled;
+
     /**
      * Instantiates a ShardedDiskStorage that will use the directory to save a map between
      * keys and files. The version is very important if clients change the format
@@ -94,6 +107,17 @@ public class DefaultDiskStorage implements DiskStorage
      * @param cacheErrorLogger logger for various events
      */
     public DefaultDiskStorage (File rootDirectory, int version, CacheErrorLogger cacheErrorLogger)
+    {
+        this(rootDirectory, version, cacheErrorLogger, false);
+    }
+
+    /**
+     * @param checksumEnabled if true, the size and CRC32 of every entry are stored in a checksum file
+     *                        next to it at commit time. Resources returned by {@link #getResource}
+     *                        then throw a {@link CorruptedResourceException} while being read if the
+     *                        content does not match.
+     */
+    public DefaultDiskStorage (File rootDirectory, int version, CacheErrorLogger cacheErrorLogger, boolean checksumEnabled)
     {
         Preconditions.checkNotNull(rootDirectory);
 
@@ -108,6 +132,7 @@ public class DefaultDiskStorage implements DiskStorage
         mCacheErrorLogger = cacheErrorLogger;
         recreateDirectoryIfVersionChanges();
         mClock = SystemClock.get();
+        mChecksumEnabled = checksumEnabled;
     }
 
     private static boolean isExternal (File directory, CacheErrorLogger cacheErrorLogger)
@@ -159,7 +184,12 @@ public class DefaultDiskStorage implements DiskStorage
         if (file.exists())
         {
             file.setLastModified(mClock.now());
-            return FileBinaryResource.createOrNull(file);
+            FileBinaryResource resource = FileBinaryResource.createOrNull(file);
+            if (mChecksumEnabled)
+            {
+                return maybeVerifyingResource(resource);
+            }
+            return resource;
         }
         return null;
     }
@@ -374,6 +404,10 @@ public class DefaultDiskStorage implements DiskStorage
 
     private long doRemove (final File contentFile)
     {
+        if (mChecksumEnabled)
+        {
+            getChecksumFileFor(contentFile).delete();
+        }
         if (!contentFile.exists())
         {
             return 0;
@@ -388,6 +422,46 @@ public class DefaultDiskStorage implements DiskStorage
         return -1;
     }
 
+    /**
+     * The checksum file of an entry has the same name with a different extension
+     */
+    private static File getChecksumFileFor (File contentFile)
+    {
+        String name = contentFile.getName();
+        String resourceId = name.substring(0, name.length() - CONTENT_FILE_EXTENSION.length());
+        return new File(contentFile.getParentFile(), resourceId + CHECKSUM_FILE_EXTENSION);
+    }
+
+    /**
+     * Wraps the resource so that it is verified while being read. Resources without a readable
+     * checksum file (for instance written while checksums were disabled) are returned unverified.
+     */
+    private BinaryResource maybeVerifyingResource (FileBinaryResource resource)
+    {
+        File checksumFile = getChecksumFileFor(resource.getFile());
+        if (!checksumFile.exists())
+        {
+            return resource;
+        }
+        DataInputStream in = null;
+        try
+        {
+            in = new DataInputStream(new FileInputStream(checksumFile));
+            long size = in.readLong();
+            long checksum = in.readLong();
+            return new ChecksumVerifyingBinaryResource(resource, size, checksum);
+        }
+        catch (IOException ioe)
+        {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.READ_INVALID_ENTRY, TAG, "checksum file could not be read: " + checksumFile, ioe);
+            return resource;
+        }
+        finally
+        {
+            Closeables.closeQuietly(in);
+        }
+    }
+
     private DiskDumpInfoEntry dumpCacheEntry (Entry entry) throws IOException
     {
         EntryImpl entryImpl = (EntryImpl) entry;
@@ -450,11 +524,13 @@ public class DefaultDiskStorage implements DiskStorage
      * Categories for the different internal files a ShardedDiskStorage maintains.
      * CONTENT: the file that has the content
      * TEMP: temporal files, used to write the content until they are switched to CONTENT files
+     * CHECKSUM: size and checksum of the CONTENT file with the same resource id, if enabled
      */
     private enum FileType
     {
         CONTENT(CONTENT_FILE_EXTENSION),
-        TEMP(TEMP_FILE_EXTENSION);
+        TEMP(TEMP_FILE_EXTENSION),
+        CHECKSUM(CHECKSUM_FILE_EXTENSION);
 
         public final String extension;
 
@@ -473,6 +549,10 @@ public class DefaultDiskStorage implements DiskStorage
             {
                 return TEMP;
             }
+            else if (CHECKSUM_FILE_EXTENSION.equals(extension))
+            {
+                return CHECKSUM;
+            }
             return null;
         }
     }
@@ -670,6 +750,11 @@ public class DefaultDiskStorage implements DiskStorage
             {
                 return isRecentFile(file);
             }
+            if (info.type == FileType.CHECKSUM)
+            {
+                // orphans are left when the content is removed while checksums are disabled
+                return getContentFileFor(info.resourceId).exists();
+            }
             Preconditions.checkState(info.type == FileType.CONTENT);
             return true;
         }
@@ -729,6 +814,8 @@ public class DefaultDiskStorage implements DiskStorage
         @VisibleForTesting
     /* package protected*/ final File mTemporaryFile;
         private final String mResourceId;
+        private long mWrittenLength = -1;
+        private long mChecksum;
 
         public InserterImpl (String resourceId, File temporaryFile)
         {
@@ -753,12 +840,24 @@ public class DefaultDiskStorage implements DiskStorage
             long length;
             try
             {
-                CountingOutputStream countingStream = new CountingOutputStream(fileStream);
+                // the checksum is computed as the data goes through, no need to read the file again
+                CheckedOutputStream checkedStream = null;
+                OutputStream outputStream = fileStream;
+                if (mChecksumEnabled)
+                {
+                    checkedStream = new CheckedOutputStream(fileStream, new CRC32());
+                    outputStream = checkedStream;
+                }
+                CountingOutputStream countingStream = new CountingOutputStream(outputStream);
                 callback.write(countingStream);
                 // just in case underlying stream's close method doesn't flush:
                 // we flush it manually and inside the try/catch
                 countingStream.flush();
                 length = countingStream.getCount();
+                if (checkedStream != null)
+                {
+                    mChecksum = checkedStream.getChecksum().getValue();
+                }
             }
             finally
             {
@@ -773,6 +872,7 @@ public class DefaultDiskStorage implements DiskStorage
             {
                 throw new IncompleteFileException(length, mTemporaryFile.length());
             }
+            mWrittenLength = length;
         }
 
         @Override
@@ -781,6 +881,13 @@ public class DefaultDiskStorage implements DiskStorage
             // the temp resource must be ours!
             File targetFile = getContentFileFor(mResourceId);
 
+            if (mChecksumEnabled && mWrittenLength >= 0)
+            {
+                // written before the content: a checksum file not matching its content only costs
+                // a refetch, while unverified content is what we want to avoid
+                writeChecksumFile(targetFile);
+            }
+
             try
             {
                 FileUtils.rename(mTemporaryFile, targetFile);
@@ -820,5 +927,31 @@ public class DefaultDiskStorage implements DiskStorage
         {
             return !mTemporaryFile.exists() || mTemporaryFile.delete();
         }
+
+        private void writeChecksumFile (File contentFile) throws IOException
+        {
+            File checksumFile = getChecksumFileFor(contentFile);
+            File temporaryChecksumFile = new FileInfo(FileType.TEMP, mResourceId).createTempFile(contentFile.getParentFile());
+            try
+            {
+                DataOutputStream out = new DataOutputStream(new FileOutputStream(temporaryChecksumFile));
+                try
+                {
+                    out.writeLong(mWrittenLength);
+                    out.writeLong(mChecksum);
+                }
+                finally
+                {
+                    out.close();
+                }
+                FileUtils.rename(temporaryChecksumFile, checksumFile);
+            }
+            catch (IOException ioe)
+            {
+                mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.WRITE_INVALID_ENTRY, TAG, "commit checksum", ioe);
+                temporaryChecksumFile.delete();
+                throw ioe;
+            }
+        }
     }
 }
@@ -24,6 +24,7 @@ import com.facebook.common.internal.Suppliers;
 import com.facebook.common.util.ByteConstants;
 
 import java.io.File;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nullable;
 
@@ -44,6 +45,9 @@ public class DiskCacheConfig
     private final CacheEventListener mCacheEventListener;
     private final DiskTrimmableRegistry mDiskTrimmableRegistry;
     private final Context mContext;
+    private final boolean mMultiProcessEnabled;
+    private final long mInFlightTimeoutMs;
+    private final boolean mChecksumEnabled;
 
     private DiskCacheConfig (Builder builder)
     {
@@ -58,6 +62,9 @@ public class DiskCacheConfig
         mCacheEventListener = builder.mCacheEventListener == null ? NoOpCacheEventListener.getInstance() : builder.mCacheEventListener;
         mDiskTrimmableRegistry = builder.mDiskTrimmableRegistry == null ? NoOpDiskTrimmableRegistry.getInstance() : builder.mDiskTrimmableRegistry;
         mContext = builder.mContext;
+        mMultiProcessEnabled = builder.mMultiProcessEnabled;
+        mInFlightTimeoutMs = builder.mInFlightTimeoutMs;
+        mChecksumEnabled = builder.mChecksumEnabled;
     }
 
     /**
@@ -130,6 +137,21 @@ public class DiskCacheConfig
         return mContext;
     }
 
+    public boolean isMultiProcessEnabled ()
+    {
+        return mMultiProcessEnabled;
+    }
+
+    public long getInFlightTimeoutMs ()
+    {
+        return mInFlightTimeoutMs;
+    }
+
+    public boolean isChecksumEnabled ()
+    {
+        return mChecksumEnabled;
+    }
+
     public static class Builder
     {
 
@@ -146,6 +168,9 @@ public class DiskCacheConfig
         private CacheErrorLogger mCacheErrorLogger;
         private CacheEventListener mCacheEventListener;
         private DiskTrimmableRegistry mDiskTrimmableRegistry;
+        private boolean mMultiProcessEnabled = false;
+        private long mInFlightTimeoutMs = TimeUnit.SECONDS.toMillis(5);
+        private boolean mChecksumEnabled = false;
 
         private Builder (@Nullable Context context)
         {
@@ -259,6 +284,40 @@ public class DiskCacheConfig
             return this;
         }
 
+        /**
+         * Enables the multi-process mode, for caches whose directory is shared by several processes
+         * of the app: inserts become visible to the other processes, a resource being fetched by one
+         * process is not fetched again by the others and only one process evicts at a time.
+         * <p>
+         * <p>All the processes sharing the directory must enable it.
+         */
+        public Builder setMultiProcessEnabled (boolean multiProcessEnabled)
+        {
+            mMultiProcessEnabled = multiProcessEnabled;
+            return this;
+        }
+
+        /**
+         * In multi-process mode, the longest time a process waits for a peer process that is
+         * fetching the same resource, before fetching it itself.
+         */
+        public Builder setInFlightTimeoutMs (long inFlightTimeoutMs)
+        {
+            mInFlightTimeoutMs = inFlightTimeoutMs;
+            return this;
+        }
+
+        /**
+         * Stores a checksum of every entry when it is written, and verifies it while the entry is
+         * read. Corrupted entries are then removed and fetched again instead of failing to decode on
+         * every hit.
+         */
+        public Builder setChecksumEnabled (boolean checksumEnabled)
+        {
+            mChecksumEnabled = checksumEnabled;
+            return this;
+        }
+
         public DiskCacheConfig build ()
         {
             Preconditions.checkState(mBaseDirectoryPathSupplier != null || mContext != null, "Either a non-null context or a base directory path or supplier must be provided.");
@@ -23,6 +23,8 @@ import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.logging.FLog;
 import com.facebook.common.statfs.StatFsHelper;
 import com.facebook.common.time.Clock;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.common.time.RealtimeSinceBootClock;
 import com.facebook.common.time.SystemClock;
 import com.facebook.common.util.SecureHashUtil;
 
@@ -32,10 +34,14 @@ import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
@@ -62,6 +68,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
     private static final double TRIMMING_LOWER_BOUND = 0.02;
     private static final long UNINITIALIZED = -1;
     private static final String SHARED_PREFS_FILENAME_PREFIX = "disk_entries_list";
+    // Trimming deletes at most this many entries, or for at most this long, before giving the lock back
+    private static final int TRIM_BATCH_SIZE = 16;
+    private static final long TRIM_SLICE_DURATION_MS = 20;
+    // A trim pass not done by then stops, the next trigger starts a new one
+    private static final long TRIM_PASS_DEADLINE_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long NO_SIZE_TARGET = -1;
     @GuardedBy("mLock")
     // All resourceId stored on disk (if any).
     @VisibleForTesting
@@ -77,13 +89,37 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
     private final CacheErrorLogger mCacheErrorLogger;
     private final CacheStats mCacheStats;
     private final Clock mClock;
+    private final MonotonicClock mMonotonicClock;
+    // runs the index initialization and the trim passes
+    private final Executor mBackgroundExecutor;
     // synchronization object.
     private final Object mLock = new Object();
+    // only set in multi-process mode
+    @Nullable
+    private final MultiProcessCoordinator mCoordinator;
+    private final MultiProcessCoordinator.PeerChangeListener mPeerChangeListener;
     private long mCacheSizeLimit;
     @GuardedBy("mLock")
     private long mCacheSizeLastUpdateTime;
+    @GuardedBy("mLock")
+    @Nullable
+    private TrimPass mActiveTrimPass;
+    // resources read or inserted since a trim pass became active, the passes must not delete them.
+    // A pass superseding another one keeps them, they are released once no pass is active.
+    @GuardedBy("mLock")
+    private final Set<String> mTrimProtectedResourceIds = new HashSet<>();
 
     public DiskStorageCache (DiskStorage diskStorage, EntryEvictionComparatorSupplier entryEvictionComparatorSupplier, Params params, CacheEventListener cacheEventListener, CacheErrorLogger cacheErrorLogger, @Nullable DiskTrimmableRegistry diskTrimmableRegistry, final Context context)
+    {
+        this(diskStorage, entryEvictionComparatorSupplier, params, cacheEventListener, cacheErrorLogger, diskTrimmableRegistry, context, null);
+    }
+
+    /**
+     * @param coordinator if not null, the cache runs in multi-process mode: the directory is shared
+     *                    with caches of other processes, which see each other's inserts, don't fetch
+     *                    the same resource twice and don't evict concurrently.
+     */
+    public DiskStorageCache (DiskStorage diskStorage, EntryEvictionComparatorSupplier entryEvictionComparatorSupplier, Params params, CacheEventListener cacheEventListener, CacheErrorLogger cacheErrorLogger, @Nullable DiskTrimmableRegistry diskTrimmableRegistry, final Context context, @Nullable MultiProcessCoordinator coordinator)
     {
         this.mLowDiskSpaceCacheSizeLimit = params.mLowDiskSpaceCacheSizeLimit;
         this.mDefaultCacheSizeLimit = params.mDefaultCacheSizeLimit;
@@ -109,10 +145,15 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
             diskTrimmableRegistry.registerDiskTrimmable(this);
         }
         this.mClock = SystemClock.get();
+        this.mMonotonicClock = RealtimeSinceBootClock.get();
 
         this.mResourceIndex = new HashSet<>();
 
-        Executors.newSingleThreadExecutor().execute(new Runnable()
+        this.mCoordinator = coordinator;
+        this.mPeerChangeListener = new PeerIndexUpdater();
+
+        this.mBackgroundExecutor = Executors.newSingleThreadExecutor();
+        mBackgroundExecutor.execute(new Runnable()
         {
 
             @Override
@@ -228,6 +269,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
         {
             synchronized (mLock)
             {
+                syncFromPeers();
                 BinaryResource resource = null;
                 List<String> resourceIds = getResourceIds(key);
                 for (int i = 0; i < resourceIds.size(); i++)
@@ -240,16 +282,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
                         break;
                     }
                 }
-                if (resource == null)
-                {
-                    mCacheEventListener.onMiss(cacheEvent);
-                    mResourceIndex.remove(resourceId);
-                }
-                else
-                {
-                    mCacheEventListener.onHit(cacheEvent);
-                    mResourceIndex.add(resourceId);
-                }
+                onResourceLookedUp(resource, resourceId, cacheEvent);
                 return resource;
             }
         }
@@ -262,6 +295,59 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
         }
     }
 
+    @GuardedBy("mLock")
+    private void onResourceLookedUp (@Nullable BinaryResource resource, String resourceId, SettableCacheEvent cacheEvent)
+    {
+        if (resource == null)
+        {
+            mCacheEventListener.onMiss(cacheEvent);
+            mResourceIndex.remove(resourceId);
+        }
+        else
+        {
+            mCacheEventListener.onHit(cacheEvent);
+            mResourceIndex.add(resourceId);
+            protectFromTrim(resourceId);
+        }
+    }
+
+    /**
+     * Claims the fetch of the resource, so that a peer process missing it waits for this process
+     * to insert it rather than fetching it a second time. Every claim is released by
+     * {@link #releaseFetch}, once the resource is inserted or if the fetch fails.
+     *
+     * @return false if a peer process is fetching the resource, true otherwise
+     */
+    @Override
+    public boolean claimFetch (CacheKey key)
+    {
+        if (mCoordinator == null)
+        {
+            return true;
+        }
+        String resourceId;
+        synchronized (mLock)
+        {
+            resourceId = getFirstResourceId(key);
+        }
+        return mCoordinator.claim(resourceId);
+    }
+
+    @Override
+    public void releaseFetch (CacheKey key)
+    {
+        if (mCoordinator == null)
+        {
+            return;
+        }
+        String resourceId;
+        synchronized (mLock)
+        {
+            resourceId = getFirstResourceId(key);
+        }
+        mCoordinator.release(resourceId);
+    }
+
     @Override
     public boolean hasKeySync (CacheKey key)
     {
@@ -286,6 +372,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
     {
         synchronized (mLock)
         {
+            syncFromPeers();
             if (hasKeySync(key))
             {
                 return true;
@@ -300,6 +387,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
                     if (mStorage.contains(resourceId, key))
                     {
                         mResourceIndex.add(resourceId);
+                        protectFromTrim(resourceId);
                         return true;
                     }
                 }
@@ -331,6 +419,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
         {
             synchronized (mLock)
             {
+                syncFromPeers();
                 List<String> resourceIds = getResourceIds(key);
                 for (int i = 0; i < resourceIds.size(); i++)
                 {
@@ -338,6 +427,7 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
                     if (mStorage.touch(resourceId, key))
                     {
                         mResourceIndex.add(resourceId);
+                        protectFromTrim(resourceId);
                         return true;
                     }
                 }
@@ -407,8 +497,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
                 for (int i = 0; i < resourceIds.size(); i++)
                 {
                     resourceId = resourceIds.get(i);
-                    mStorage.remove(resourceId);
+                    long removedSize = mStorage.remove(resourceId);
                     mResourceIndex.remove(resourceId);
+                    if (mCoordinator != null && removedSize > 0)
+                    {
+                        mCoordinator.publishRemove(resourceId, removedSize, mPeerChangeListener);
+                    }
                 }
             }
             catch (IOException e)
@@ -430,6 +524,9 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
 
     /**
      * Deletes old cache files.
+     * <p>
+     * The files are listed without holding the cache lock and deleted in the background by a
+     * {@link TrimPass}, so this does not block the readers and writers of the cache.
      *
      * @param cacheExpirationMs files older than this will be deleted.
      *
@@ -439,46 +536,33 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
     public long clearOldEntries (long cacheExpirationMs)
     {
         long oldestRemainingEntryAgeMs = 0L;
-        synchronized (mLock)
+        List<DiskStorage.Entry> expiredEntries = new ArrayList<>();
+        try
         {
-            try
+            long now = mClock.now();
+            Collection<DiskStorage.Entry> allEntries = mStorage.getEntries();
+            for (DiskStorage.Entry entry : allEntries)
             {
-                long now = mClock.now();
-                Collection<DiskStorage.Entry> allEntries = mStorage.getEntries();
-                final long cacheSizeBeforeClearance = mCacheStats.getSize();
-                int itemsRemovedCount = 0;
-                long itemsRemovedSize = 0L;
-                for (DiskStorage.Entry entry : allEntries)
+                // entry age of zero is disallowed.
+                long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
+                if (entryAgeMs >= cacheExpirationMs)
                 {
-                    // entry age of zero is disallowed.
-                    long entryAgeMs = Math.max(1, Math.abs(now - entry.getTimestamp()));
-                    if (entryAgeMs >= cacheExpirationMs)
-                    {
-                        long entryRemovedSize = mStorage.remove(entry);
-                        mResourceIndex.remove(entry.getId());
-                        if (entryRemovedSize > 0)
-                        {
-                            itemsRemovedCount++;
-                            itemsRemovedSize += entryRemovedSize;
-                            mCacheEventListener.onEviction(new SettableCacheEvent().setResourceId(entry.getId()).setEvictionReason(CacheEventListener.EvictionReason.CONTENT_STALE).setItemSize(entryRemovedSize).setCacheSize(cacheSizeBeforeClearance - itemsRemovedSize));
-                        }
-                    }
-                    else
-                    {
-                        oldestRemainingEntryAgeMs = Math.max(oldestRemainingEntryAgeMs, entryAgeMs);
-                    }
+                    expiredEntries.add(entry);
                 }
-                mStorage.purgeUnexpectedResources();
-                if (itemsRemovedCount > 0)
+                else
                 {
-                    maybeUpdateFileCacheSize();
-                    mCacheStats.increment(-itemsRemovedSize, -itemsRemovedCount);
+                    oldestRemainingEntryAgeMs = Math.max(oldestRemainingEntryAgeMs, entryAgeMs);
                 }
             }
-            catch (IOException ioe)
-            {
-                mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "clearOldEntries: " + ioe.getMessage(), ioe);
-            }
+        }
+        catch (IOException ioe)
+        {
+            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "clearOldEntries: " + ioe.getMessage(), ioe);
+            return oldestRemainingEntryAgeMs;
+        }
+        synchronized (mLock)
+        {
+            startTrimPass(new TrimPass(CacheEventListener.EvictionReason.CONTENT_STALE, NO_SIZE_TARGET, expiredEntries));
         }
         return oldestRemainingEntryAgeMs;
     }
@@ -491,6 +575,10 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
             {
                 mStorage.clearAll();
                 mResourceIndex.clear();
+                if (mCoordinator != null)
+                {
+                    mCoordinator.publishClear(mPeerChangeListener);
+                }
             }
             catch (IOException ioe)
             {
@@ -542,7 +630,12 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
         {
             BinaryResource resource = inserter.commit(key);
             mResourceIndex.add(resourceId);
+            protectFromTrim(resourceId);
             mCacheStats.increment(resource.size(), 1);
+            if (mCoordinator != null)
+            {
+                mCoordinator.publishInsert(resourceId, resource.size(), mPeerChangeListener);
+            }
             return resource;
         }
     }
@@ -553,10 +646,11 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
      * <p>
      * This method uses mLock for synchronization purposes.
      */
-    private void maybeEvictFilesInCacheDir () throws IOException
+    private void maybeEvictFilesInCacheDir ()
     {
         synchronized (mLock)
         {
+            syncFromPeers();
             boolean calculatedRightNow = maybeUpdateFileCacheSize();
 
             // Update the size limit (mCacheSizeLimit)
@@ -571,49 +665,36 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
                 maybeUpdateFileCacheSize();
             }
 
-            // If size has exceeded the size limit, evict some files
-            if (cacheSize > mCacheSizeLimit)
+            // If size has exceeded the size limit, evict some files in the background
+            if (cacheSize > mCacheSizeLimit && mActiveTrimPass == null)
             {
-                evictAboveSize(mCacheSizeLimit * 9 / 10, CacheEventListener.EvictionReason.CACHE_FULL); // 90%
+                startTrimPass(new TrimPass(CacheEventListener.EvictionReason.CACHE_FULL, mCacheSizeLimit * 9 / 10, null)); // 90%
             }
         }
     }
 
+    /**
+     * Starts a trim pass, superseding the one in progress if any. In multi-process mode a single
+     * process evicts at a time, the others skip it.
+     */
     @GuardedBy("mLock")
-    private void evictAboveSize (long desiredSize, CacheEventListener.EvictionReason reason) throws IOException
+    private void startTrimPass (TrimPass trimPass)
     {
-        Collection<DiskStorage.Entry> entries;
-        try
+        if (mActiveTrimPass == null && !tryAcquireEviction())
         {
-            entries = getSortedEntries(mStorage.getEntries());
-        }
-        catch (IOException ioe)
-        {
-            mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "evictAboveSize: " + ioe.getMessage(), ioe);
-            throw ioe;
+            return;
         }
+        mActiveTrimPass = trimPass;
+        mBackgroundExecutor.execute(trimPass);
+    }
 
-        long cacheSizeBeforeClearance = mCacheStats.getSize();
-        long deleteSize = cacheSizeBeforeClearance - desiredSize;
-        int itemCount = 0;
-        long sumItemSizes = 0L;
-        for (DiskStorage.Entry entry : entries)
+    @GuardedBy("mLock")
+    private void protectFromTrim (String resourceId)
+    {
+        if (mActiveTrimPass != null)
         {
-            if (sumItemSizes > (deleteSize))
-            {
-                break;
-            }
-            long deletedSize = mStorage.remove(entry);
-            mResourceIndex.remove(entry.getId());
-            if (deletedSize > 0)
-            {
-                itemCount++;
-                sumItemSizes += deletedSize;
-                mCacheEventListener.onEviction(new SettableCacheEvent().setResourceId(entry.getId()).setEvictionReason(reason).setItemSize(deletedSize).setCacheSize(cacheSizeBeforeClearance - sumItemSizes).setCacheLimit(desiredSize));
-            }
+            mTrimProtectedResourceIds.add(resourceId);
         }
-        mCacheStats.increment(-sumItemSizes, -itemCount);
-        mStorage.purgeUnexpectedResources();
     }
 
     /**
@@ -685,30 +766,26 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
         }
     }
 
+    /**
+     * Deletes all the entries in the background, see {@link TrimPass}. Use {@link #clearAll()} to
+     * clear the cache synchronously.
+     */
     @Override
     public void trimToNothing ()
     {
-        clearAll();
+        synchronized (mLock)
+        {
+            startTrimPass(new TrimPass(CacheEventListener.EvictionReason.CACHE_MANAGER_TRIMMED, 0, null));
+        }
     }
 
+    @GuardedBy("mLock")
     private void trimBy (final double trimRatio)
     {
-        synchronized (mLock)
-        {
-            try
-            {
-                // Force update the ground truth if we are about to evict
-                mCacheStats.reset();
-                maybeUpdateFileCacheSize();
-                long cacheSize = mCacheStats.getSize();
-                long newMaxBytesInFiles = cacheSize - (long) (trimRatio * cacheSize);
-                evictAboveSize(newMaxBytesInFiles, CacheEventListener.EvictionReason.CACHE_MANAGER_TRIMMED);
-            }
-            catch (IOException ioe)
-            {
-                mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "trimBy: " + ioe.getMessage(), ioe);
-            }
-        }
+        // The pass computes what to delete from the ground truth of its own listing
+        long cacheSize = mCacheStats.getSize();
+        long newMaxBytesInFiles = cacheSize - (long) (trimRatio * cacheSize);
+        startTrimPass(new TrimPass(CacheEventListener.EvictionReason.CACHE_MANAGER_TRIMMED, newMaxBytesInFiles, null));
     }
 
     /**
@@ -789,6 +866,10 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
                 }
                 mCacheStats.set(size, count);
             }
+            if (mCoordinator != null)
+            {
+                mCoordinator.maybeCompact(entries, mPeerChangeListener);
+            }
         }
         catch (IOException ioe)
         {
@@ -796,6 +877,238 @@ public class DiskStorageCache implements FileCache, DiskTrimmable
         }
     }
 
+    /**
+     * Eviction pass that runs as a sequence of short slices on the background executor.
+     * <p>
+     * <p>The entries are listed and sorted without holding mLock. Then every slice deletes at most
+     * TRIM_BATCH_SIZE entries (or runs for at most TRIM_SLICE_DURATION_MS) with mLock held and gives
+     * it back, so reads and inserts wait for one batch at most rather than for the whole pass. The
+     * cache size is updated after each batch. Resources read or inserted since the pass started are
+     * skipped, so the pass never deletes a file that a reader is about to open.
+     */
+    private class TrimPass implements Runnable
+    {
+        private final CacheEventListener.EvictionReason mReason;
+        // NO_SIZE_TARGET to delete all the victims
+        private final long mDesiredSize;
+        private final long mDeadline;
+        @Nullable
+        private Collection<DiskStorage.Entry> mVictimList;
+        @Nullable
+        private Iterator<DiskStorage.Entry> mVictims;
+        private long mBytesToDelete;
+        private long mDeletedBytes;
+
+        /**
+         * @param victims entries to delete, in order. If null, all the entries are listed and sorted
+         *                by eviction order when the pass starts.
+         */
+        TrimPass (CacheEventListener.EvictionReason reason, long desiredSize, @Nullable Collection<DiskStorage.Entry> victims)
+        {
+            mReason = reason;
+            mDesiredSize = desiredSize;
+            mDeadline = mMonotonicClock.now() + TRIM_PASS_DEADLINE_MS;
+            mVictimList = victims;
+        }
+
+        @Override
+        public void run ()
+        {
+            boolean done;
+            try
+            {
+                if (mVictims == null)
+                {
+                    prepare();
+                }
+                synchronized (mLock)
+                {
+                    if (mActiveTrimPass != this)
+                    {
+                        // superseded by a newer pass
+                        return;
+                    }
+                    done = deleteBatch();
+                    if (done)
+                    {
+                        finish();
+                    }
+                }
+            }
+            catch (IOException ioe)
+            {
+                mCacheErrorLogger.logError(CacheErrorLogger.CacheErrorCategory.EVICTION, TAG, "trim: " + ioe.getMessage(), ioe);
+                synchronized (mLock)
+                {
+                    if (mActiveTrimPass == this)
+                    {
+                        finish();
+                    }
+                }
+                return;
+            }
+            if (done)
+            {
+                // only removes stale temp files and unexpected files, it does not need mLock
+                mStorage.purgeUnexpectedResources();
+            }
+            else
+            {
+                mBackgroundExecutor.execute(this);
+            }
+        }
+
+        /**
+         * Lists the victims, without holding mLock.
+         */
+        private void prepare () throws IOException
+        {
+            Collection<DiskStorage.Entry> entries = mVictimList;
+            if (entries == null)
+            {
+                entries = getSortedEntries(mStorage.getEntries());
+            }
+            if (mDesiredSize == NO_SIZE_TARGET)
+            {
+                mBytesToDelete = Long.MAX_VALUE;
+            }
+            else
+            {
+                long listedSize = 0;
+                for (DiskStorage.Entry entry : entries)
+                {
+                    listedSize += entry.getSize();
+                }
+                mBytesToDelete = listedSize - mDesiredSize;
+            }
+            mVictimList = null;
+            mVictims = entries.iterator();
+        }
+
+        /**
+         * @return true if the pass is done
+         */
+        @GuardedBy("mLock")
+        private boolean deleteBatch () throws IOException
+        {
+            long sliceEnd = mMonotonicClock.now() + TRIM_SLICE_DURATION_MS;
+            long cacheSizeBeforeClearance = mCacheStats.getSize();
+            int itemCount = 0;
+            long sumItemSizes = 0L;
+            Map<String, Long> removedSizes = new HashMap<>();
+            try
+            {
+                while (itemCount < TRIM_BATCH_SIZE && mVictims.hasNext() && mDeletedBytes <= mBytesToDelete && mMonotonicClock.now() < sliceEnd)
+                {
+                    DiskStorage.Entry entry = mVictims.next();
+                    if (mTrimProtectedResourceIds.contains(entry.getId()))
+                    {
+                        continue;
+                    }
+                    long deletedSize = mStorage.remove(entry);
+                    mResourceIndex.remove(entry.getId());
+                    if (deletedSize > 0)
+                    {
+                        itemCount++;
+                        sumItemSizes += deletedSize;
+                        mDeletedBytes += deletedSize;
+                        removedSizes.put(entry.getId(), deletedSize);
+                        SettableCacheEvent cacheEvent = new SettableCacheEvent().setResourceId(entry.getId()).setEvictionReason(mReason).setItemSize(deletedSize).setCacheSize(cacheSizeBeforeClearance - sumItemSizes);
+                        if (mDesiredSize != NO_SIZE_TARGET)
+                        {
+                            cacheEvent.setCacheLimit(mDesiredSize);
+                        }
+                        mCacheEventListener.onEviction(cacheEvent);
+                    }
+                }
+            }
+            finally
+            {
+                mCacheStats.increment(-sumItemSizes, -itemCount);
+                publishRemovals(removedSizes);
+            }
+            return !mVictims.hasNext() || mDeletedBytes > mBytesToDelete || mMonotonicClock.now() >= mDeadline;
+        }
+
+        @GuardedBy("mLock")
+        private void finish ()
+        {
+            mActiveTrimPass = null;
+            mTrimProtectedResourceIds.clear();
+            releaseEviction();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void syncFromPeers ()
+    {
+        if (mCoordinator != null)
+        {
+            mCoordinator.syncFromPeers(mPeerChangeListener);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void publishRemovals (Map<String, Long> removedSizes)
+    {
+        if (mCoordinator != null)
+        {
+            mCoordinator.publishRemovals(removedSizes, mPeerChangeListener);
+        }
+    }
+
+    /**
+     * @return true if this cache may evict entries, always the case unless in multi-process mode
+     */
+    @GuardedBy("mLock")
+    private boolean tryAcquireEviction ()
+    {
+        return mCoordinator == null || mCoordinator.tryAcquireEviction();
+    }
+
+    @GuardedBy("mLock")
+    private void releaseEviction ()
+    {
+        if (mCoordinator != null)
+        {
+            mCoordinator.releaseEviction();
+        }
+    }
+
+    /**
+     * Applies the changes of the peer processes to the index and the size accounting. Runs with
+     * mLock held, since the coordinator is only called while holding it.
+     * Accounting is best effort: it is anyway recalculated every FILECACHE_SIZE_UPDATE_PERIOD_MS.
+     */
+    private class PeerIndexUpdater implements MultiProcessCoordinator.PeerChangeListener
+    {
+        @Override
+        public void onPeerInsert (String resourceId, long size)
+        {
+            if (mResourceIndex.add(resourceId))
+            {
+                mCacheStats.increment(size, 1);
+            }
+        }
+
+        @Override
+        public void onPeerRemove (String resourceId, long size)
+        {
+            if (mResourceIndex.remove(resourceId))
+            {
+                mCacheStats.increment(-size, -1);
+            }
+        }
+
+        @Override
+        public void onPeerClear ()
+        {
+            mResourceIndex.clear();
+            // forces a recalculation from the file listing
+            mCacheStats.reset();
+        }
+    }
+
     /**
      * Stats about the cache - currently size of the cache (in bytes) and number of items in
      * the cache
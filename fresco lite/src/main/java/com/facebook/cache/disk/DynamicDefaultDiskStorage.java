@@ -35,13 +35,20 @@ public class DynamicDefaultDiskStorage implements DiskStorage
     private final Supplier<File> mBaseDirectoryPathSupplier;
     private final String mBaseDirectoryName;
     private final CacheErrorLogger mCacheErrorLogger;
+    private final boolean mChecksumEnabled;
 
     @VisibleForTesting
     volatile State mCurrentState;
 
     public DynamicDefaultDiskStorage (int version, Supplier<File> baseDirectoryPathSupplier, String baseDirectoryName, CacheErrorLogger cacheErrorLogger)
+    {
+        this(version, baseDirectoryPathSupplier, baseDirectoryName, cacheErrorLogger, false);
+    }
+
+    public DynamicDefaultDiskStorage (int version, Supplier<File> baseDirectoryPathSupplier, String baseDirectoryName, CacheErrorLogger cacheErrorLogger, boolean checksumEnabled)
     {
         mVersion = version;
+        mChecksumEnabled = checksumEnabled;
         mCacheErrorLogger = cacheErrorLogger;
         mBaseDirectoryPathSupplier = baseDirectoryPathSupplier;
         mBaseDirectoryName = baseDirectoryName;
@@ -199,7 +206,7 @@ public class DynamicDefaultDiskStorage implements DiskStorage
     {
         File rootDirectory = new File(mBaseDirectoryPathSupplier.get(), mBaseDirectoryName);
         createRootDirectoryIfNecessary(rootDirectory);
-        DiskStorage storage = new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger);
+        DiskStorage storage = new DefaultDiskStorage(rootDirectory, mVersion, mCacheErrorLogger, mChecksumEnabled);
         mCurrentState = new State(rootDirectory, storage);
     }
 
@@ -50,6 +50,20 @@ public interface FileCache extends DiskTrimmable
 
     boolean probe (CacheKey key);
 
+    /**
+     * Claims the fetch of the resource for caches shared by several processes, before it is
+     * fetched to be inserted.
+     *
+     * @return false if another process is fetching it, true otherwise
+     */
+    boolean claimFetch (CacheKey key);
+
+    /**
+     * Releases a claim of {@link #claimFetch}, once the resource is inserted or if the fetch
+     * failed.
+     */
+    void releaseFetch (CacheKey key);
+
     /**
      * Inserts resource into file with key
      *
@@ -0,0 +1,595 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.cache.disk;
+
+import com.facebook.common.file.FileUtils;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.time.Clock;
+import com.facebook.common.util.ByteConstants;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Coordinates {@link DiskStorageCache} instances living in different processes that share the
+ * same cache directory.
+ * <p>
+ * <p>All the state lives in files of a dedicated directory (outside of the storage's root, so the
+ * storage never purges it):
+ * - a shared index: a journal of inserts and removals that every process appends to under an
+ * exclusive file lock and replays, so inserts of a peer are visible in the local index
+ * - an eviction lock, so that only one process walks and evicts files at a time
+ * - a claims file, whose byte ranges are locked while a process is fetching a resource. A peer
+ * missing the same resource polls the cache for the insert instead of downloading it a second
+ * time.
+ * <p>
+ * <p>Any failure to access the coordination files is logged and degrades to the single process
+ * behaviour; it never fails a cache operation.
+ */
+@ThreadSafe
+public class MultiProcessCoordinator
+{
+    private static final Class<?> TAG = MultiProcessCoordinator.class;
+
+    private static final String INDEX_FILE_NAME = "index";
+    private static final String EVICTION_LOCK_FILE_NAME = "eviction.lock";
+    private static final String CLAIMS_FILE_NAME = "claims.lock";
+
+    // the index starts with the generation, which changes every time the journal is compacted
+    private static final int HEADER_SIZE = 8;
+    private static final long COMPACTION_THRESHOLD_BYTES = 256 * ByteConstants.KB;
+
+    private static final byte OP_INSERT = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final byte OP_CLEAR = 3;
+
+    private final Supplier<File> mDirectorySupplier;
+    private final long mInFlightTimeoutMs;
+    private final Clock mClock;
+
+    @GuardedBy("this")
+    private boolean mOpened;
+    @GuardedBy("this")
+    @Nullable
+    private FileChannel mIndexChannel;
+    @GuardedBy("this")
+    @Nullable
+    private FileChannel mEvictionChannel;
+    @GuardedBy("this")
+    @Nullable
+    private FileChannel mClaimsChannel;
+    @GuardedBy("this")
+    @Nullable
+    private FileLock mEvictionLock;
+    @GuardedBy("this")
+    private long mGeneration;
+    @GuardedBy("this")
+    private long mIndexOffset;
+    @GuardedBy("this")
+    private final Map<Long, Claim> mClaims;
+
+    /**
+     * Receives the changes published by the other processes.
+     */
+    public interface PeerChangeListener
+    {
+        void onPeerInsert (String resourceId, long size);
+
+        void onPeerRemove (String resourceId, long size);
+
+        /**
+         * Either a peer cleared the whole cache or the shared index was compacted. The local index
+         * is stale and the following inserts describe the whole content of the cache.
+         */
+        void onPeerClear ();
+    }
+
+    /**
+     * @param directorySupplier supplies the directory that holds the coordination files. It must be
+     *                          the same for every process sharing the cache, and must not be inside
+     *                          the root directory of the storage.
+     * @param inFlightTimeoutMs how long a claim on a resource is valid
+     * @param clock             clock used to expire claims
+     */
+    public MultiProcessCoordinator (Supplier<File> directorySupplier, long inFlightTimeoutMs, Clock clock)
+    {
+        mDirectorySupplier = Preconditions.checkNotNull(directorySupplier);
+        mInFlightTimeoutMs = inFlightTimeoutMs;
+        mClock = Preconditions.checkNotNull(clock);
+        mClaims = new HashMap<>();
+    }
+
+    public long getInFlightTimeoutMs ()
+    {
+        return mInFlightTimeoutMs;
+    }
+
+    /**
+     * Replays the changes that the peers appended to the shared index since the last call.
+     */
+    public synchronized void syncFromPeers (PeerChangeListener listener)
+    {
+        if (!ensureOpened())
+        {
+            return;
+        }
+        expireClaims();
+        FileLock lock = null;
+        try
+        {
+            // cheap check first: nothing was appended or compacted since we last looked
+            if (mIndexChannel.size() == mIndexOffset)
+            {
+                return;
+            }
+            lock = mIndexChannel.lock(0, Long.MAX_VALUE, true);
+            readPendingChanges(listener);
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "syncFromPeers");
+        }
+        finally
+        {
+            releaseQuietly(lock);
+        }
+    }
+
+    public void publishInsert (String resourceId, long size, PeerChangeListener listener)
+    {
+        append(OP_INSERT, resourceId, size, listener);
+    }
+
+    public void publishRemove (String resourceId, long size, PeerChangeListener listener)
+    {
+        append(OP_REMOVE, resourceId, size, listener);
+    }
+
+    /**
+     * Publishes a batch of removals with a single append. Used by eviction.
+     */
+    public synchronized void publishRemovals (Map<String, Long> removedSizes, PeerChangeListener listener)
+    {
+        if (removedSizes.isEmpty())
+        {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Map.Entry<String, Long> removed : removedSizes.entrySet())
+            {
+                writeRecord(out, OP_REMOVE, removed.getKey(), removed.getValue());
+            }
+        }
+        catch (IOException ioe)
+        {
+            // in-memory stream, never thrown
+            throw new RuntimeException(ioe);
+        }
+        appendRecords(bytes.toByteArray(), listener);
+    }
+
+    public void publishClear (PeerChangeListener listener)
+    {
+        append(OP_CLEAR, "", 0, listener);
+    }
+
+    /**
+     * Rewrites the shared index from a full listing of the storage, if it grew too much.
+     * Peers notice the new generation and rebuild their index from it.
+     */
+    public synchronized void maybeCompact (Collection<DiskStorage.Entry> entries, PeerChangeListener listener)
+    {
+        if (!ensureOpened())
+        {
+            return;
+        }
+        FileLock lock = null;
+        try
+        {
+            if (mIndexChannel.size() < COMPACTION_THRESHOLD_BYTES)
+            {
+                return;
+            }
+            lock = mIndexChannel.lock();
+            // the records we had not seen yet may describe changes that happened after the listing
+            // was taken, keep them after the compacted part
+            long previousGeneration = mGeneration;
+            long previousOffset = Math.max(mIndexOffset, HEADER_SIZE);
+            long end = readPendingChanges(listener);
+            if (mGeneration != previousGeneration)
+            {
+                // a peer compacted it already
+                return;
+            }
+            ByteBuffer pending = ByteBuffer.allocate((int) (end - previousOffset));
+            readFully(pending, previousOffset);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(mGeneration + 1);
+            for (DiskStorage.Entry entry : entries)
+            {
+                writeRecord(out, OP_INSERT, entry.getId(), entry.getSize());
+            }
+            out.write(pending.array());
+            out.flush();
+
+            mIndexChannel.truncate(0);
+            writeFully(ByteBuffer.wrap(bytes.toByteArray()), 0);
+            mIndexChannel.force(false);
+            mGeneration++;
+            mIndexOffset = mIndexChannel.size();
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "maybeCompact");
+        }
+        finally
+        {
+            releaseQuietly(lock);
+        }
+    }
+
+    /**
+     * Tries to become the only process evicting entries. Never blocks.
+     *
+     * @return true if the caller may evict and must later call {@link #releaseEviction()}
+     */
+    public synchronized boolean tryAcquireEviction ()
+    {
+        if (!ensureOpened())
+        {
+            return true;
+        }
+        if (mEvictionLock != null)
+        {
+            return false;
+        }
+        try
+        {
+            mEvictionLock = mEvictionChannel.tryLock();
+        }
+        catch (OverlappingFileLockException ofle)
+        {
+            // another cache of this very process is evicting the same directory
+            mEvictionLock = null;
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "tryAcquireEviction");
+            return true;
+        }
+        return mEvictionLock != null;
+    }
+
+    public synchronized void releaseEviction ()
+    {
+        releaseQuietly(mEvictionLock);
+        mEvictionLock = null;
+    }
+
+    /**
+     * Claims the right to fetch the resource. Every successful claim must be matched by a
+     * {@link #release}, the lock is released with the last one or automatically after the
+     * in-flight timeout.
+     *
+     * @return false if a peer process currently holds the claim, true otherwise
+     */
+    public synchronized boolean claim (String resourceId)
+    {
+        if (!ensureOpened())
+        {
+            return true;
+        }
+        expireClaims();
+        long slot = getSlot(resourceId);
+        Claim claim = mClaims.get(slot);
+        if (claim != null)
+        {
+            // this process is already fetching it (or a colliding id), the in-process request
+            // multiplexing takes care of the rest, the lock is held until both are released
+            claim.count++;
+            return true;
+        }
+        try
+        {
+            FileLock lock = mClaimsChannel.tryLock(slot, 1, false);
+            if (lock == null)
+            {
+                return false;
+            }
+            mClaims.put(slot, new Claim(lock, mClock.now() + mInFlightTimeoutMs));
+        }
+        catch (OverlappingFileLockException ofle)
+        {
+            // held by another cache of this process
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "claim");
+        }
+        return true;
+    }
+
+    public synchronized void release (String resourceId)
+    {
+        long slot = getSlot(resourceId);
+        Claim claim = mClaims.get(slot);
+        if (claim != null && --claim.count == 0)
+        {
+            mClaims.remove(slot);
+            releaseQuietly(claim.lock);
+        }
+    }
+
+    @GuardedBy("this")
+    private void expireClaims ()
+    {
+        long now = mClock.now();
+        Iterator<Claim> iterator = mClaims.values().iterator();
+        while (iterator.hasNext())
+        {
+            Claim claim = iterator.next();
+            if (claim.expiration <= now)
+            {
+                releaseQuietly(claim.lock);
+                iterator.remove();
+            }
+        }
+    }
+
+    private synchronized void append (byte op, String resourceId, long size, PeerChangeListener listener)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            writeRecord(new DataOutputStream(bytes), op, resourceId, size);
+        }
+        catch (IOException ioe)
+        {
+            // in-memory stream, never thrown
+            throw new RuntimeException(ioe);
+        }
+        appendRecords(bytes.toByteArray(), listener);
+    }
+
+    @GuardedBy("this")
+    private void appendRecords (byte[] records, PeerChangeListener listener)
+    {
+        if (!ensureOpened())
+        {
+            return;
+        }
+        FileLock lock = null;
+        try
+        {
+            lock = mIndexChannel.lock();
+            writeHeaderIfNeeded();
+            // catch up first, so that our own records are never replayed
+            long end = readPendingChanges(listener);
+            if (end < mIndexChannel.size())
+            {
+                // torn record left by a process that died while appending
+                mIndexChannel.truncate(end);
+            }
+            writeFully(ByteBuffer.wrap(records), end);
+            mIndexOffset = end + records.length;
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "append");
+        }
+        finally
+        {
+            releaseQuietly(lock);
+        }
+    }
+
+    /**
+     * Reads the journal from the last known offset. Must hold a lock on the index.
+     *
+     * @return the offset right after the last complete record
+     */
+    @GuardedBy("this")
+    private long readPendingChanges (PeerChangeListener listener) throws IOException
+    {
+        long size = mIndexChannel.size();
+        if (size < HEADER_SIZE)
+        {
+            // nobody wrote anything yet
+            return mIndexOffset;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        readFully(header, 0);
+        long generation = header.getLong(0);
+        if (mIndexOffset < HEADER_SIZE)
+        {
+            // first read of this process: the local index comes from a listing of the storage, so
+            // replaying the journal on top of it is enough
+            mGeneration = generation;
+            mIndexOffset = HEADER_SIZE;
+        }
+        else if (generation != mGeneration || mIndexOffset > size)
+        {
+            mGeneration = generation;
+            mIndexOffset = HEADER_SIZE;
+            listener.onPeerClear();
+        }
+        if (mIndexOffset == size)
+        {
+            return mIndexOffset;
+        }
+
+        ByteBuffer pending = ByteBuffer.allocate((int) (size - mIndexOffset));
+        readFully(pending, mIndexOffset);
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(pending.array()));
+        long consumed = 0;
+        try
+        {
+            while (consumed < pending.capacity())
+            {
+                byte op = in.readByte();
+                long entrySize = in.readLong();
+                String resourceId = in.readUTF();
+                consumed = pending.capacity() - in.available();
+                if (op == OP_INSERT)
+                {
+                    listener.onPeerInsert(resourceId, entrySize);
+                }
+                else if (op == OP_REMOVE)
+                {
+                    listener.onPeerRemove(resourceId, entrySize);
+                }
+                else if (op == OP_CLEAR)
+                {
+                    listener.onPeerClear();
+                }
+            }
+        }
+        catch (EOFException eofe)
+        {
+            // incomplete trailing record, it will be read (or truncated) next time
+        }
+        mIndexOffset += consumed;
+        return mIndexOffset;
+    }
+
+    /**
+     * Must hold the exclusive lock on the index.
+     */
+    @GuardedBy("this")
+    private void writeHeaderIfNeeded () throws IOException
+    {
+        if (mIndexChannel.size() >= HEADER_SIZE)
+        {
+            return;
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(0, mGeneration);
+        mIndexChannel.truncate(0);
+        writeFully(header, 0);
+        mIndexOffset = HEADER_SIZE;
+    }
+
+    @GuardedBy("this")
+    private boolean ensureOpened ()
+    {
+        if (mOpened)
+        {
+            return mIndexChannel != null;
+        }
+        mOpened = true;
+        try
+        {
+            File directory = mDirectorySupplier.get();
+            FileUtils.mkdirs(directory);
+            mIndexChannel = new RandomAccessFile(new File(directory, INDEX_FILE_NAME), "rw").getChannel();
+            mEvictionChannel = new RandomAccessFile(new File(directory, EVICTION_LOCK_FILE_NAME), "rw").getChannel();
+            mClaimsChannel = new RandomAccessFile(new File(directory, CLAIMS_FILE_NAME), "rw").getChannel();
+            return true;
+        }
+        catch (IOException ioe)
+        {
+            FLog.e(TAG, "Could not open the multi-process coordination files, falling back to single process mode", ioe);
+            mIndexChannel = null;
+            return false;
+        }
+    }
+
+    private void readFully (ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            if (mIndexChannel.read(buffer, position + buffer.position()) < 0)
+            {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private void writeFully (ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            mIndexChannel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static void writeRecord (DataOutputStream out, byte op, String resourceId, long size) throws IOException
+    {
+        out.writeByte(op);
+        out.writeLong(size);
+        out.writeUTF(resourceId);
+    }
+
+    /**
+     * Locks are taken on a single byte; positions past the end of the file are allowed.
+     */
+    @VisibleForTesting
+    static long getSlot (String resourceId)
+    {
+        return resourceId.hashCode() & 0x7fffffffL;
+    }
+
+    private static void releaseQuietly (@Nullable FileLock lock)
+    {
+        if (lock == null)
+        {
+            return;
+        }
+        try
+        {
+            lock.release();
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "Failed to release a file lock");
+        }
+    }
+
+    private static class Claim
+    {
+        final FileLock lock;
+        final long expiration;
+        int count;
+
+        Claim (FileLock lock, long expiration)
+        {
+            this.lock = lock;
+            this.expiration = expiration;
+            this.count = 1;
+        }
+    }
+}
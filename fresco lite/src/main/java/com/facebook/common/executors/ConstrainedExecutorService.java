@@ -115,6 +115,18 @@ public class ConstrainedExecutorService extends AbstractExecutorService
         startWorkerIfNeeded();
     }
 
+    /**
+     * Removes a task that has not started yet.
+     *
+     * @param runnable The task to remove.
+     *
+     * @return true if the task was queued.
+     */
+    public boolean remove (Runnable runnable)
+    {
+        return mWorkQueue.remove(runnable);
+    }
+
     /**
      * Submits the single {@code Worker} instance {@code mTaskRunner} to the underlying executor an
      * additional time if there are fewer than {@code mMaxConcurrency} pending submissions. Does
@@ -12,6 +12,7 @@ package com.facebook.imagepipeline.cache;
 import com.facebook.binaryresource.BinaryResource;
 import com.facebook.cache.common.CacheKey;
 import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.CorruptedResourceException;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.logging.FLog;
@@ -71,6 +72,26 @@ public class BufferedDiskCache
         return mStagingArea.containsKey(key) || mFileCache.hasKeySync(key);
     }
 
+    /**
+     * Claims the fetch of the image before a miss is fetched, when the cache is shared by several
+     * processes. Does not read the disk but may lock a file.
+     *
+     * @return false if another process is fetching the image, true otherwise
+     */
+    public boolean claimFetch (CacheKey key)
+    {
+        return mFileCache.claimFetch(key);
+    }
+
+    /**
+     * Releases the claim of a fetch that is not going to be put in this cache, see
+     * {@link #put(CacheKey, EncodedImage, boolean)} otherwise.
+     */
+    public void releaseFetch (CacheKey key)
+    {
+        mFileCache.releaseFetch(key);
+    }
+
     /**
      * Performs a key-value look up in the disk cache. If no value is found in the staging area,
      * then disk cache checks are scheduled on a background thread. Any error manifests itself as a
@@ -253,6 +274,15 @@ public class BufferedDiskCache
      * thread, so the caller of this method is not blocked
      */
     public void put (final CacheKey key, EncodedImage encodedImage)
+    {
+        put(key, encodedImage, false);
+    }
+
+    /**
+     * Same as {@link #put(CacheKey, EncodedImage)}, releasing the claim of {@link #claimFetch}
+     * once the write completed if releaseFetch, so that peer processes find the image on disk.
+     */
+    public void put (final CacheKey key, EncodedImage encodedImage, final boolean releaseFetch)
     {
         Preconditions.checkNotNull(key);
         Preconditions.checkArgument(EncodedImage.isValid(encodedImage));
@@ -279,6 +309,10 @@ public class BufferedDiskCache
                     {
                         mStagingArea.remove(key, finalEncodedImage);
                         EncodedImage.closeSafely(finalEncodedImage);
+                        if (releaseFetch)
+                        {
+                            mFileCache.releaseFetch(key);
+                        }
                     }
                 }
             });
@@ -290,6 +324,35 @@ public class BufferedDiskCache
             FLog.w(TAG, exception, "Failed to schedule disk-cache write for %s", key.toString());
             mStagingArea.remove(key, encodedImage);
             EncodedImage.closeSafely(finalEncodedImage);
+            if (releaseFetch)
+            {
+                mFileCache.releaseFetch(key);
+            }
+        }
+    }
+
+    /**
+     * Updates the access time of the item in the disk cache, as if it was read.
+     */
+    public Task<Void> touch (final CacheKey key)
+    {
+        Preconditions.checkNotNull(key);
+        try
+        {
+            return Task.call(new Callable<Void>()
+            {
+                @Override
+                public Void call () throws Exception
+                {
+                    mFileCache.probe(key);
+                    return null;
+                }
+            }, mWriteExecutor);
+        }
+        catch (Exception exception)
+        {
+            FLog.w(TAG, exception, "Failed to schedule disk-cache touch for %s", key.toString());
+            return Task.forError(exception);
         }
     }
 
@@ -398,6 +461,12 @@ public class BufferedDiskCache
             // TODO: 3697790 log failures
             // TODO: 5258772 - uncomment line below
             // mFileCache.remove(key);
+            if (ioe instanceof CorruptedResourceException)
+            {
+                // it would fail the same way on every hit: drop it, the miss fetches it again
+                FLog.w(TAG, ioe, "Removing corrupted entry from cache for %s", key.toString());
+                mFileCache.remove(key);
+            }
             FLog.w(TAG, ioe, "Exception reading from cache for %s", key.toString());
             mImageCacheStatsTracker.onDiskCacheGetFail();
             throw ioe;
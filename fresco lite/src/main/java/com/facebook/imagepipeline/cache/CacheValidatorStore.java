@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.net.Uri;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.common.logging.FLog;
+import com.facebook.common.time.Clock;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the HTTP validators (ETag and Last-Modified) of the images in the disk cache, and when
+ * they were last checked with the server, so that stale images can be revalidated with a
+ * conditional request instead of being downloaded again.
+ * <p>
+ * <p> Validators are stored in a {@link FileCache} next to the images, under keys of their own.
+ * <p>
+ * <p> All methods do disk I/O and must not be called on the UI thread.
+ */
+public class CacheValidatorStore
+{
+    private static final Class<?> TAG = CacheValidatorStore.class;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String KEY_PREFIX = "validators:";
+
+    private final FileCache mFileCache;
+    private final Clock mClock;
+
+    /**
+     * @param clock wall clock, validation times must survive reboots
+     */
+    public CacheValidatorStore (FileCache fileCache, Clock clock)
+    {
+        mFileCache = fileCache;
+        mClock = clock;
+    }
+
+    private static CacheKey getCacheKey (Uri uri)
+    {
+        return new SimpleCacheKey(KEY_PREFIX + uri.toString());
+    }
+
+    private static String nullToEmpty (@Nullable String value)
+    {
+        return value == null ? "" : value;
+    }
+
+    @Nullable
+    private static String emptyToNull (String value)
+    {
+        return value.length() == 0 ? null : value;
+    }
+
+    @Nullable
+    public Validators get (Uri uri)
+    {
+        CacheKey key = getCacheKey(uri);
+        if (!mFileCache.hasKey(key))
+        {
+            return null;
+        }
+        BinaryResource resource = mFileCache.getResource(key);
+        if (resource == null)
+        {
+            return null;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream(resource.openStream());
+            try
+            {
+                if (in.readInt() != FORMAT_VERSION)
+                {
+                    throw new IOException("Unknown validators format");
+                }
+                String eTag = emptyToNull(in.readUTF());
+                String lastModified = emptyToNull(in.readUTF());
+                long validatedAtMs = in.readLong();
+                return new Validators(eTag, lastModified, validatedAtMs);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "Failed to read validators of %s", uri);
+            mFileCache.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Gets whether the cached image was last validated more than maxAgeMs ago.
+     */
+    public boolean isStale (Validators validators, long maxAgeMs)
+    {
+        return mClock.now() - validators.getValidatedAtMs() > maxAgeMs;
+    }
+
+    /**
+     * Records the validators of a response that was just received.
+     */
+    public void put (Uri uri, @Nullable String eTag, @Nullable String lastModified)
+    {
+        if (eTag == null && lastModified == null)
+        {
+            remove(uri);
+            return;
+        }
+        write(uri, new Validators(eTag, lastModified, mClock.now()));
+    }
+
+    /**
+     * Records that the server confirmed the cached image is still current.
+     */
+    public void markValidated (Uri uri, Validators validators)
+    {
+        write(uri, new Validators(validators.getETag(), validators.getLastModified(), mClock.now()));
+    }
+
+    public void remove (Uri uri)
+    {
+        CacheKey key = getCacheKey(uri);
+        if (mFileCache.hasKeySync(key))
+        {
+            mFileCache.remove(key);
+        }
+    }
+
+    private void write (Uri uri, final Validators validators)
+    {
+        try
+        {
+            mFileCache.insert(getCacheKey(uri), new WriterCallback()
+            {
+                @Override
+                public void write (OutputStream os) throws IOException
+                {
+                    DataOutputStream out = new DataOutputStream(os);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeUTF(nullToEmpty(validators.getETag()));
+                    out.writeUTF(nullToEmpty(validators.getLastModified()));
+                    out.writeLong(validators.getValidatedAtMs());
+                    out.flush();
+                }
+            });
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "Failed to write validators of %s", uri);
+        }
+    }
+
+    /**
+     * The validators of a cached image, and the time it was last validated.
+     */
+    public static class Validators
+    {
+        @Nullable
+        private final String mETag;
+        @Nullable
+        private final String mLastModified;
+        private final long mValidatedAtMs;
+
+        public Validators (@Nullable String eTag, @Nullable String lastModified, long validatedAtMs)
+        {
+            mETag = eTag;
+            mLastModified = lastModified;
+            mValidatedAtMs = validatedAtMs;
+        }
+
+        @Nullable
+        public String getETag ()
+        {
+            return mETag;
+        }
+
+        @Nullable
+        public String getLastModified ()
+        {
+            return mLastModified;
+        }
+
+        public long getValidatedAtMs ()
+        {
+            return mValidatedAtMs;
+        }
+    }
+}
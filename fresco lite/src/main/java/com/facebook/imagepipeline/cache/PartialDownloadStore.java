@@ -0,0 +1,268 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.cache;
+
+import android.net.Uri;
+
+import com.facebook.binaryresource.BinaryResource;
+import com.facebook.cache.common.CacheKey;
+import com.facebook.cache.common.SimpleCacheKey;
+import com.facebook.cache.common.WriterCallback;
+import com.facebook.cache.disk.FileCache;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.logging.FLog;
+import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.memory.PooledByteBufferInputStream;
+import com.facebook.imagepipeline.memory.PooledByteStreams;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the bodies of interrupted downloads in a {@link FileCache}, so that the download can be
+ * resumed from where it stopped instead of from the first byte.
+ * <p>
+ * <p> An entry holds the validators of the response (ETag and Last-Modified) followed by the
+ * bytes received so far. Entries live next to the complete images, under keys of their own, and
+ * are evicted with them.
+ * <p>
+ * <p> All methods do disk I/O and must not be called on the UI thread.
+ */
+public class PartialDownloadStore
+{
+    private static final Class<?> TAG = PartialDownloadStore.class;
+
+    private static final int FORMAT_VERSION = 1;
+    private static final String KEY_PREFIX = "partial:";
+
+    private final FileCache mFileCache;
+    private final PooledByteStreams mPooledByteStreams;
+    private final int mMinSizeBytes;
+
+    /**
+     * @param minSizeBytes downloads interrupted before this many bytes are not kept
+     */
+    public PartialDownloadStore (FileCache fileCache, PooledByteStreams pooledByteStreams, int minSizeBytes)
+    {
+        mFileCache = fileCache;
+        mPooledByteStreams = pooledByteStreams;
+        mMinSizeBytes = minSizeBytes;
+    }
+
+    private static CacheKey getCacheKey (Uri uri)
+    {
+        return new SimpleCacheKey(KEY_PREFIX + uri.toString());
+    }
+
+    private static String nullToEmpty (@Nullable String value)
+    {
+        return value == null ? "" : value;
+    }
+
+    @Nullable
+    private static String emptyToNull (String value)
+    {
+        return value.length() == 0 ? null : value;
+    }
+
+    private static PartialDownload readHeader (DataInputStream in) throws IOException
+    {
+        if (in.readInt() != FORMAT_VERSION)
+        {
+            throw new IOException("Unknown partial download format");
+        }
+        String eTag = emptyToNull(in.readUTF());
+        String lastModified = emptyToNull(in.readUTF());
+        int size = in.readInt();
+        return new PartialDownload(eTag, lastModified, size);
+    }
+
+    /**
+     * Returns the partial download kept for the uri, without its bytes.
+     */
+    @Nullable
+    public PartialDownload get (Uri uri)
+    {
+        CacheKey key = getCacheKey(uri);
+        if (!mFileCache.hasKey(key))
+        {
+            return null;
+        }
+        BinaryResource resource = mFileCache.getResource(key);
+        if (resource == null)
+        {
+            return null;
+        }
+        try
+        {
+            DataInputStream in = new DataInputStream(resource.openStream());
+            try
+            {
+                return readHeader(in);
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "Failed to read partial download of %s", uri);
+            mFileCache.remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Copies the bytes of the partial download to the output stream.
+     *
+     * @throws IOException if the partial download is not the one returned by {@link #get}
+     *                     anymore, or cannot be read
+     */
+    public void copyTo (Uri uri, PartialDownload partialDownload, OutputStream os) throws IOException
+    {
+        BinaryResource resource = mFileCache.getResource(getCacheKey(uri));
+        if (resource == null)
+        {
+            throw new IOException("Partial download of " + uri + " was evicted");
+        }
+        DataInputStream in = new DataInputStream(resource.openStream());
+        try
+        {
+            if (!partialDownload.equals(readHeader(in)))
+            {
+                throw new IOException("Partial download of " + uri + " was replaced");
+            }
+            long copied = mPooledByteStreams.copy(in, os, partialDownload.getSize());
+            if (copied != partialDownload.getSize())
+            {
+                throw new IOException("Partial download of " + uri + " is truncated");
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Keeps the first bytes of an interrupted download, if there are enough of them and the
+     * response can be validated when resuming.
+     */
+    public void put (Uri uri, @Nullable final String eTag, @Nullable final String lastModified, final PooledByteBuffer body)
+    {
+        Preconditions.checkNotNull(body);
+        if (body.size() < mMinSizeBytes || (eTag == null && lastModified == null))
+        {
+            return;
+        }
+        try
+        {
+            mFileCache.insert(getCacheKey(uri), new WriterCallback()
+            {
+                @Override
+                public void write (OutputStream os) throws IOException
+                {
+                    DataOutputStream out = new DataOutputStream(os);
+                    out.writeInt(FORMAT_VERSION);
+                    out.writeUTF(nullToEmpty(eTag));
+                    out.writeUTF(nullToEmpty(lastModified));
+                    out.writeInt(body.size());
+                    out.flush();
+                    InputStream in = new PooledByteBufferInputStream(body);
+                    try
+                    {
+                        mPooledByteStreams.copy(in, os);
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+            });
+            FLog.v(TAG, "Kept %d bytes of partial download of %s", body.size(), uri);
+        }
+        catch (IOException ioe)
+        {
+            FLog.w(TAG, ioe, "Failed to keep partial download of %s", uri);
+        }
+    }
+
+    public void remove (Uri uri)
+    {
+        CacheKey key = getCacheKey(uri);
+        if (mFileCache.hasKeySync(key))
+        {
+            mFileCache.remove(key);
+        }
+    }
+
+    /**
+     * The validators and size of a partial download.
+     */
+    public static class PartialDownload
+    {
+        @Nullable
+        private final String mETag;
+        @Nullable
+        private final String mLastModified;
+        private final int mSize;
+
+        public PartialDownload (@Nullable String eTag, @Nullable String lastModified, int size)
+        {
+            mETag = eTag;
+            mLastModified = lastModified;
+            mSize = size;
+        }
+
+        @Nullable
+        public String getETag ()
+        {
+            return mETag;
+        }
+
+        @Nullable
+        public String getLastModified ()
+        {
+            return mLastModified;
+        }
+
+        public int getSize ()
+        {
+            return mSize;
+        }
+
+        @Override
+        public boolean equals (Object o)
+        {
+            if (o == this)
+            {
+                return true;
+            }
+            if (!(o instanceof PartialDownload))
+            {
+                return false;
+            }
+            PartialDownload other = (PartialDownload) o;
+            return mSize == other.mSize && nullToEmpty(mETag).equals(nullToEmpty(other.mETag)) && nullToEmpty(mLastModified).equals(nullToEmpty(other.mLastModified));
+        }
+
+        @Override
+        public int hashCode ()
+        {
+            return 31 * nullToEmpty(mETag).hashCode() + mSize;
+        }
+    }
+}
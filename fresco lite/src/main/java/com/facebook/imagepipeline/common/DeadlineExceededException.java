@@ -0,0 +1,24 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.common;
+
+/**
+ * Thrown if a request is given up because it exceeded its latency budget.
+ *
+ * @see com.facebook.imagepipeline.request.ImageRequestBuilder#setLatencyBudgetMs
+ */
+public class DeadlineExceededException extends RuntimeException
+{
+
+    public DeadlineExceededException (String requestId)
+    {
+        super("Deadline exceeded for request " + requestId);
+    }
+}
@@ -20,6 +20,9 @@ import java.util.concurrent.ThreadFactory;
  * <p>
  * <p> Provides one thread pool for the CPU-bound operations and another thread pool for the
  * IO-bound operations.
+ * <p>
+ * <p> The decode and background executors run queued tasks by order of priority, see
+ * {@link PriorityThreadPoolExecutor}.
  */
 public class DefaultExecutorSupplier implements ExecutorSupplier
 {
@@ -37,8 +40,8 @@ public class DefaultExecutorSupplier implements ExecutorSupplier
         ThreadFactory backgroundPriorityThreadFactory = new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
 
         mIoBoundExecutor = Executors.newFixedThreadPool(NUM_IO_BOUND_THREADS);
-        mDecodeExecutor = Executors.newFixedThreadPool(numCpuBoundThreads, backgroundPriorityThreadFactory);
-        mBackgroundExecutor = Executors.newFixedThreadPool(numCpuBoundThreads, backgroundPriorityThreadFactory);
+        mDecodeExecutor = new PriorityThreadPoolExecutor(numCpuBoundThreads, backgroundPriorityThreadFactory);
+        mBackgroundExecutor = new PriorityThreadPoolExecutor(numCpuBoundThreads, backgroundPriorityThreadFactory);
         mLightWeightBackgroundExecutor = Executors.newFixedThreadPool(NUM_LIGHTWEIGHT_BACKGROUND_THREADS, backgroundPriorityThreadFactory);
 
     }
@@ -13,6 +13,11 @@ import com.facebook.cache.disk.DiskCacheConfig;
 import com.facebook.cache.disk.DiskStorage;
 import com.facebook.cache.disk.DiskStorageCache;
 import com.facebook.cache.disk.FileCache;
+import com.facebook.cache.disk.MultiProcessCoordinator;
+import com.facebook.common.internal.Supplier;
+import com.facebook.common.time.SystemClock;
+
+import java.io.File;
 
 /**
  * Factory for the default implementation of the FileCache.
@@ -30,7 +35,29 @@ public class DiskStorageCacheFactory implements FileCacheFactory
     {
         DiskStorageCache.Params params = new DiskStorageCache.Params(diskCacheConfig.getMinimumSizeLimit(), diskCacheConfig.getLowDiskSpaceSizeLimit(), diskCacheConfig.getDefaultSizeLimit());
 
-        return new DiskStorageCache(diskStorage, diskCacheConfig.getEntryEvictionComparatorSupplier(), params, diskCacheConfig.getCacheEventListener(), diskCacheConfig.getCacheErrorLogger(), diskCacheConfig.getDiskTrimmableRegistry(), diskCacheConfig.getContext());
+        MultiProcessCoordinator coordinator = null;
+        if (diskCacheConfig.isMultiProcessEnabled())
+        {
+            coordinator = new MultiProcessCoordinator(getCoordinationDirectorySupplier(diskCacheConfig), diskCacheConfig.getInFlightTimeoutMs(), SystemClock.get());
+        }
+
+        return new DiskStorageCache(diskStorage, diskCacheConfig.getEntryEvictionComparatorSupplier(), params, diskCacheConfig.getCacheEventListener(), diskCacheConfig.getCacheErrorLogger(), diskCacheConfig.getDiskTrimmableRegistry(), diskCacheConfig.getContext(), coordinator);
+    }
+
+    /**
+     * The coordination files live next to the cache directory, not inside it, so that the storage
+     * never purges them.
+     */
+    private static Supplier<File> getCoordinationDirectorySupplier (final DiskCacheConfig diskCacheConfig)
+    {
+        return new Supplier<File>()
+        {
+            @Override
+            public File get ()
+            {
+                return new File(diskCacheConfig.getBaseDirectoryPathSupplier().get(), diskCacheConfig.getBaseDirectoryName() + ".shared");
+            }
+        };
     }
 
     @Override
@@ -21,6 +21,6 @@ public class DynamicDefaultDiskStorageFactory implements DiskStorageFactory
     @Override
     public DiskStorage get (DiskCacheConfig diskCacheConfig)
     {
-        return new DynamicDefaultDiskStorage(diskCacheConfig.getVersion(), diskCacheConfig.getBaseDirectoryPathSupplier(), diskCacheConfig.getBaseDirectoryName(), diskCacheConfig.getCacheErrorLogger());
+        return new DynamicDefaultDiskStorage(diskCacheConfig.getVersion(), diskCacheConfig.getBaseDirectoryPathSupplier(), diskCacheConfig.getBaseDirectoryName(), diskCacheConfig.getCacheErrorLogger(), diskCacheConfig.isChecksumEnabled());
     }
 }
@@ -25,22 +25,30 @@ import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
 import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.datasource.BatchDataSource;
 import com.facebook.imagepipeline.datasource.CloseableProducerToDataSourceAdapter;
 import com.facebook.imagepipeline.datasource.ProducerToDataSourceAdapter;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.listener.ForwardingRequestListener;
 import com.facebook.imagepipeline.listener.RequestListener;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
+import com.facebook.imagepipeline.producers.AdmissionControlProducer;
 import com.facebook.imagepipeline.producers.Producer;
+import com.facebook.imagepipeline.producers.RequestAdmissionController;
 import com.facebook.imagepipeline.producers.SettableProducerContext;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
 import com.facebook.imagepipeline.request.ImageRequest;
 import com.facebook.imagepipeline.request.ImageRequestBuilder;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 
 import bolts.Continuation;
@@ -63,9 +71,19 @@ public class ImagePipeline
     private final BufferedDiskCache mSmallImageBufferedDiskCache;
     private final CacheKeyFactory mCacheKeyFactory;
     private final ThreadHandoffProducerQueue mThreadHandoffProducerQueue;
+    @Nullable
+    private final RequestAdmissionController mRequestAdmissionController;
     private AtomicLong mIdCounter;
 
     public ImagePipeline (ProducerSequenceFactory producerSequenceFactory, Set<RequestListener> requestListeners, Supplier<Boolean> isPrefetchEnabledSupplier, MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache, MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache, BufferedDiskCache mainBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory cacheKeyFactory, ThreadHandoffProducerQueue threadHandoffProducerQueue)
+    {
+        this(producerSequenceFactory, requestListeners, isPrefetchEnabledSupplier, bitmapMemoryCache, encodedMemoryCache, mainBufferedDiskCache, smallImageBufferedDiskCache, cacheKeyFactory, threadHandoffProducerQueue, null);
+    }
+
+    /**
+     * @param requestAdmissionController bounds the requests in flight, null for no bound
+     */
+    public ImagePipeline (ProducerSequenceFactory producerSequenceFactory, Set<RequestListener> requestListeners, Supplier<Boolean> isPrefetchEnabledSupplier, MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache, MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache, BufferedDiskCache mainBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory cacheKeyFactory, ThreadHandoffProducerQueue threadHandoffProducerQueue, @Nullable RequestAdmissionController requestAdmissionController)
     {
         mIdCounter = new AtomicLong();
         mProducerSequenceFactory = producerSequenceFactory;
@@ -77,6 +95,7 @@ public class ImagePipeline
         mSmallImageBufferedDiskCache = smallImageBufferedDiskCache;
         mCacheKeyFactory = cacheKeyFactory;
         mThreadHandoffProducerQueue = threadHandoffProducerQueue;
+        mRequestAdmissionController = requestAdmissionController;
     }
 
     /**
@@ -303,6 +322,69 @@ public class ImagePipeline
         }
     }
 
+    /**
+     * Submits a batch of requests for prefetching to the bitmap cache. Requests with the same
+     * cache key are only submitted once, in order, and no more than maxConcurrentRequests at a time.
+     * <p>
+     * <p>There is no batch variant of {@link #fetchDecodedImage}: a batch does not keep the images
+     * it loaded, they are fetched with {@link #fetchDecodedImage} when they are shown.
+     *
+     * @param imageRequests         the requests to submit
+     * @param maxConcurrentRequests how many of the requests run at the same time
+     *
+     * @return a data source reporting the progress of each request, closing it cancels the batch
+     */
+    public BatchDataSource prefetchToBitmapCache (List<ImageRequest> imageRequests, Object callerContext, int maxConcurrentRequests)
+    {
+        return submitPrefetchBatch(imageRequests, callerContext, false, Priority.MEDIUM, maxConcurrentRequests);
+    }
+
+    /**
+     * Submits a batch of requests for prefetching to the disk cache. Requests with the same
+     * cache key are only submitted once, in order, and no more than maxConcurrentRequests at a time.
+     * <p>
+     * <p>There is no batch variant of {@link #fetchEncodedImage}, see
+     * {@link #prefetchToBitmapCache(List, Object, int)}.
+     *
+     * @param imageRequests         the requests to submit
+     * @param priority              custom priority for the fetches
+     * @param maxConcurrentRequests how many of the requests run at the same time
+     *
+     * @return a data source reporting the progress of each request, closing it cancels the batch
+     */
+    public BatchDataSource prefetchToDiskCache (List<ImageRequest> imageRequests, Object callerContext, Priority priority, int maxConcurrentRequests)
+    {
+        return submitPrefetchBatch(imageRequests, callerContext, true, priority, maxConcurrentRequests);
+    }
+
+    private BatchDataSource submitPrefetchBatch (List<ImageRequest> imageRequests, final Object callerContext, final boolean toDiskCache, final Priority priority, int maxConcurrentRequests)
+    {
+        final Map<CacheKey, Integer> requestIndexes = new HashMap<>();
+        final List<Supplier<DataSource<Void>>> requests = new ArrayList<>();
+        final int[] itemRequests = new int[imageRequests.size()];
+        for (int i = 0; i < imageRequests.size(); i++)
+        {
+            final ImageRequest imageRequest = imageRequests.get(i);
+            final CacheKey cacheKey = toDiskCache ? mCacheKeyFactory.getEncodedCacheKey(imageRequest, callerContext) : mCacheKeyFactory.getBitmapCacheKey(imageRequest, callerContext);
+            Integer requestIndex = requestIndexes.get(cacheKey);
+            if (requestIndex == null)
+            {
+                requestIndex = requests.size();
+                requestIndexes.put(cacheKey, requestIndex);
+                requests.add(new Supplier<DataSource<Void>>()
+                {
+                    @Override
+                    public DataSource<Void> get ()
+                    {
+                        return toDiskCache ? prefetchToDiskCache(imageRequest, callerContext, priority) : prefetchToBitmapCache(imageRequest, callerContext);
+                    }
+                });
+            }
+            itemRequests[i] = requestIndex;
+        }
+        return BatchDataSource.create(requests, itemRequests, maxConcurrentRequests);
+    }
+
     /**
      * Removes all images with the specified {@link Uri} from memory cache.
      *
@@ -552,7 +634,7 @@ public class ImagePipeline
             ImageRequest.RequestLevel lowestPermittedRequestLevel = ImageRequest.RequestLevel.getMax(imageRequest.getLowestPermittedRequestLevel(), lowestPermittedRequestLevelOnSubmit);
             SettableProducerContext settableProducerContext = new SettableProducerContext(imageRequest, generateUniqueFutureId(), mRequestListener, callerContext, lowestPermittedRequestLevel,
         /* isPrefetch */ false, imageRequest.getProgressiveRenderingEnabled() || !UriUtil.isNetworkUri(imageRequest.getSourceUri()), imageRequest.getPriority());
-            return CloseableProducerToDataSourceAdapter.create(producerSequence, settableProducerContext, mRequestListener);
+            return CloseableProducerToDataSourceAdapter.create(withAdmissionControl(producerSequence, imageRequest), settableProducerContext, mRequestListener);
         }
         catch (Exception exception)
         {
@@ -568,7 +650,7 @@ public class ImagePipeline
             SettableProducerContext settableProducerContext = new SettableProducerContext(imageRequest, generateUniqueFutureId(), mRequestListener, callerContext, lowestPermittedRequestLevel,
         /* isPrefetch */ true,
         /* isIntermediateResultExpected */ false, priority);
-            return ProducerToDataSourceAdapter.create(producerSequence, settableProducerContext, mRequestListener);
+            return ProducerToDataSourceAdapter.create(withAdmissionControl(producerSequence, imageRequest), settableProducerContext, mRequestListener);
         }
         catch (Exception exception)
         {
@@ -576,6 +658,19 @@ public class ImagePipeline
         }
     }
 
+    /**
+     * Puts the sequence behind the admission controller, unless there is none or the image is
+     * already in the bitmap memory cache.
+     */
+    private <T> Producer<T> withAdmissionControl (Producer<T> producerSequence, ImageRequest imageRequest)
+    {
+        if (mRequestAdmissionController == null || isInBitmapMemoryCache(imageRequest))
+        {
+            return producerSequence;
+        }
+        return new AdmissionControlProducer<>(mRequestAdmissionController, producerSequence);
+    }
+
     private Predicate<CacheKey> predicateForUri (final Uri uri)
     {
         return new Predicate<CacheKey>()
@@ -33,8 +33,9 @@ import com.facebook.imagepipeline.decoder.SimpleProgressiveJpegConfig;
 import com.facebook.imagepipeline.listener.RequestListener;
 import com.facebook.imagepipeline.memory.PoolConfig;
 import com.facebook.imagepipeline.memory.PoolFactory;
-import com.facebook.imagepipeline.producers.HttpUrlConnectionNetworkFetcher;
+import com.facebook.imagepipeline.producers.HedgingPolicy;
 import com.facebook.imagepipeline.producers.NetworkFetcher;
+import com.facebook.imagepipeline.producers.PriorityHttpUrlConnectionNetworkFetcher;
 
 import java.util.Collections;
 import java.util.HashSet;
@@ -82,6 +83,11 @@ public class ImagePipelineConfig
     private final DiskCacheConfig mMainDiskCacheConfig;
     private final MemoryTrimmableRegistry mMemoryTrimmableRegistry;
     private final NetworkFetcher mNetworkFetcher;
+    private final long mNetworkFetcherKeepAliveMs;
+    private final int mNetworkFetcherNumThreads;
+    private final int mNetworkFetcherMaxRequestsPerHost;
+    @Nullable
+    private final HedgingPolicy mNetworkFetcherHedgingPolicy;
     @Nullable
     private final PlatformBitmapFactory mPlatformBitmapFactory;
     private final PoolFactory mPoolFactory;
@@ -114,7 +120,11 @@ public class ImagePipelineConfig
         } : builder.mIsPrefetchEnabledSupplier;
         mMainDiskCacheConfig = builder.mMainDiskCacheConfig == null ? getDefaultMainDiskCacheConfig(builder.mContext) : builder.mMainDiskCacheConfig;
         mMemoryTrimmableRegistry = builder.mMemoryTrimmableRegistry == null ? NoOpMemoryTrimmableRegistry.getInstance() : builder.mMemoryTrimmableRegistry;
-        mNetworkFetcher = builder.mNetworkFetcher == null ? new HttpUrlConnectionNetworkFetcher() : builder.mNetworkFetcher;
+        mNetworkFetcherKeepAliveMs = builder.mNetworkFetcherKeepAliveMs;
+        mNetworkFetcherNumThreads = builder.mNetworkFetcherNumThreads;
+        mNetworkFetcherMaxRequestsPerHost = builder.mNetworkFetcherMaxRequestsPerHost > 0 ? builder.mNetworkFetcherMaxRequestsPerHost : mNetworkFetcherNumThreads;
+        mNetworkFetcherHedgingPolicy = builder.mNetworkFetcherHedgingPolicy;
+        mNetworkFetcher = builder.mNetworkFetcher == null ? new PriorityHttpUrlConnectionNetworkFetcher(mNetworkFetcherNumThreads, mNetworkFetcherKeepAliveMs, mNetworkFetcherMaxRequestsPerHost, mNetworkFetcherHedgingPolicy) : builder.mNetworkFetcher;
         mPlatformBitmapFactory = builder.mPlatformBitmapFactory;
         mPoolFactory = builder.mPoolFactory == null ? new PoolFactory(PoolConfig.newBuilder().build()) : builder.mPoolFactory;
         mProgressiveJpegConfig = builder.mProgressiveJpegConfig == null ? new SimpleProgressiveJpegConfig() : builder.mProgressiveJpegConfig;
@@ -248,6 +258,27 @@ public class ImagePipelineConfig
         return mNetworkFetcher;
     }
 
+    public long getNetworkFetcherKeepAliveMs ()
+    {
+        return mNetworkFetcherKeepAliveMs;
+    }
+
+    public int getNetworkFetcherNumThreads ()
+    {
+        return mNetworkFetcherNumThreads;
+    }
+
+    public int getNetworkFetcherMaxRequestsPerHost ()
+    {
+        return mNetworkFetcherMaxRequestsPerHost;
+    }
+
+    @Nullable
+    public HedgingPolicy getNetworkFetcherHedgingPolicy ()
+    {
+        return mNetworkFetcherHedgingPolicy;
+    }
+
     @Nullable
     public PlatformBitmapFactory getPlatformBitmapFactory ()
     {
@@ -303,6 +334,10 @@ public class ImagePipelineConfig
         private DiskCacheConfig mMainDiskCacheConfig;
         private MemoryTrimmableRegistry mMemoryTrimmableRegistry;
         private NetworkFetcher mNetworkFetcher;
+        private long mNetworkFetcherKeepAliveMs = PriorityHttpUrlConnectionNetworkFetcher.DEFAULT_KEEP_ALIVE_MS;
+        private int mNetworkFetcherNumThreads = PriorityHttpUrlConnectionNetworkFetcher.DEFAULT_NUM_THREADS;
+        private int mNetworkFetcherMaxRequestsPerHost = 0;
+        private HedgingPolicy mNetworkFetcherHedgingPolicy;
         private PlatformBitmapFactory mPlatformBitmapFactory;
         private PoolFactory mPoolFactory;
         private ProgressiveJpegConfig mProgressiveJpegConfig;
@@ -422,6 +457,53 @@ public class ImagePipelineConfig
             return this;
         }
 
+        /**
+         * Time after which an idle thread of the default network fetcher is stopped.
+         * <p>
+         * <p>Ignored if a network fetcher is set with {@link #setNetworkFetcher}.
+         */
+        public Builder setNetworkFetcherKeepAliveMs (long networkFetcherKeepAliveMs)
+        {
+            mNetworkFetcherKeepAliveMs = networkFetcherKeepAliveMs;
+            return this;
+        }
+
+        /**
+         * Maximum number of requests the default network fetcher runs at the same time. The other
+         * requests wait in a queue ordered by priority.
+         * <p>
+         * <p>Ignored if a network fetcher is set with {@link #setNetworkFetcher}.
+         */
+        public Builder setNetworkFetcherNumThreads (int networkFetcherNumThreads)
+        {
+            mNetworkFetcherNumThreads = networkFetcherNumThreads;
+            return this;
+        }
+
+        /**
+         * Maximum number of requests to the same host the default network fetcher runs at the same
+         * time, so that a slow host does not hold all the threads. There is no limit by default.
+         * <p>
+         * <p>Ignored if a network fetcher is set with {@link #setNetworkFetcher}.
+         */
+        public Builder setNetworkFetcherMaxRequestsPerHost (int networkFetcherMaxRequestsPerHost)
+        {
+            mNetworkFetcherMaxRequestsPerHost = networkFetcherMaxRequestsPerHost;
+            return this;
+        }
+
+        /**
+         * Makes the default network fetcher send a request again when it got no response after
+         * the delay of the policy, and use the first response. Off by default.
+         * <p>
+         * <p>Ignored if a network fetcher is set with {@link #setNetworkFetcher}.
+         */
+        public Builder setNetworkFetcherHedgingPolicy (HedgingPolicy networkFetcherHedgingPolicy)
+        {
+            mNetworkFetcherHedgingPolicy = networkFetcherHedgingPolicy;
+            return this;
+        }
+
         public Builder setPlatformBitmapFactory (PlatformBitmapFactory platformBitmapFactory)
         {
             mPlatformBitmapFactory = platformBitmapFactory;
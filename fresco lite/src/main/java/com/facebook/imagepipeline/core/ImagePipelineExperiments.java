@@ -23,6 +23,13 @@ public class ImagePipelineExperiments
     private final int mForceSmallCacheThresholdBytes;
     private final boolean mWebpSupportEnabled;
     private final int mThrottlingMaxSimultaneousRequests;
+    private final boolean mThrottlingLifoEnabled;
+    private final int mPartialDownloadMinSizeBytes;
+    private final boolean mDiskCacheRevalidationEnabled;
+    private final boolean mNetworkExifThumbnailsEnabled;
+    private final boolean mAdaptiveDecodeIntervalEnabled;
+    private final int mAdmissionMaxInFlightRequests;
+    private final long mAdmissionMaxInFlightBytes;
     private boolean mDecodeFileDescriptorEnabled;
 
     private ImagePipelineExperiments (Builder builder, ImagePipelineConfig.Builder configBuilder)
@@ -31,6 +38,13 @@ public class ImagePipelineExperiments
         mWebpSupportEnabled = builder.mWebpSupportEnabled && sWebpLibraryPresent;
         mDecodeFileDescriptorEnabled = configBuilder.isDownsampleEnabled() && builder.mDecodeFileDescriptorEnabled;
         mThrottlingMaxSimultaneousRequests = builder.mThrottlingMaxSimultaneousRequests;
+        mThrottlingLifoEnabled = builder.mThrottlingLifoEnabled;
+        mPartialDownloadMinSizeBytes = builder.mPartialDownloadMinSizeBytes;
+        mDiskCacheRevalidationEnabled = builder.mDiskCacheRevalidationEnabled;
+        mNetworkExifThumbnailsEnabled = builder.mNetworkExifThumbnailsEnabled;
+        mAdaptiveDecodeIntervalEnabled = builder.mAdaptiveDecodeIntervalEnabled;
+        mAdmissionMaxInFlightRequests = builder.mAdmissionMaxInFlightRequests;
+        mAdmissionMaxInFlightBytes = builder.mAdmissionMaxInFlightBytes;
     }
 
     public static Builder newBuilder (ImagePipelineConfig.Builder configBuilder)
@@ -58,6 +72,51 @@ public class ImagePipelineExperiments
         return mThrottlingMaxSimultaneousRequests;
     }
 
+    public boolean isThrottlingLifoEnabled ()
+    {
+        return mThrottlingLifoEnabled;
+    }
+
+    public boolean isPartialDownloadEnabled ()
+    {
+        return mPartialDownloadMinSizeBytes > 0;
+    }
+
+    public int getPartialDownloadMinSizeBytes ()
+    {
+        return mPartialDownloadMinSizeBytes;
+    }
+
+    public boolean isDiskCacheRevalidationEnabled ()
+    {
+        return mDiskCacheRevalidationEnabled;
+    }
+
+    public boolean isNetworkExifThumbnailsEnabled ()
+    {
+        return mNetworkExifThumbnailsEnabled;
+    }
+
+    public boolean isAdaptiveDecodeIntervalEnabled ()
+    {
+        return mAdaptiveDecodeIntervalEnabled;
+    }
+
+    public boolean isAdmissionControlEnabled ()
+    {
+        return mAdmissionMaxInFlightRequests > 0;
+    }
+
+    public int getAdmissionMaxInFlightRequests ()
+    {
+        return mAdmissionMaxInFlightRequests;
+    }
+
+    public long getAdmissionMaxInFlightBytes ()
+    {
+        return mAdmissionMaxInFlightBytes;
+    }
+
     public static class Builder
     {
 
@@ -68,6 +127,13 @@ public class ImagePipelineExperiments
         private boolean mWebpSupportEnabled = false;
         private boolean mDecodeFileDescriptorEnabled = false;
         private int mThrottlingMaxSimultaneousRequests = DEFAULT_MAX_SIMULTANEOUS_FILE_FETCH_AND_RESIZE;
+        private boolean mThrottlingLifoEnabled = false;
+        private int mPartialDownloadMinSizeBytes = 0;
+        private boolean mDiskCacheRevalidationEnabled = false;
+        private boolean mNetworkExifThumbnailsEnabled = false;
+        private boolean mAdaptiveDecodeIntervalEnabled = false;
+        private int mAdmissionMaxInFlightRequests = 0;
+        private long mAdmissionMaxInFlightBytes = 0;
 
         public Builder (ImagePipelineConfig.Builder configBuilder)
         {
@@ -113,6 +179,82 @@ public class ImagePipelineExperiments
             return mConfigBuilder;
         }
 
+        /**
+         * Among the queued requests for local images of the same priority, kicks off the most
+         * recent first instead of the oldest. Helps lists that are scrolled quickly, where the
+         * oldest requests are for rows that are no longer visible.
+         */
+        public ImagePipelineConfig.Builder setThrottlingLifoEnabled (boolean throttlingLifoEnabled)
+        {
+            mThrottlingLifoEnabled = throttlingLifoEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If this value is positive, network downloads that fail or are cancelled after receiving
+         * at least this many bytes are kept in the main disk cache, and resumed with a range request
+         * the next time the image is fetched.
+         * <p>
+         * <p>Only the default network fetcher, or fetchers honouring
+         * {@link com.facebook.imagepipeline.producers.FetchState#getResumeOffset()}, resume
+         * downloads.
+         */
+        public ImagePipelineConfig.Builder setPartialDownloadMinSizeBytes (int partialDownloadMinSizeBytes)
+        {
+            mPartialDownloadMinSizeBytes = partialDownloadMinSizeBytes;
+            return mConfigBuilder;
+        }
+
+        /**
+         * Keeps the ETag and Last-Modified of the downloaded images in the main disk cache. Images
+         * whose request sets
+         * {@link com.facebook.imagepipeline.request.ImageRequestBuilder#setDiskCacheMaxAgeMs} are
+         * then revalidated in the background with a conditional request once they are older than
+         * that age, while the cached image is still returned.
+         */
+        public ImagePipelineConfig.Builder setDiskCacheRevalidationEnabled (boolean diskCacheRevalidationEnabled)
+        {
+            mDiskCacheRevalidationEnabled = diskCacheRevalidationEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * Shows the thumbnail embedded in the EXIF data of network JPEGs as soon as it is
+         * downloaded, until the first scan of the image can be decoded. Only applies to requests
+         * with progressive rendering enabled.
+         */
+        public ImagePipelineConfig.Builder setNetworkExifThumbnailsEnabled (boolean networkExifThumbnailsEnabled)
+        {
+            mNetworkExifThumbnailsEnabled = networkExifThumbnailsEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * Widens the interval between the progressive decodes of an image when decoding it is slow
+         * or the decode threads are busy, instead of always using
+         * {@link com.facebook.imagepipeline.common.ImageDecodeOptions#minDecodeIntervalMs}.
+         */
+        public ImagePipelineConfig.Builder setAdaptiveDecodeIntervalEnabled (boolean adaptiveDecodeIntervalEnabled)
+        {
+            mAdaptiveDecodeIntervalEnabled = adaptiveDecodeIntervalEnabled;
+            return mConfigBuilder;
+        }
+
+        /**
+         * If maxInFlightRequests is positive, the pipeline runs at most that many requests at the
+         * same time, and as many as the estimated size of their decoded images fits in
+         * maxInFlightBytes, if it is positive. The other requests are queued by priority. Images
+         * already in the bitmap memory cache are not limited. Prefetches are shed for a while when
+         * memory is trimmed.
+         */
+        public ImagePipelineConfig.Builder setAdmissionControl (int maxInFlightRequests, long maxInFlightBytes)
+        {
+            mAdmissionMaxInFlightRequests = maxInFlightRequests;
+            // no byte limit
+            mAdmissionMaxInFlightBytes = maxInFlightBytes > 0 ? maxInFlightBytes : Long.MAX_VALUE;
+            return mConfigBuilder;
+        }
+
         public ImagePipelineExperiments build ()
         {
             return new ImagePipelineExperiments(this, mConfigBuilder);
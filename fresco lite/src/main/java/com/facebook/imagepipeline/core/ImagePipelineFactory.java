@@ -20,6 +20,8 @@ import com.facebook.cache.disk.DiskStorageCache;
 import com.facebook.cache.disk.FileCache;
 import com.facebook.common.internal.AndroidPredicates;
 import com.facebook.common.internal.Preconditions;
+import com.facebook.common.time.RealtimeSinceBootClock;
+import com.facebook.common.time.SystemClock;
 import com.facebook.imagepipeline.animated.factory.AnimatedFactory;
 import com.facebook.imagepipeline.animated.factory.AnimatedFactoryProvider;
 import com.facebook.imagepipeline.animated.factory.AnimatedImageFactory;
@@ -31,10 +33,12 @@ import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BitmapCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.BitmapMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
+import com.facebook.imagepipeline.cache.CacheValidatorStore;
 import com.facebook.imagepipeline.cache.CountingMemoryCache;
 import com.facebook.imagepipeline.cache.EncodedCountingMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.EncodedMemoryCacheFactory;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.PartialDownloadStore;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.image.CloseableImage;
 import com.facebook.imagepipeline.memory.PoolFactory;
@@ -43,8 +47,13 @@ import com.facebook.imagepipeline.platform.ArtDecoder;
 import com.facebook.imagepipeline.platform.GingerbreadPurgeableDecoder;
 import com.facebook.imagepipeline.platform.KitKatPurgeableDecoder;
 import com.facebook.imagepipeline.platform.PlatformDecoder;
+import com.facebook.imagepipeline.producers.AdaptiveDecodeInterval;
+import com.facebook.imagepipeline.producers.BandwidthMeter;
+import com.facebook.imagepipeline.producers.DecodeJobStats;
+import com.facebook.imagepipeline.producers.RequestAdmissionController;
 import com.facebook.imagepipeline.producers.ThreadHandoffProducerQueue;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
 
 /**
@@ -78,6 +87,9 @@ public class ImagePipelineFactory
     private PlatformBitmapFactory mPlatformBitmapFactory;
     private PlatformDecoder mPlatformDecoder;
     private AnimatedFactory mAnimatedFactory;
+    private BandwidthMeter mBandwidthMeter;
+    private DecodeJobStats mDecodeJobStats;
+    private RequestAdmissionController mRequestAdmissionController;
 
     public ImagePipelineFactory (ImagePipelineConfig config)
     {
@@ -277,11 +289,51 @@ public class ImagePipelineFactory
         return mMainFileCache;
     }
 
+    /**
+     * Gets the estimate of the download speed, which apps can use to choose the image to request.
+     */
+    public BandwidthMeter getBandwidthMeter ()
+    {
+        if (mBandwidthMeter == null)
+        {
+            mBandwidthMeter = new BandwidthMeter(RealtimeSinceBootClock.get());
+        }
+        return mBandwidthMeter;
+    }
+
+    /**
+     * Gets the counts of decodes that ran, and of those dropped because their request was
+     * cancelled first.
+     */
+    public DecodeJobStats getDecodeJobStats ()
+    {
+        if (mDecodeJobStats == null)
+        {
+            mDecodeJobStats = new DecodeJobStats();
+        }
+        return mDecodeJobStats;
+    }
+
+    /**
+     * Gets the admission controller of the pipeline, null unless
+     * {@link ImagePipelineExperiments#isAdmissionControlEnabled()}.
+     */
+    @Nullable
+    public RequestAdmissionController getRequestAdmissionController ()
+    {
+        if (mRequestAdmissionController == null && mConfig.getExperiments().isAdmissionControlEnabled())
+        {
+            mRequestAdmissionController = new RequestAdmissionController(mConfig.getExperiments().getAdmissionMaxInFlightRequests(), mConfig.getExperiments().getAdmissionMaxInFlightBytes(), mConfig.getExecutorSupplier().forLightweightBackgroundTasks(), RealtimeSinceBootClock.get());
+            mConfig.getMemoryTrimmableRegistry().registerMemoryTrimmable(mRequestAdmissionController);
+        }
+        return mRequestAdmissionController;
+    }
+
     public ImagePipeline getImagePipeline ()
     {
         if (mImagePipeline == null)
         {
-            mImagePipeline = new ImagePipeline(getProducerSequenceFactory(), mConfig.getRequestListeners(), mConfig.getIsPrefetchEnabledSupplier(), getBitmapMemoryCache(), getEncodedMemoryCache(), getMainBufferedDiskCache(), getSmallImageBufferedDiskCache(), mConfig.getCacheKeyFactory(), mThreadHandoffProducerQueue);
+            mImagePipeline = new ImagePipeline(getProducerSequenceFactory(), mConfig.getRequestListeners(), mConfig.getIsPrefetchEnabledSupplier(), getBitmapMemoryCache(), getEncodedMemoryCache(), getMainBufferedDiskCache(), getSmallImageBufferedDiskCache(), mConfig.getCacheKeyFactory(), mThreadHandoffProducerQueue, getRequestAdmissionController());
         }
         return mImagePipeline;
     }
@@ -308,16 +360,36 @@ public class ImagePipelineFactory
     {
         if (mProducerFactory == null)
         {
-            mProducerFactory = new ProducerFactory(mConfig.getContext(), mConfig.getPoolFactory().getSmallByteArrayPool(), getImageDecoder(), mConfig.getProgressiveJpegConfig(), mConfig.isDownsampleEnabled(), mConfig.isResizeAndRotateEnabledForNetwork(), mConfig.getExecutorSupplier(), mConfig.getPoolFactory().getPooledByteBufferFactory(), getBitmapMemoryCache(), getEncodedMemoryCache(), getMainBufferedDiskCache(), getSmallImageBufferedDiskCache(), mConfig.getCacheKeyFactory(), getPlatformBitmapFactory(), mConfig.getExperiments().isDecodeFileDescriptorEnabled(), mConfig.getExperiments().getForceSmallCacheThresholdBytes());
+            mProducerFactory = new ProducerFactory(mConfig.getContext(), mConfig.getPoolFactory().getSmallByteArrayPool(), getImageDecoder(), mConfig.getProgressiveJpegConfig(), mConfig.isDownsampleEnabled(), mConfig.isResizeAndRotateEnabledForNetwork(), mConfig.getExecutorSupplier(), mConfig.getPoolFactory().getPooledByteBufferFactory(), getBitmapMemoryCache(), getEncodedMemoryCache(), getMainBufferedDiskCache(), getSmallImageBufferedDiskCache(), mConfig.getCacheKeyFactory(), getPlatformBitmapFactory(), mConfig.getExperiments().isDecodeFileDescriptorEnabled(), mConfig.getExperiments().getForceSmallCacheThresholdBytes(), getPartialDownloadStore(), getCacheValidatorStore(), getBandwidthMeter(), mConfig.getExperiments().isNetworkExifThumbnailsEnabled(), getDecodeJobStats(), mConfig.getExperiments().isAdaptiveDecodeIntervalEnabled() ? new AdaptiveDecodeInterval() : null);
         }
         return mProducerFactory;
     }
 
+    @Nullable
+    private PartialDownloadStore getPartialDownloadStore ()
+    {
+        if (!mConfig.getExperiments().isPartialDownloadEnabled())
+        {
+            return null;
+        }
+        return new PartialDownloadStore(getMainFileCache(), mConfig.getPoolFactory().getPooledByteStreams(), mConfig.getExperiments().getPartialDownloadMinSizeBytes());
+    }
+
+    @Nullable
+    private CacheValidatorStore getCacheValidatorStore ()
+    {
+        if (!mConfig.getExperiments().isDiskCacheRevalidationEnabled())
+        {
+            return null;
+        }
+        return new CacheValidatorStore(getMainFileCache(), SystemClock.get());
+    }
+
     private ProducerSequenceFactory getProducerSequenceFactory ()
     {
         if (mProducerSequenceFactory == null)
         {
-            mProducerSequenceFactory = new ProducerSequenceFactory(getProducerFactory(), mConfig.getNetworkFetcher(), mConfig.isResizeAndRotateEnabledForNetwork(), mConfig.isDownsampleEnabled(), mConfig.getExperiments().isWebpSupportEnabled(), mThreadHandoffProducerQueue, mConfig.getExperiments().getThrottlingMaxSimultaneousRequests());
+            mProducerSequenceFactory = new ProducerSequenceFactory(getProducerFactory(), mConfig.getNetworkFetcher(), mConfig.isResizeAndRotateEnabledForNetwork(), mConfig.isDownsampleEnabled(), mConfig.getExperiments().isWebpSupportEnabled(), mThreadHandoffProducerQueue, mConfig.getExperiments().getThrottlingMaxSimultaneousRequests(), mConfig.getExperiments().isThrottlingLifoEnabled());
         }
         return mProducerSequenceFactory;
     }
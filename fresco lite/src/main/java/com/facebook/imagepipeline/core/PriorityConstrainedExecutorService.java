@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.common.executors.ConstrainedExecutorService;
+import com.facebook.imagepipeline.producers.PriorityRunnable;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+
+/**
+ * {@link ConstrainedExecutorService} that runs its queued tasks by order of priority.
+ * <p>
+ * <p> {@link PriorityRunnable}s are ordered by their priority, then oldest first. Other runnables
+ * are queued as high priority ones, as in {@link PriorityThreadPoolExecutor}.
+ */
+public class PriorityConstrainedExecutorService extends ConstrainedExecutorService
+{
+
+    public PriorityConstrainedExecutorService (String name, int maxConcurrency, Executor executor)
+    {
+        super(name, maxConcurrency, executor, new PriorityBlockingQueue<Runnable>());
+    }
+
+    @Override
+    public void execute (final Runnable runnable)
+    {
+        if (runnable instanceof PriorityRunnable)
+        {
+            super.execute(runnable);
+            return;
+        }
+        super.execute(new PriorityRunnable()
+        {
+            @Override
+            public void run ()
+            {
+                runnable.run();
+            }
+        });
+    }
+}
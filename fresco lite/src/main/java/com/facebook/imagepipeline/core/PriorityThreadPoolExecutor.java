@@ -0,0 +1,50 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.imagepipeline.producers.PriorityRunnable;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fixed size thread pool that runs queued tasks by order of priority.
+ * <p>
+ * <p> {@link PriorityRunnable}s are ordered by their priority, then oldest first. Other runnables
+ * are queued as high priority ones, so that they are not delayed behind prefetches.
+ */
+public class PriorityThreadPoolExecutor extends ThreadPoolExecutor
+{
+
+    public PriorityThreadPoolExecutor (int numThreads, ThreadFactory threadFactory)
+    {
+        super(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>(), threadFactory);
+    }
+
+    @Override
+    public void execute (final Runnable command)
+    {
+        if (command instanceof PriorityRunnable)
+        {
+            super.execute(command);
+            return;
+        }
+        super.execute(new PriorityRunnable()
+        {
+            @Override
+            public void run ()
+            {
+                command.run();
+            }
+        });
+    }
+}
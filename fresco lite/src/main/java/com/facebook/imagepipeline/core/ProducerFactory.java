@@ -19,7 +19,9 @@ import com.facebook.common.references.CloseableReference;
 import com.facebook.imagepipeline.bitmaps.PlatformBitmapFactory;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.CacheValidatorStore;
 import com.facebook.imagepipeline.cache.MemoryCache;
+import com.facebook.imagepipeline.cache.PartialDownloadStore;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
 import com.facebook.imagepipeline.image.CloseableImage;
@@ -28,6 +30,9 @@ import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.producers.AddImageTransformMetaDataProducer;
+import com.facebook.imagepipeline.producers.AdaptiveDecodeInterval;
+import com.facebook.imagepipeline.producers.BandwidthMeter;
+import com.facebook.imagepipeline.producers.DecodeJobStats;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheGetProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheKeyMultiplexProducer;
 import com.facebook.imagepipeline.producers.BitmapMemoryCacheProducer;
@@ -59,6 +64,8 @@ import com.facebook.imagepipeline.producers.ThumbnailBranchProducer;
 import com.facebook.imagepipeline.producers.ThumbnailProducer;
 import com.facebook.imagepipeline.producers.WebpTranscodeProducer;
 
+import javax.annotation.Nullable;
+
 public class ProducerFactory
 {
     // Decode dependencies
@@ -78,6 +85,17 @@ public class ProducerFactory
     private final MemoryCache<CacheKey, CloseableImage> mBitmapMemoryCache;
     private final CacheKeyFactory mCacheKeyFactory;
     private final int mForceSmallCacheThresholdBytes;
+    @Nullable
+    private final PartialDownloadStore mPartialDownloadStore;
+    @Nullable
+    private final CacheValidatorStore mCacheValidatorStore;
+    @Nullable
+    private final BandwidthMeter mBandwidthMeter;
+    private final boolean mNetworkExifThumbnailsEnabled;
+    @Nullable
+    private final DecodeJobStats mDecodeJobStats;
+    @Nullable
+    private final AdaptiveDecodeInterval mAdaptiveDecodeInterval;
     // Postproc dependencies
     private final PlatformBitmapFactory mPlatformBitmapFactory;
     // Local dependencies
@@ -86,6 +104,11 @@ public class ProducerFactory
     private AssetManager mAssetManager;
 
     public ProducerFactory (Context context, ByteArrayPool byteArrayPool, ImageDecoder imageDecoder, ProgressiveJpegConfig progressiveJpegConfig, boolean downsampleEnabled, boolean resizeAndRotateEnabledForNetwork, ExecutorSupplier executorSupplier, PooledByteBufferFactory pooledByteBufferFactory, MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache, MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache, BufferedDiskCache defaultBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory cacheKeyFactory, PlatformBitmapFactory platformBitmapFactory, boolean decodeFileDescriptorEnabled, int forceSmallCacheThresholdBytes)
+    {
+        this(context, byteArrayPool, imageDecoder, progressiveJpegConfig, downsampleEnabled, resizeAndRotateEnabledForNetwork, executorSupplier, pooledByteBufferFactory, bitmapMemoryCache, encodedMemoryCache, defaultBufferedDiskCache, smallImageBufferedDiskCache, cacheKeyFactory, platformBitmapFactory, decodeFileDescriptorEnabled, forceSmallCacheThresholdBytes, null, null, null, false, null, null);
+    }
+
+    public ProducerFactory (Context context, ByteArrayPool byteArrayPool, ImageDecoder imageDecoder, ProgressiveJpegConfig progressiveJpegConfig, boolean downsampleEnabled, boolean resizeAndRotateEnabledForNetwork, ExecutorSupplier executorSupplier, PooledByteBufferFactory pooledByteBufferFactory, MemoryCache<CacheKey, CloseableImage> bitmapMemoryCache, MemoryCache<CacheKey, PooledByteBuffer> encodedMemoryCache, BufferedDiskCache defaultBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory cacheKeyFactory, PlatformBitmapFactory platformBitmapFactory, boolean decodeFileDescriptorEnabled, int forceSmallCacheThresholdBytes, @Nullable PartialDownloadStore partialDownloadStore, @Nullable CacheValidatorStore cacheValidatorStore, @Nullable BandwidthMeter bandwidthMeter, boolean networkExifThumbnailsEnabled, @Nullable DecodeJobStats decodeJobStats, @Nullable AdaptiveDecodeInterval adaptiveDecodeInterval)
     {
         mForceSmallCacheThresholdBytes = forceSmallCacheThresholdBytes;
         mContentResolver = context.getApplicationContext().getContentResolver();
@@ -110,6 +133,12 @@ public class ProducerFactory
         mPlatformBitmapFactory = platformBitmapFactory;
 
         mDecodeFileDescriptorEnabled = decodeFileDescriptorEnabled;
+        mPartialDownloadStore = partialDownloadStore;
+        mCacheValidatorStore = cacheValidatorStore;
+        mBandwidthMeter = bandwidthMeter;
+        mNetworkExifThumbnailsEnabled = networkExifThumbnailsEnabled;
+        mDecodeJobStats = decodeJobStats;
+        mAdaptiveDecodeInterval = adaptiveDecodeInterval;
     }
 
     public static AddImageTransformMetaDataProducer newAddImageTransformMetaDataProducer (Producer<EncodedImage> inputProducer)
@@ -154,12 +183,12 @@ public class ProducerFactory
 
     public DecodeProducer newDecodeProducer (Producer<EncodedImage> inputProducer)
     {
-        return new DecodeProducer(mByteArrayPool, mExecutorSupplier.forDecode(), mImageDecoder, mProgressiveJpegConfig, mDownsampleEnabled, mResizeAndRotateEnabledForNetwork, inputProducer);
+        return new DecodeProducer(mByteArrayPool, mExecutorSupplier.forDecode(), mImageDecoder, mProgressiveJpegConfig, mDownsampleEnabled, mResizeAndRotateEnabledForNetwork, inputProducer, mDecodeJobStats, mAdaptiveDecodeInterval);
     }
 
     public DiskCacheProducer newDiskCacheProducer (Producer<EncodedImage> inputProducer)
     {
-        return new DiskCacheProducer(mDefaultBufferedDiskCache, mSmallImageBufferedDiskCache, mCacheKeyFactory, inputProducer, mForceSmallCacheThresholdBytes);
+        return new DiskCacheProducer(mDefaultBufferedDiskCache, mSmallImageBufferedDiskCache, mCacheKeyFactory, inputProducer, mForceSmallCacheThresholdBytes, mCacheValidatorStore);
     }
 
     public EncodedCacheKeyMultiplexProducer newEncodedCacheKeyMultiplexProducer (Producer<EncodedImage> inputProducer)
@@ -214,7 +243,7 @@ public class ProducerFactory
 
     public NetworkFetchProducer newNetworkFetchProducer (NetworkFetcher networkFetcher)
     {
-        return new NetworkFetchProducer(mPooledByteBufferFactory, mByteArrayPool, networkFetcher);
+        return new NetworkFetchProducer(mPooledByteBufferFactory, mByteArrayPool, networkFetcher, mPartialDownloadStore, mCacheValidatorStore, mBandwidthMeter, mNetworkExifThumbnailsEnabled);
     }
 
     public PostprocessedBitmapMemoryCacheProducer newPostprocessorBitmapMemoryCacheProducer (Producer<CloseableReference<CloseableImage>> inputProducer)
@@ -239,7 +268,12 @@ public class ProducerFactory
 
     public <T> ThrottlingProducer<T> newThrottlingProducer (int maxSimultaneousRequests, Producer<T> inputProducer)
     {
-        return new ThrottlingProducer<T>(maxSimultaneousRequests, mExecutorSupplier.forLightweightBackgroundTasks(), inputProducer);
+        return newThrottlingProducer(maxSimultaneousRequests, false, inputProducer);
+    }
+
+    public <T> ThrottlingProducer<T> newThrottlingProducer (int maxSimultaneousRequests, boolean lifo, Producer<T> inputProducer)
+    {
+        return new ThrottlingProducer<T>(maxSimultaneousRequests, lifo, mExecutorSupplier.forLightweightBackgroundTasks(), inputProducer);
     }
 
     public WebpTranscodeProducer newWebpTranscodeProducer (Producer<EncodedImage> inputProducer)
@@ -55,6 +55,7 @@ public class ProducerSequenceFactory
     private final boolean mDownsampleEnabled;
     private final ThreadHandoffProducerQueue mThreadHandoffProducerQueue;
     private final int mThrottlingMaxSimultaneousRequests;
+    private final boolean mThrottlingLifoEnabled;
 
     // Saved sequences
     @VisibleForTesting
@@ -84,6 +85,11 @@ public class ProducerSequenceFactory
     private Producer<EncodedImage> mCommonNetworkFetchToEncodedMemorySequence;
 
     public ProducerSequenceFactory (ProducerFactory producerFactory, NetworkFetcher networkFetcher, boolean resizeAndRotateEnabledForNetwork, boolean downsampleEnabled, boolean webpSupportEnabled, ThreadHandoffProducerQueue threadHandoffProducerQueue, int throttlingMaxSimultaneousRequests)
+    {
+        this(producerFactory, networkFetcher, resizeAndRotateEnabledForNetwork, downsampleEnabled, webpSupportEnabled, threadHandoffProducerQueue, throttlingMaxSimultaneousRequests, false);
+    }
+
+    public ProducerSequenceFactory (ProducerFactory producerFactory, NetworkFetcher networkFetcher, boolean resizeAndRotateEnabledForNetwork, boolean downsampleEnabled, boolean webpSupportEnabled, ThreadHandoffProducerQueue threadHandoffProducerQueue, int throttlingMaxSimultaneousRequests, boolean throttlingLifoEnabled)
     {
         mProducerFactory = producerFactory;
         mNetworkFetcher = networkFetcher;
@@ -94,6 +100,7 @@ public class ProducerSequenceFactory
         mCloseableImagePrefetchSequences = new HashMap<>();
         mThreadHandoffProducerQueue = threadHandoffProducerQueue;
         mThrottlingMaxSimultaneousRequests = throttlingMaxSimultaneousRequests;
+        mThrottlingLifoEnabled = throttlingLifoEnabled;
     }
 
     private static void validateEncodedImageRequest (ImageRequest imageRequest)
@@ -490,7 +497,7 @@ public class ProducerSequenceFactory
         {
             localImageProducer = mProducerFactory.newResizeAndRotateProducer(localImageProducer);
         }
-        ThrottlingProducer<EncodedImage> localImageThrottlingProducer = mProducerFactory.newThrottlingProducer(mThrottlingMaxSimultaneousRequests, localImageProducer);
+        ThrottlingProducer<EncodedImage> localImageThrottlingProducer = mProducerFactory.newThrottlingProducer(mThrottlingMaxSimultaneousRequests, mThrottlingLifoEnabled, localImageProducer);
         return ProducerFactory.newBranchOnSeparateImagesProducer(newLocalThumbnailProducer(thumbnailProducers), localImageThrottlingProducer);
     }
 
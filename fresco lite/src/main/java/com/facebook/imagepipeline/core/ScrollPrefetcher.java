@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.datasource.DataSource;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Prefetches the images of the items of a scrolling list that are about to become visible.
+ * <p>
+ * <p> The list reports its visible range and scroll velocity with {@link #onScroll}. The items
+ * ahead of the visible range, in the direction of the scroll, are prefetched: the closest ones to
+ * the bitmap cache, the next ones to the disk cache with a priority that decreases with their
+ * distance. The faster the scroll, the more items are prefetched. An item is prefetched again when
+ * its distance moves it to another of these tiers. Prefetches of items left behind the visible
+ * range, for example because the direction reversed, are cancelled. Prefetches of items that
+ * became visible are left to complete, since the list is loading the same images.
+ * <p>
+ * <p> Must be used from a single thread, typically the UI thread.
+ */
+@NotThreadSafe
+public class ScrollPrefetcher
+{
+
+    /**
+     * Number of items prefetched when the list is not scrolling
+     */
+    public static final int DEFAULT_MIN_ITEMS = 2;
+
+    /**
+     * Maximum number of items prefetched
+     */
+    public static final int DEFAULT_MAX_ITEMS = 20;
+
+    /**
+     * The items that become visible within this time at the current velocity are prefetched
+     */
+    public static final long DEFAULT_LOOKAHEAD_MS = 1000;
+
+    /**
+     * Share of the prefetched items, the closest ones, that are prefetched to the bitmap cache
+     */
+    @VisibleForTesting
+    static final float BITMAP_CACHE_SHARE = 0.25f;
+
+    /**
+     * Share of the prefetched items, the closest ones, that are prefetched with medium priority
+     */
+    @VisibleForTesting
+    static final float MEDIUM_PRIORITY_SHARE = 0.5f;
+
+    private static final int TIER_BITMAP_CACHE = 0;
+    private static final int TIER_DISK_CACHE_MEDIUM = 1;
+    private static final int TIER_DISK_CACHE_LOW = 2;
+
+    private final ImagePipeline mImagePipeline;
+    private final ImageRequestProvider mImageRequestProvider;
+    @Nullable
+    private final Object mCallerContext;
+    private final int mMinItems;
+    private final int mMaxItems;
+    private final long mLookaheadMs;
+    private final Map<Integer, Prefetch> mPrefetches;
+
+    public ScrollPrefetcher (ImagePipeline imagePipeline, ImageRequestProvider imageRequestProvider, @Nullable Object callerContext)
+    {
+        this(imagePipeline, imageRequestProvider, callerContext, DEFAULT_MIN_ITEMS, DEFAULT_MAX_ITEMS, DEFAULT_LOOKAHEAD_MS);
+    }
+
+    public ScrollPrefetcher (ImagePipeline imagePipeline, ImageRequestProvider imageRequestProvider, @Nullable Object callerContext, int minItems, int maxItems, long lookaheadMs)
+    {
+        Preconditions.checkArgument(minItems >= 0 && maxItems >= minItems);
+        mImagePipeline = Preconditions.checkNotNull(imagePipeline);
+        mImageRequestProvider = Preconditions.checkNotNull(imageRequestProvider);
+        mCallerContext = callerContext;
+        mMinItems = minItems;
+        mMaxItems = maxItems;
+        mLookaheadMs = lookaheadMs;
+        mPrefetches = new HashMap<>();
+    }
+
+    /**
+     * Updates the prefetches after the list scrolled.
+     *
+     * @param firstVisibleItem   position of the first visible item
+     * @param lastVisibleItem    position of the last visible item
+     * @param itemCount          number of items of the list
+     * @param itemsPerSecondVelocity scroll velocity, positive towards the end of the list
+     */
+    public void onScroll (int firstVisibleItem, int lastVisibleItem, int itemCount, float itemsPerSecondVelocity)
+    {
+        final int numItems = getNumItemsToPrefetch(itemsPerSecondVelocity);
+        final int first;
+        final int last;
+        if (itemsPerSecondVelocity >= 0)
+        {
+            first = lastVisibleItem + 1;
+            last = Math.min(itemCount - 1, lastVisibleItem + numItems);
+        }
+        else
+        {
+            first = Math.max(0, firstVisibleItem - numItems);
+            last = firstVisibleItem - 1;
+        }
+
+        Iterator<Map.Entry<Integer, Prefetch>> iterator = mPrefetches.entrySet().iterator();
+        while (iterator.hasNext())
+        {
+            Map.Entry<Integer, Prefetch> entry = iterator.next();
+            int position = entry.getKey();
+            boolean isBehind = itemsPerSecondVelocity >= 0 ? position < firstVisibleItem : position > lastVisibleItem;
+            if (isBehind)
+            {
+                entry.getValue().mDataSource.close();
+                iterator.remove();
+            }
+            else if (position >= firstVisibleItem && position <= lastVisibleItem)
+            {
+                // visible now, the list loads it
+                iterator.remove();
+            }
+        }
+
+        for (int position = first; position <= last; position++)
+        {
+            int distance = itemsPerSecondVelocity >= 0 ? position - lastVisibleItem : firstVisibleItem - position;
+            int tier = getTier(distance, numItems);
+            Prefetch previous = mPrefetches.get(position);
+            if (previous != null && previous.mTier == tier)
+            {
+                continue;
+            }
+            ImageRequest imageRequest = mImageRequestProvider.getImageRequest(position);
+            if (imageRequest == null)
+            {
+                continue;
+            }
+            // started before the previous one is closed, so that the fetch is not restarted
+            mPrefetches.put(position, new Prefetch(prefetch(imageRequest, tier), tier));
+            if (previous != null)
+            {
+                previous.mDataSource.close();
+            }
+        }
+    }
+
+    /**
+     * Cancels all the prefetches, for example when the list is no longer shown.
+     */
+    public void cancelAll ()
+    {
+        for (Prefetch prefetch : mPrefetches.values())
+        {
+            prefetch.mDataSource.close();
+        }
+        mPrefetches.clear();
+    }
+
+    @VisibleForTesting
+    int getNumItemsToPrefetch (float itemsPerSecondVelocity)
+    {
+        long numItems = (long) Math.ceil(Math.abs(itemsPerSecondVelocity) * mLookaheadMs / 1000);
+        return (int) Math.max(mMinItems, Math.min(mMaxItems, numItems));
+    }
+
+    /**
+     * @param distance distance of the item from the visible range, 1 being the closest
+     */
+    private static int getTier (int distance, int numItems)
+    {
+        if (distance <= Math.max(1, (int) (numItems * BITMAP_CACHE_SHARE)))
+        {
+            return TIER_BITMAP_CACHE;
+        }
+        return distance <= numItems * MEDIUM_PRIORITY_SHARE ? TIER_DISK_CACHE_MEDIUM : TIER_DISK_CACHE_LOW;
+    }
+
+    private DataSource<Void> prefetch (ImageRequest imageRequest, int tier)
+    {
+        switch (tier)
+        {
+            case TIER_BITMAP_CACHE:
+                return mImagePipeline.prefetchToBitmapCache(imageRequest, mCallerContext);
+            case TIER_DISK_CACHE_MEDIUM:
+                return mImagePipeline.prefetchToDiskCache(imageRequest, mCallerContext, Priority.MEDIUM);
+            default:
+                return mImagePipeline.prefetchToDiskCache(imageRequest, mCallerContext, Priority.LOW);
+        }
+    }
+
+    private static class Prefetch
+    {
+        final DataSource<Void> mDataSource;
+        final int mTier;
+
+        Prefetch (DataSource<Void> dataSource, int tier)
+        {
+            mDataSource = dataSource;
+            mTier = tier;
+        }
+    }
+
+    /**
+     * Gives the request for the image of an item of the list.
+     */
+    public interface ImageRequestProvider
+    {
+        /**
+         * @return the request for the image of the item at the given position, null if it has none
+         */
+        @Nullable
+        ImageRequest getImageRequest (int position);
+    }
+}
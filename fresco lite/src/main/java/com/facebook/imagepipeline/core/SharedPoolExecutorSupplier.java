@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.core;
+
+import android.os.Process;
+
+import com.facebook.common.internal.Preconditions;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Executor supplier whose decodes and background tasks share one pool of CPU bound threads.
+ * <p>
+ * <p> With {@link DefaultExecutorSupplier}, the decode threads stay idle while resizes or
+ * postprocesses are queued, and the other way round. Here each stage is only capped in how many
+ * of the shared threads it uses at the same time, so a stage that is idle leaves its threads to
+ * the other one. Within a stage, queued tasks run by order of priority.
+ * <p>
+ * <p> Disk reads and writes, which block, and lightweight tasks keep their own threads.
+ */
+public class SharedPoolExecutorSupplier implements ExecutorSupplier
+{
+    // Allows for simultaneous reads and writes.
+    private static final int NUM_IO_BOUND_THREADS = 2;
+    private static final int NUM_LIGHTWEIGHT_BACKGROUND_THREADS = 1;
+
+    private final Executor mIoBoundExecutor;
+    private final Executor mDecodeExecutor;
+    private final Executor mBackgroundExecutor;
+    private final Executor mLightWeightBackgroundExecutor;
+
+    /**
+     * Lets each stage use all the CPU bound threads but one, so that a burst of one stage always
+     * leaves a thread to the other one.
+     */
+    public SharedPoolExecutorSupplier (int numCpuBoundThreads)
+    {
+        this(numCpuBoundThreads, Math.max(1, numCpuBoundThreads - 1), Math.max(1, numCpuBoundThreads - 1));
+    }
+
+    /**
+     * @param numCpuBoundThreads         size of the pool shared by decodes and background tasks
+     * @param maxDecodeConcurrency       how many decodes run at the same time
+     * @param maxBackgroundConcurrency   how many background tasks run at the same time
+     */
+    public SharedPoolExecutorSupplier (int numCpuBoundThreads, int maxDecodeConcurrency, int maxBackgroundConcurrency)
+    {
+        Preconditions.checkArgument(numCpuBoundThreads > 0);
+        ThreadFactory backgroundPriorityThreadFactory = new PriorityThreadFactory(Process.THREAD_PRIORITY_BACKGROUND);
+
+        Executor cpuBoundExecutor = Executors.newFixedThreadPool(numCpuBoundThreads, backgroundPriorityThreadFactory);
+        mIoBoundExecutor = Executors.newFixedThreadPool(NUM_IO_BOUND_THREADS);
+        mDecodeExecutor = new PriorityConstrainedExecutorService("Decode", Math.min(maxDecodeConcurrency, numCpuBoundThreads), cpuBoundExecutor);
+        mBackgroundExecutor = new PriorityConstrainedExecutorService("Background", Math.min(maxBackgroundConcurrency, numCpuBoundThreads), cpuBoundExecutor);
+        mLightWeightBackgroundExecutor = Executors.newFixedThreadPool(NUM_LIGHTWEIGHT_BACKGROUND_THREADS, backgroundPriorityThreadFactory);
+    }
+
+    @Override
+    public Executor forLocalStorageRead ()
+    {
+        return mIoBoundExecutor;
+    }
+
+    @Override
+    public Executor forLocalStorageWrite ()
+    {
+        return mIoBoundExecutor;
+    }
+
+    @Override
+    public Executor forDecode ()
+    {
+        return mDecodeExecutor;
+    }
+
+    @Override
+    public Executor forBackgroundTasks ()
+    {
+        return mBackgroundExecutor;
+    }
+
+    @Override
+    public Executor forLightweightBackgroundTasks ()
+    {
+        return mLightWeightBackgroundExecutor;
+    }
+}
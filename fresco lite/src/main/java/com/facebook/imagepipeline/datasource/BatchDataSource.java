@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.datasource;
+
+import com.facebook.common.executors.CallerThreadExecutor;
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.Supplier;
+import com.facebook.datasource.AbstractDataSource;
+import com.facebook.datasource.DataSource;
+import com.facebook.datasource.DataSubscriber;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Data source that runs a batch of requests, at most a given number of them at a time, and
+ * finishes once all of them finished.
+ * <p>
+ * <p> Identical requests of the batch are only run once: each item of the batch refers to one of
+ * the requests. The progress of each item is known, the progress of the batch is the average
+ * progress of its requests. Items that fail don't fail the batch, see {@link #hasItemFailed}.
+ * <p>
+ * <p> Closing the batch cancels the running requests and the ones not started yet. The results
+ * of the requests are not kept, the batch is meant to fill the caches.
+ */
+public class BatchDataSource extends AbstractDataSource<Void>
+{
+
+    private static final int PENDING = 0;
+    private static final int RUNNING = 1;
+    private static final int SUCCEEDED = 2;
+    private static final int FAILED = 3;
+
+    private final List<Supplier<DataSource<Void>>> mRequests;
+    private final int[] mItemRequests;
+    private final int mMaxConcurrentRequests;
+
+    @GuardedBy("this")
+    private final List<DataSource<Void>> mDataSources;
+    @GuardedBy("this")
+    private final int[] mStates;
+    @GuardedBy("this")
+    private final float[] mProgress;
+    @GuardedBy("this")
+    private int mNextRequest;
+    @GuardedBy("this")
+    private int mRunningRequests;
+    @GuardedBy("this")
+    private int mFinishedRequests;
+    @GuardedBy("this")
+    private boolean mIsStartingRequests;
+
+    private BatchDataSource (List<Supplier<DataSource<Void>>> requests, int[] itemRequests, int maxConcurrentRequests)
+    {
+        mRequests = requests;
+        mItemRequests = itemRequests;
+        mMaxConcurrentRequests = maxConcurrentRequests;
+        mDataSources = new ArrayList<>(requests.size());
+        for (int i = 0; i < requests.size(); i++)
+        {
+            mDataSources.add(null);
+        }
+        mStates = new int[requests.size()];
+        mProgress = new float[requests.size()];
+        mNextRequest = 0;
+        mRunningRequests = 0;
+        mFinishedRequests = 0;
+        mIsStartingRequests = false;
+    }
+
+    /**
+     * @param requests              suppliers of the data sources of the distinct requests, only
+     *                              called when the request is started
+     * @param itemRequests          for each item of the batch, the index of its request
+     * @param maxConcurrentRequests how many requests run at the same time
+     */
+    public static BatchDataSource create (List<Supplier<DataSource<Void>>> requests, int[] itemRequests, int maxConcurrentRequests)
+    {
+        Preconditions.checkNotNull(requests);
+        Preconditions.checkArgument(maxConcurrentRequests > 0);
+        for (int itemRequest : itemRequests)
+        {
+            Preconditions.checkElementIndex(itemRequest, requests.size());
+        }
+        BatchDataSource batchDataSource = new BatchDataSource(requests, itemRequests, maxConcurrentRequests);
+        if (requests.isEmpty())
+        {
+            batchDataSource.setResult(null, /* isLast */ true);
+        }
+        else
+        {
+            batchDataSource.startRequests();
+        }
+        return batchDataSource;
+    }
+
+    /**
+     * @return the number of items of the batch
+     */
+    public int getItemCount ()
+    {
+        return mItemRequests.length;
+    }
+
+    public synchronized float getItemProgress (int item)
+    {
+        return mProgress[mItemRequests[item]];
+    }
+
+    public synchronized boolean isItemFinished (int item)
+    {
+        return mStates[mItemRequests[item]] >= SUCCEEDED;
+    }
+
+    public synchronized boolean hasItemFailed (int item)
+    {
+        return mStates[mItemRequests[item]] == FAILED;
+    }
+
+    @Override
+    public boolean close ()
+    {
+        if (!super.close())
+        {
+            return false;
+        }
+        List<DataSource<Void>> dataSources;
+        synchronized (this)
+        {
+            dataSources = new ArrayList<>(mDataSources);
+        }
+        for (DataSource<Void> dataSource : dataSources)
+        {
+            if (dataSource != null)
+            {
+                dataSource.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Starts the requests that can run now. A request that is already finished when subscribed to
+     * finishes during the call, and the requests it frees are started by the same loop rather than
+     * by a nested call.
+     */
+    private void startRequests ()
+    {
+        synchronized (this)
+        {
+            if (mIsStartingRequests)
+            {
+                return;
+            }
+            mIsStartingRequests = true;
+        }
+        int request;
+        while ((request = takeNextRequest()) >= 0)
+        {
+            DataSource<Void> dataSource = mRequests.get(request).get();
+            boolean isClosed;
+            synchronized (this)
+            {
+                isClosed = isClosed();
+                mDataSources.set(request, isClosed ? null : dataSource);
+            }
+            if (isClosed)
+            {
+                dataSource.close();
+                continue;
+            }
+            dataSource.subscribe(new InternalDataSubscriber(request), CallerThreadExecutor.getInstance());
+        }
+    }
+
+    /**
+     * @return the next request to start, -1 if none can be started now, which ends the loop of
+     * {@link #startRequests}
+     */
+    private synchronized int takeNextRequest ()
+    {
+        if (isClosed() || mRunningRequests >= mMaxConcurrentRequests || mNextRequest >= mRequests.size())
+        {
+            mIsStartingRequests = false;
+            return -1;
+        }
+        mRunningRequests++;
+        mStates[mNextRequest] = RUNNING;
+        return mNextRequest++;
+    }
+
+    private void onRequestFinished (int request, boolean failed)
+    {
+        DataSource<Void> dataSource;
+        boolean isLast;
+        synchronized (this)
+        {
+            if (mStates[request] != RUNNING)
+            {
+                return;
+            }
+            mStates[request] = failed ? FAILED : SUCCEEDED;
+            mProgress[request] = 1;
+            mRunningRequests--;
+            mFinishedRequests++;
+            isLast = mFinishedRequests == mRequests.size();
+            dataSource = mDataSources.set(request, null);
+        }
+        if (dataSource != null)
+        {
+            dataSource.close();
+        }
+        if (isLast)
+        {
+            setResult(null, /* isLast */ true);
+        }
+        else
+        {
+            onRequestProgress(request, 1);
+            startRequests();
+        }
+    }
+
+    private void onRequestProgress (int request, float progress)
+    {
+        float totalProgress = 0;
+        synchronized (this)
+        {
+            if (mStates[request] == RUNNING)
+            {
+                mProgress[request] = progress;
+            }
+            for (float requestProgress : mProgress)
+            {
+                totalProgress += requestProgress;
+            }
+        }
+        setProgress(totalProgress / mRequests.size());
+    }
+
+    private class InternalDataSubscriber implements DataSubscriber<Void>
+    {
+        private final int mRequest;
+
+        InternalDataSubscriber (int request)
+        {
+            mRequest = request;
+        }
+
+        @Override
+        public void onNewResult (DataSource<Void> dataSource)
+        {
+            if (dataSource.isFinished())
+            {
+                onRequestFinished(mRequest, false);
+            }
+        }
+
+        @Override
+        public void onFailure (DataSource<Void> dataSource)
+        {
+            onRequestFinished(mRequest, true);
+        }
+
+        @Override
+        public void onCancellation (DataSource<Void> dataSource)
+        {
+            onRequestFinished(mRequest, true);
+        }
+
+        @Override
+        public void onProgressUpdate (DataSource<Void> dataSource)
+        {
+            onRequestProgress(mRequest, dataSource.getProgress());
+        }
+    }
+}
@@ -67,6 +67,7 @@ public class EncodedImage implements Closeable
     private int mHeight = UNKNOWN_HEIGHT;
     private int mSampleSize = DEFAULT_SAMPLE_SIZE;
     private int mStreamSize = UNKNOWN_STREAM_SIZE;
+    private boolean mIsEmbeddedThumbnail = false;
 
     public EncodedImage (CloseableReference<PooledByteBuffer> pooledByteBufferRef)
     {
@@ -310,6 +311,23 @@ public class EncodedImage implements Closeable
         this.mSampleSize = sampleSize;
     }
 
+    /**
+     * Returns true if this is the thumbnail embedded in the image being downloaded rather than a
+     * part of the image itself. Only valid for intermediate results.
+     */
+    public boolean isEmbeddedThumbnail ()
+    {
+        return mIsEmbeddedThumbnail;
+    }
+
+    /**
+     * Sets whether this is the thumbnail embedded in the image being downloaded
+     */
+    public void setIsEmbeddedThumbnail (boolean isEmbeddedThumbnail)
+    {
+        this.mIsEmbeddedThumbnail = isEmbeddedThumbnail;
+    }
+
     /**
      * Returns true if the image is a JPEG and its data is already complete at the specified length,
      * false otherwise.
@@ -393,6 +411,7 @@ public class EncodedImage implements Closeable
         mRotationAngle = encodedImage.getRotationAngle();
         mSampleSize = encodedImage.getSampleSize();
         mStreamSize = encodedImage.getSize();
+        mIsEmbeddedThumbnail = encodedImage.isEmbeddedThumbnail();
     }
 
     /**
@@ -0,0 +1,375 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.image;
+
+import android.util.Pair;
+
+import com.facebook.common.internal.ByteStreams;
+import com.facebook.common.internal.Closeables;
+import com.facebook.common.util.StreamUtil;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imageformat.ImageFormatChecker;
+import com.facebook.imageutils.BitmapUtil;
+import com.facebook.imageutils.JfifUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * Progressively parses the meta data (format, dimensions and rotation angle) of an image that is
+ * still being downloaded.
+ * <p>
+ * <p> Users should call parseMoreData method each time new chunk of data is received, with an
+ * {@link EncodedImage} holding the entire image data received so far. Unlike
+ * {@link EncodedImage#parseMetaData()}, JPEG segments are only read once: the parser remembers
+ * where the next marker starts and skips the segments it doesn't need. Once all the meta data is
+ * known, no more data is read.
+ * <p>
+ * <p> The parser also remembers where the EXIF data of a JPEG is, once its APP1 segment was
+ * received entirely.
+ */
+@NotThreadSafe
+public class ProgressiveMetaDataParser
+{
+
+    /**
+     * Meta data is still incomplete, more data may complete it
+     */
+    private static final int PARSING = 0;
+
+    /**
+     * All the meta data that can be known before decoding is known
+     */
+    private static final int COMPLETE = 1;
+
+    /**
+     * The data could not be parsed incrementally, {@link EncodedImage#parseMetaData()} should be
+     * used instead
+     */
+    private static final int FAILED = 2;
+
+    /**
+     * Marker, segment size, precision, height and width of a SOFn segment, plus fill bytes
+     */
+    private static final int SEGMENT_HEADER_LENGTH = 16;
+
+    private int mState;
+    private ImageFormat mImageFormat;
+    private int mWidth;
+    private int mHeight;
+    private int mRotationAngle;
+    /**
+     * offset of the next jpeg marker to parse
+     */
+    private int mBytesParsed;
+    /**
+     * orientation read from the APP1 EXIF segment, 0 if there is none
+     */
+    private int mOrientation;
+    private boolean mApp1Found;
+    /**
+     * offset and length of the TIFF data of the APP1 EXIF segment, -1 if there is none
+     */
+    private int mExifOffset;
+    private int mExifLength;
+
+    public ProgressiveMetaDataParser ()
+    {
+        mState = PARSING;
+        mImageFormat = ImageFormat.UNKNOWN;
+        mWidth = EncodedImage.UNKNOWN_WIDTH;
+        mHeight = EncodedImage.UNKNOWN_HEIGHT;
+        mRotationAngle = EncodedImage.UNKNOWN_ROTATION_ANGLE;
+        // skip SOI marker, it is checked by ImageFormatChecker
+        mBytesParsed = 2;
+        mOrientation = 0;
+        mApp1Found = false;
+        mExifOffset = -1;
+        mExifLength = -1;
+    }
+
+    /**
+     * Not every marker is followed by associated segment
+     */
+    private static boolean doesMarkerStartSegment (int markerSecondByte)
+    {
+        if (markerSecondByte == JfifUtil.MARKER_TEM)
+        {
+            return false;
+        }
+
+        if (markerSecondByte >= JfifUtil.MARKER_RST0 && markerSecondByte <= JfifUtil.MARKER_RST7)
+        {
+            return false;
+        }
+
+        return markerSecondByte != JfifUtil.MARKER_EOI && markerSecondByte != JfifUtil.MARKER_SOI;
+    }
+
+    private static int readUnsignedShort (byte[] bytes, int offset)
+    {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    /**
+     * Parses the data that arrived since the previous call and sets the meta data known so far on
+     * the encoded image.
+     *
+     * @param encodedImage all the bytes received so far
+     *
+     * @return true if all the meta data is known and was set on the encoded image. If false,
+     * {@link EncodedImage#parseMetaData()} has to be used once the image is complete.
+     */
+    public boolean parseMoreData (EncodedImage encodedImage)
+    {
+        if (mState == PARSING)
+        {
+            try
+            {
+                doParseMoreData(encodedImage);
+            }
+            catch (IOException ioe)
+            {
+                // does not happen, input stream returned by pooled byte buffer does not throw IOExceptions
+                mState = FAILED;
+            }
+        }
+        if (mState == FAILED)
+        {
+            return false;
+        }
+        encodedImage.setImageFormat(mImageFormat);
+        encodedImage.setWidth(mWidth);
+        encodedImage.setHeight(mHeight);
+        encodedImage.setRotationAngle(mRotationAngle);
+        return mState == COMPLETE;
+    }
+
+    /**
+     * @return true if the data can't be parsed incrementally
+     */
+    public boolean hasFailed ()
+    {
+        return mState == FAILED;
+    }
+
+    /**
+     * @return true once the EXIF data was received, or is known to be absent
+     */
+    public boolean hasParsedExif ()
+    {
+        return mApp1Found || mState != PARSING;
+    }
+
+    /**
+     * @return the offset of the TIFF data of the EXIF segment, -1 if there is none
+     */
+    public int getExifOffset ()
+    {
+        return mExifOffset;
+    }
+
+    /**
+     * @return the length of the TIFF data of the EXIF segment, -1 if there is none
+     */
+    public int getExifLength ()
+    {
+        return mExifLength;
+    }
+
+    /**
+     * @return orientation read from the EXIF segment, 0 if unknown
+     */
+    public int getExifOrientation ()
+    {
+        return mOrientation;
+    }
+
+    private void doParseMoreData (EncodedImage encodedImage) throws IOException
+    {
+        if (mImageFormat == ImageFormat.UNKNOWN)
+        {
+            // reads at most the few bytes of the header, retried until enough of them arrived
+            mImageFormat = ImageFormatChecker.getImageFormat_WrapIOException(encodedImage.getInputStream());
+            if (mImageFormat == ImageFormat.UNKNOWN)
+            {
+                return;
+            }
+        }
+
+        if (mImageFormat == ImageFormat.JPEG)
+        {
+            final int size = encodedImage.getSize();
+            while (mState == PARSING && mBytesParsed < size && parseNextJpegSegment(encodedImage, size))
+            {
+                // keep going, parseNextJpegSegment moved to the next marker
+            }
+        }
+        else if (ImageFormat.isWebpFormat(mImageFormat))
+        {
+            // Dimensions decoding is not yet supported for WebP, see EncodedImage#parseMetaData
+            mState = COMPLETE;
+        }
+        else
+        {
+            // other formats have their dimensions in the first few bytes
+            Pair<Integer, Integer> dimensions = BitmapUtil.decodeDimensions(encodedImage.getInputStream());
+            if (dimensions != null)
+            {
+                mWidth = dimensions.first;
+                mHeight = dimensions.second;
+                mRotationAngle = 0;
+                mState = COMPLETE;
+            }
+        }
+    }
+
+    /**
+     * Parses the jpeg marker at mBytesParsed.
+     *
+     * @return true if the parser moved to the next marker
+     */
+    private boolean parseNextJpegSegment (EncodedImage encodedImage, int size) throws IOException
+    {
+        final byte[] header = new byte[SEGMENT_HEADER_LENGTH];
+        final int headerLength = readAt(encodedImage, mBytesParsed, header, 0, SEGMENT_HEADER_LENGTH);
+        if (headerLength < 2)
+        {
+            return false;
+        }
+        if ((header[0] & 0xFF) != JfifUtil.MARKER_FIRST_BYTE)
+        {
+            mState = FAILED;
+            return false;
+        }
+        int i = 1;
+        while (i < headerLength && (header[i] & 0xFF) == JfifUtil.MARKER_FIRST_BYTE)
+        {
+            i++;
+        }
+        if (i > 1)
+        {
+            // skip fill bytes, keep the last one as the start of the marker
+            mBytesParsed += i - 1;
+            return true;
+        }
+        final int marker = header[i++] & 0xFF;
+
+        if (!doesMarkerStartSegment(marker))
+        {
+            if (marker == JfifUtil.MARKER_EOI)
+            {
+                mState = FAILED;
+                return false;
+            }
+            mBytesParsed += i;
+            return true;
+        }
+        if (marker == JfifUtil.MARKER_SOS)
+        {
+            // there must be a frame before the first scan
+            mState = FAILED;
+            return false;
+        }
+        if (i + 2 > headerLength)
+        {
+            return false;
+        }
+        final int segmentLength = readUnsignedShort(header, i);
+        final int segmentEnd = mBytesParsed + i + segmentLength;
+
+        if (JfifUtil.isSOFn(marker))
+        {
+            // segment size, precision, height and width
+            if (i + 7 > headerLength)
+            {
+                return false;
+            }
+            mHeight = readUnsignedShort(header, i + 3);
+            mWidth = readUnsignedShort(header, i + 5);
+            // APP1 always precedes the frame, so the orientation is known by now
+            mRotationAngle = JfifUtil.getAutoRotateAngleFromOrientation(mOrientation);
+            mState = COMPLETE;
+            return false;
+        }
+
+        if (marker == JfifUtil.MARKER_APP1 && !mApp1Found)
+        {
+            if (segmentEnd > size)
+            {
+                return false;
+            }
+            mApp1Found = true;
+            mOrientation = readOrientation(encodedImage, mBytesParsed);
+            findExif(encodedImage, mBytesParsed + i + 2, segmentLength - 2);
+        }
+
+        // We might skip more data than is available to read, in which case the next call
+        // resumes after the end of the segment.
+        mBytesParsed = segmentEnd;
+        return true;
+    }
+
+    /**
+     * Reads the orientation from the APP1 segment starting at offset.
+     */
+    private static int readOrientation (EncodedImage encodedImage, int offset) throws IOException
+    {
+        final InputStream is = encodedImage.getInputStream();
+        try
+        {
+            StreamUtil.skip(is, offset);
+            return JfifUtil.getOrientation(is);
+        }
+        finally
+        {
+            Closeables.closeQuietly(is);
+        }
+    }
+
+    /**
+     * Finds the TIFF data in the content of an APP1 segment, the same way as
+     * {@link JfifUtil#getOrientation(InputStream)} does.
+     */
+    private void findExif (EncodedImage encodedImage, int offset, int length) throws IOException
+    {
+        // magic and two zero bytes
+        final byte[] exifHeader = new byte[6];
+        if (length <= 6 || readAt(encodedImage, offset, exifHeader, 0, 6) < 6)
+        {
+            return;
+        }
+        final int magic = (readUnsignedShort(exifHeader, 0) << 16) | readUnsignedShort(exifHeader, 2);
+        if (magic == JfifUtil.APP1_EXIF_MAGIC && readUnsignedShort(exifHeader, 4) == 0)
+        {
+            mExifOffset = offset + 6;
+            mExifLength = length - 6;
+        }
+    }
+
+    private static int readAt (EncodedImage encodedImage, int offset, byte[] buffer, int bufferOffset, int length) throws IOException
+    {
+        final InputStream is = encodedImage.getInputStream();
+        try
+        {
+            if (StreamUtil.skip(is, offset) < offset)
+            {
+                return 0;
+            }
+            return ByteStreams.read(is, buffer, bufferOffset, length);
+        }
+        finally
+        {
+            Closeables.closeQuietly(is);
+        }
+    }
+}
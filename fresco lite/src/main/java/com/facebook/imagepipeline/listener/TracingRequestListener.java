@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.listener;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Records the requests and the spans of their producers, and exports them in the Chrome trace
+ * event format, to be opened in chrome://tracing.
+ * <p>
+ * <p> Each request is an async track identified by its request id. Each producer is a span of that
+ * track, from its start to its finish, recorded with the thread it ran on, so the time spent
+ * waiting for a thread (BackgroundThreadHandoffProducer), reading the disk (DiskCacheProducer),
+ * fetching (NetworkFetchProducer), decoding (DecodeProducer) and postprocessing is visible.
+ * <p>
+ * <p> Events are written to a buffer of fixed capacity allocated up front, the oldest events are
+ * overwritten once it is full. Recording an event is a few array writes under a lock, it does not
+ * allocate. Exporting copies the events under the lock and formats them outside of it.
+ */
+@ThreadSafe
+public class TracingRequestListener implements RequestListener
+{
+
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    private static final String CATEGORY_REQUEST = "request";
+    private static final String CATEGORY_PRODUCER = "producer";
+    private static final String REQUEST_EVENT_NAME = "ImageRequest";
+
+    private static final char PHASE_BEGIN = 'b';
+    private static final char PHASE_END = 'e';
+    private static final char PHASE_INSTANT = 'n';
+
+    private static final String STATUS_SUCCESS = "success";
+    private static final String STATUS_FAILURE = "failure";
+    private static final String STATUS_CANCELLATION = "cancellation";
+
+    private static final int INITIAL_THREAD_CAPACITY = 16;
+
+    private final int mCapacity;
+
+    @GuardedBy("this")
+    private final long[] mTimestampsUs;
+    @GuardedBy("this")
+    private final long[] mThreadIds;
+    @GuardedBy("this")
+    private final char[] mPhases;
+    @GuardedBy("this")
+    private final String[] mCategories;
+    @GuardedBy("this")
+    private final String[] mNames;
+    @GuardedBy("this")
+    private final String[] mRequestIds;
+    @GuardedBy("this")
+    private final String[] mArgs;
+    @GuardedBy("this")
+    private long[] mThreadNameIds;
+    @GuardedBy("this")
+    private String[] mThreadNames;
+    @GuardedBy("this")
+    private int mThreadCount;
+    @GuardedBy("this")
+    private int mNext;
+    @GuardedBy("this")
+    private int mSize;
+
+    public TracingRequestListener ()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity number of events kept
+     */
+    public TracingRequestListener (int capacity)
+    {
+        Preconditions.checkArgument(capacity > 0);
+        mCapacity = capacity;
+        mTimestampsUs = new long[capacity];
+        mThreadIds = new long[capacity];
+        mPhases = new char[capacity];
+        mCategories = new String[capacity];
+        mNames = new String[capacity];
+        mRequestIds = new String[capacity];
+        mArgs = new String[capacity];
+        mThreadNameIds = new long[INITIAL_THREAD_CAPACITY];
+        mThreadNames = new String[INITIAL_THREAD_CAPACITY];
+        mThreadCount = 0;
+        mNext = 0;
+        mSize = 0;
+    }
+
+    @Override
+    public void onRequestStart (ImageRequest request, Object callerContext, String requestId, boolean isPrefetch)
+    {
+        record(PHASE_BEGIN, CATEGORY_REQUEST, REQUEST_EVENT_NAME, requestId, null);
+    }
+
+    @Override
+    public void onRequestSuccess (ImageRequest request, String requestId, boolean isPrefetch)
+    {
+        record(PHASE_END, CATEGORY_REQUEST, REQUEST_EVENT_NAME, requestId, STATUS_SUCCESS);
+    }
+
+    @Override
+    public void onRequestFailure (ImageRequest request, String requestId, Throwable throwable, boolean isPrefetch)
+    {
+        record(PHASE_END, CATEGORY_REQUEST, REQUEST_EVENT_NAME, requestId, STATUS_FAILURE);
+    }
+
+    @Override
+    public void onRequestCancellation (String requestId)
+    {
+        record(PHASE_END, CATEGORY_REQUEST, REQUEST_EVENT_NAME, requestId, STATUS_CANCELLATION);
+    }
+
+    @Override
+    public void onProducerStart (String requestId, String producerName)
+    {
+        record(PHASE_BEGIN, CATEGORY_PRODUCER, producerName, requestId, null);
+    }
+
+    @Override
+    public void onProducerEvent (String requestId, String producerName, String eventName)
+    {
+        record(PHASE_INSTANT, CATEGORY_PRODUCER, eventName, requestId, producerName);
+    }
+
+    @Override
+    public void onProducerFinishWithSuccess (String requestId, String producerName, @Nullable Map<String, String> extraMap)
+    {
+        record(PHASE_END, CATEGORY_PRODUCER, producerName, requestId, STATUS_SUCCESS);
+    }
+
+    @Override
+    public void onProducerFinishWithFailure (String requestId, String producerName, Throwable t, @Nullable Map<String, String> extraMap)
+    {
+        record(PHASE_END, CATEGORY_PRODUCER, producerName, requestId, STATUS_FAILURE);
+    }
+
+    @Override
+    public void onProducerFinishWithCancellation (String requestId, String producerName, @Nullable Map<String, String> extraMap)
+    {
+        record(PHASE_END, CATEGORY_PRODUCER, producerName, requestId, STATUS_CANCELLATION);
+    }
+
+    @Override
+    public boolean requiresExtraMap (String requestId)
+    {
+        return false;
+    }
+
+    /**
+     * Removes all the recorded events.
+     */
+    public synchronized void clear ()
+    {
+        for (int i = 0; i < mCapacity; i++)
+        {
+            mCategories[i] = null;
+            mNames[i] = null;
+            mRequestIds[i] = null;
+            mArgs[i] = null;
+        }
+        mNext = 0;
+        mSize = 0;
+    }
+
+    /**
+     * @return the recorded events as a Chrome trace
+     */
+    public String exportChromeTrace ()
+    {
+        StringWriter writer = new StringWriter();
+        try
+        {
+            writeChromeTrace(writer);
+        }
+        catch (IOException ioe)
+        {
+            // StringWriter does not throw
+            throw new RuntimeException(ioe);
+        }
+        return writer.toString();
+    }
+
+    /**
+     * Writes the recorded events, oldest first, as a Chrome trace. Events recorded while writing
+     * are not included.
+     */
+    public void writeChromeTrace (Writer writer) throws IOException
+    {
+        final long[] threadNameIds;
+        final String[] threadNames;
+        final long[] timestampsUs;
+        final long[] threadIds;
+        final char[] phases;
+        final String[] categories;
+        final String[] names;
+        final String[] requestIds;
+        final String[] args;
+        synchronized (this)
+        {
+            threadNameIds = Arrays.copyOf(mThreadNameIds, mThreadCount);
+            threadNames = Arrays.copyOf(mThreadNames, mThreadCount);
+            timestampsUs = new long[mSize];
+            threadIds = new long[mSize];
+            phases = new char[mSize];
+            categories = new String[mSize];
+            names = new String[mSize];
+            requestIds = new String[mSize];
+            args = new String[mSize];
+            // the live window is at most two ranges of the ring buffer
+            int start = mNext - mSize < 0 ? mNext - mSize + mCapacity : mNext - mSize;
+            int firstLength = Math.min(mSize, mCapacity - start);
+            copyEvents(start, 0, firstLength, timestampsUs, threadIds, phases, categories, names, requestIds, args);
+            copyEvents(0, firstLength, mSize - firstLength, timestampsUs, threadIds, phases, categories, names, requestIds, args);
+        }
+
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (int i = 0; i < threadNameIds.length; i++)
+        {
+            first = writeSeparator(writer, first);
+            writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":0,\"tid\":");
+            writer.write(Long.toString(threadNameIds[i]));
+            writer.write(",\"args\":{\"name\":");
+            writeString(writer, threadNames[i]);
+            writer.write("}}");
+        }
+        for (int i = 0; i < timestampsUs.length; i++)
+        {
+            first = writeSeparator(writer, first);
+            writer.write("{\"name\":");
+            writeString(writer, names[i]);
+            writer.write(",\"cat\":");
+            writeString(writer, categories[i]);
+            writer.write(",\"ph\":\"");
+            writer.write(phases[i]);
+            writer.write("\",\"id\":");
+            writeString(writer, requestIds[i]);
+            writer.write(",\"ts\":");
+            writer.write(Long.toString(timestampsUs[i]));
+            writer.write(",\"pid\":0,\"tid\":");
+            writer.write(Long.toString(threadIds[i]));
+            if (args[i] != null)
+            {
+                writer.write(phases[i] == PHASE_INSTANT ? ",\"args\":{\"producer\":" : ",\"args\":{\"status\":");
+                writeString(writer, args[i]);
+                writer.write("}");
+            }
+            writer.write("}");
+        }
+        writer.write("]}");
+        writer.flush();
+    }
+
+    @GuardedBy("this")
+    private void copyEvents (int from, int to, int length, long[] timestampsUs, long[] threadIds, char[] phases, String[] categories, String[] names, String[] requestIds, String[] args)
+    {
+        System.arraycopy(mTimestampsUs, from, timestampsUs, to, length);
+        System.arraycopy(mThreadIds, from, threadIds, to, length);
+        System.arraycopy(mPhases, from, phases, to, length);
+        System.arraycopy(mCategories, from, categories, to, length);
+        System.arraycopy(mNames, from, names, to, length);
+        System.arraycopy(mRequestIds, from, requestIds, to, length);
+        System.arraycopy(mArgs, from, args, to, length);
+    }
+
+    /**
+     * Remembers the name of the thread the first time it records an event. There are few threads,
+     * they are looked up linearly.
+     */
+    @GuardedBy("this")
+    private void maybeAddThreadName (long threadId, Thread thread)
+    {
+        for (int i = 0; i < mThreadCount; i++)
+        {
+            if (mThreadNameIds[i] == threadId)
+            {
+                return;
+            }
+        }
+        if (mThreadCount == mThreadNameIds.length)
+        {
+            mThreadNameIds = Arrays.copyOf(mThreadNameIds, mThreadCount * 2);
+            mThreadNames = Arrays.copyOf(mThreadNames, mThreadCount * 2);
+        }
+        mThreadNameIds[mThreadCount] = threadId;
+        mThreadNames[mThreadCount] = thread.getName();
+        mThreadCount++;
+    }
+
+    /**
+     * @param arg status of an end event, producer of an instant event
+     */
+    private void record (char phase, String category, String name, String requestId, @Nullable String arg)
+    {
+        final long timestampUs = System.nanoTime() / 1000;
+        final Thread thread = Thread.currentThread();
+        final long threadId = thread.getId();
+        synchronized (this)
+        {
+            maybeAddThreadName(threadId, thread);
+            mTimestampsUs[mNext] = timestampUs;
+            mThreadIds[mNext] = threadId;
+            mPhases[mNext] = phase;
+            mCategories[mNext] = category;
+            mNames[mNext] = name;
+            mRequestIds[mNext] = requestId;
+            mArgs[mNext] = arg;
+            mNext = (mNext + 1) % mCapacity;
+            if (mSize < mCapacity)
+            {
+                mSize++;
+            }
+        }
+    }
+
+    private static boolean writeSeparator (Writer writer, boolean first) throws IOException
+    {
+        if (!first)
+        {
+            writer.write(',');
+        }
+        return false;
+    }
+
+    private static void writeString (Writer writer, @Nullable String value) throws IOException
+    {
+        if (value == null)
+        {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++)
+        {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\')
+            {
+                writer.write('\\');
+                writer.write(c);
+            }
+            else if (c < 0x20)
+            {
+                writer.write(String.format("\\u%04x", (int) c));
+            }
+            else
+            {
+                writer.write(c);
+            }
+        }
+        writer.write('"');
+    }
+}
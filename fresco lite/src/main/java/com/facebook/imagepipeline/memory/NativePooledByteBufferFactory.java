@@ -13,6 +13,7 @@ import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.Throwables;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.util.ByteConstants;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -22,11 +23,18 @@ import javax.annotation.concurrent.ThreadSafe;
 /**
  * A factory to provide instances of {@link NativePooledByteBuffer} and
  * {@link NativePooledByteBufferOutputStream}
+ * <p>
+ * <p> When the size of the content is not known in advance, {@link SegmentedPooledByteBuffer} and
+ * {@link SegmentedPooledByteBufferOutputStream} are provided instead, so that growing the buffer
+ * does not copy the content again.
  */
 @ThreadSafe
 public class NativePooledByteBufferFactory implements PooledByteBufferFactory
 {
 
+    @VisibleForTesting
+    static final int SEGMENT_SIZE = 16 * ByteConstants.KB;
+
     private final PooledByteStreams mPooledByteStreams;
     private final NativeMemoryChunkPool mPool;    // native memory pool
 
@@ -52,22 +60,23 @@ public class NativePooledByteBufferFactory implements PooledByteBufferFactory
     }
 
     /**
-     * Creates a new NativePooledByteBuffer instance by reading in the entire contents of the
+     * Creates a new SegmentedPooledByteBuffer instance by reading in the entire contents of the
      * input stream
      *
      * @param inputStream the input stream to read from
      *
-     * @return an instance of the NativePooledByteBuffer
+     * @return an instance of the SegmentedPooledByteBuffer
      *
      * @throws IOException
      */
     @Override
-    public NativePooledByteBuffer newByteBuffer (InputStream inputStream) throws IOException
+    public SegmentedPooledByteBuffer newByteBuffer (InputStream inputStream) throws IOException
     {
-        NativePooledByteBufferOutputStream outputStream = new NativePooledByteBufferOutputStream(mPool);
+        SegmentedPooledByteBufferOutputStream outputStream = new SegmentedPooledByteBufferOutputStream(mPool, SEGMENT_SIZE);
         try
         {
-            return newByteBuf(inputStream, outputStream);
+            mPooledByteStreams.copy(inputStream, outputStream);
+            return outputStream.toByteBuffer();
         }
         finally
         {
@@ -128,14 +137,14 @@ public class NativePooledByteBufferFactory implements PooledByteBufferFactory
     }
 
     /**
-     * Creates a new NativePooledByteBufferOutputStream instance with default initial capacity
+     * Creates a new SegmentedPooledByteBufferOutputStream instance, for content of unknown size
      *
-     * @return a new NativePooledByteBufferOutputStream
+     * @return a new SegmentedPooledByteBufferOutputStream
      */
     @Override
-    public NativePooledByteBufferOutputStream newOutputStream ()
+    public SegmentedPooledByteBufferOutputStream newOutputStream ()
     {
-        return new NativePooledByteBufferOutputStream(mPool);
+        return new SegmentedPooledByteBufferOutputStream(mPool, SEGMENT_SIZE);
     }
 
     /**
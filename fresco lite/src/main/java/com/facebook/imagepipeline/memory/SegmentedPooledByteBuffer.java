@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.references.CloseableReference;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link PooledByteBuffer} whose bytes are spread over a chain of {@link NativeMemoryChunk}s of
+ * the same size, as written by a {@link SegmentedPooledByteBufferOutputStream}.
+ * <p>
+ * <p> Reads work across segment boundaries. The bytes are not contiguous in memory, so
+ * {@link #getNativePtr()} is only supported when they all fit in the first segment.
+ */
+@ThreadSafe
+public class SegmentedPooledByteBuffer implements PooledByteBuffer
+{
+
+    private final int mSize;
+    private final int mSegmentSize;
+
+    @GuardedBy("this")
+    @VisibleForTesting
+    List<CloseableReference<NativeMemoryChunk>> mSegmentRefs;
+
+    /**
+     * @param segmentRefs the segments, which are cloned, each holding segmentSize bytes except
+     *                    the last one
+     * @param segmentSize the number of bytes of each segment
+     * @param size        the total number of bytes
+     */
+    public SegmentedPooledByteBuffer (List<CloseableReference<NativeMemoryChunk>> segmentRefs, int segmentSize, int size)
+    {
+        Preconditions.checkArgument(segmentSize > 0);
+        Preconditions.checkArgument(size >= 0 && size <= (long) segmentRefs.size() * segmentSize);
+        mSegmentRefs = new ArrayList<>(segmentRefs.size());
+        for (CloseableReference<NativeMemoryChunk> segmentRef : segmentRefs)
+        {
+            mSegmentRefs.add(segmentRef.clone());
+        }
+        mSegmentSize = segmentSize;
+        mSize = size;
+    }
+
+    @Override
+    public synchronized int size ()
+    {
+        ensureValid();
+        return mSize;
+    }
+
+    @Override
+    public synchronized byte read (int offset)
+    {
+        ensureValid();
+        Preconditions.checkArgument(offset >= 0);
+        Preconditions.checkArgument(offset < mSize);
+        return mSegmentRefs.get(offset / mSegmentSize).get().read(offset % mSegmentSize);
+    }
+
+    @Override
+    public synchronized void read (int offset, byte[] buffer, int bufferOffset, int length)
+    {
+        ensureValid();
+        // We need to make sure that PooledByteBuffer's length is preserved.
+        // Al the other bounds checks will be performed by NativeMemoryChunk.read method.
+        Preconditions.checkArgument(offset >= 0 && length >= 0);
+        Preconditions.checkArgument(offset + length <= mSize);
+        while (length > 0)
+        {
+            int segmentOffset = offset % mSegmentSize;
+            int count = Math.min(length, mSegmentSize - segmentOffset);
+            mSegmentRefs.get(offset / mSegmentSize).get().read(segmentOffset, buffer, bufferOffset, count);
+            offset += count;
+            bufferOffset += count;
+            length -= count;
+        }
+    }
+
+    /**
+     * @throws UnsupportedOperationException if the bytes span more than one segment
+     */
+    @Override
+    public synchronized long getNativePtr ()
+    {
+        ensureValid();
+        if (mSize > mSegmentSize)
+        {
+            throw new UnsupportedOperationException("Bytes are not contiguous");
+        }
+        return mSegmentRefs.get(0).get().getNativePtr();
+    }
+
+    @Override
+    public synchronized void close ()
+    {
+        if (mSegmentRefs != null)
+        {
+            CloseableReference.closeSafely(mSegmentRefs);
+            mSegmentRefs = null;
+        }
+    }
+
+    @Override
+    public synchronized boolean isClosed ()
+    {
+        return mSegmentRefs == null;
+    }
+
+    synchronized void ensureValid ()
+    {
+        if (isClosed())
+        {
+            throw new ClosedException();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.memory;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.references.CloseableReference;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.concurrent.NotThreadSafe;
+
+/**
+ * An implementation of {@link PooledByteBufferOutputStream} that produces a
+ * {@link SegmentedPooledByteBuffer}.
+ * <p>
+ * <p> The stream grows by appending fixed-size segments from the pool, so unlike
+ * {@link NativePooledByteBufferOutputStream} it never copies the bytes already written. Use it
+ * when the final size is not known in advance.
+ */
+@NotThreadSafe
+public class SegmentedPooledByteBufferOutputStream extends PooledByteBufferOutputStream
+{
+    private final NativeMemoryChunkPool mPool;  // the pool to allocate segments from
+    private final int mSegmentSize;
+    private List<CloseableReference<NativeMemoryChunk>> mSegmentRefs; // null once closed
+    private int mCount; // number of bytes written to the stream
+
+    /**
+     * Construct a new instance of this outputstream
+     *
+     * @param pool        the pool to use
+     * @param segmentSize the size of each segment
+     */
+    public SegmentedPooledByteBufferOutputStream (NativeMemoryChunkPool pool, int segmentSize)
+    {
+        super();
+
+        Preconditions.checkArgument(segmentSize > 0);
+        mPool = Preconditions.checkNotNull(pool);
+        mSegmentSize = segmentSize;
+        mCount = 0;
+        mSegmentRefs = new ArrayList<>();
+        addSegment();
+    }
+
+    /**
+     * Gets a PooledByteBuffer from the current contents. If the stream has already been closed, then
+     * an InvalidStreamException is thrown.
+     *
+     * @return a PooledByteBuffer instance for the contents of the stream
+     *
+     * @throws NativePooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+     */
+    @Override
+    public SegmentedPooledByteBuffer toByteBuffer ()
+    {
+        ensureValid();
+        return new SegmentedPooledByteBuffer(mSegmentRefs, mSegmentSize, mCount);
+    }
+
+    /**
+     * Returns the total number of bytes written to this stream so far.
+     *
+     * @return the number of bytes written to this stream.
+     */
+    @Override
+    public int size ()
+    {
+        return mCount;
+    }
+
+    /**
+     * Closes the stream. Owned resources are released back to the pool. It is not allowed to call
+     * toByteBuffer after call to this method.
+     */
+    @Override
+    public void close ()
+    {
+        if (mSegmentRefs != null)
+        {
+            CloseableReference.closeSafely(mSegmentRefs);
+            mSegmentRefs = null;
+        }
+        mCount = -1;
+        super.close();
+    }
+
+    /**
+     * Writes {@code count} bytes from the byte array {@code buffer} starting at
+     * position {@code offset} to this stream, filling the last segment before adding new ones.
+     *
+     * @throws IndexOutOfBoundsException if {@code offset < 0} or {@code count < 0}, or if
+     *                                   {@code offset + count} is bigger than the length of
+     *                                   {@code buffer}.
+     * @throws NativePooledByteBufferOutputStream.InvalidStreamException if the stream is invalid
+     */
+    @Override
+    public void write (byte[] buffer, int offset, int count) throws IOException
+    {
+        if (offset < 0 || count < 0 || offset + count > buffer.length)
+        {
+            throw new ArrayIndexOutOfBoundsException("length=" + buffer.length + "; regionStart=" + offset + "; regionLength=" + count);
+        }
+        ensureValid();
+        while (count > 0)
+        {
+            int segmentOffset = mCount % mSegmentSize;
+            if (segmentOffset == 0 && mCount > 0)
+            {
+                addSegment();
+            }
+            int written = Math.min(count, mSegmentSize - segmentOffset);
+            mSegmentRefs.get(mSegmentRefs.size() - 1).get().write(segmentOffset, buffer, offset, written);
+            mCount += written;
+            offset += written;
+            count -= written;
+        }
+    }
+
+    /**
+     * Write one byte to the underlying stream. The underlying stream MUST be valid
+     *
+     * @param oneByte the one byte to write
+     */
+    @Override
+    public void write (int oneByte) throws IOException
+    {
+        byte[] buf = new byte[1];
+        buf[0] = (byte) oneByte;
+        this.write(buf);
+    }
+
+    private void addSegment ()
+    {
+        mSegmentRefs.add(CloseableReference.of(mPool.get(mSegmentSize), mPool));
+    }
+
+    private void ensureValid ()
+    {
+        if (mSegmentRefs == null)
+        {
+            throw new NativePooledByteBufferOutputStream.InvalidStreamException();
+        }
+    }
+}
@@ -70,15 +70,24 @@ public class ArtDecoder implements PlatformDecoder
         final BitmapFactory.Options options = new BitmapFactory.Options();
         // Sample size should ONLY be different than 1 when downsampling is enabled in the pipeline
         options.inSampleSize = encodedImage.getSampleSize();
-        options.inJustDecodeBounds = true;
-        // fill outWidth and outHeight
-        BitmapFactory.decodeStream(encodedImage.getInputStream(), null, options);
-        if (options.outWidth == -1 || options.outHeight == -1)
+        if (encodedImage.getWidth() > 0 && encodedImage.getHeight() > 0)
         {
-            throw new IllegalArgumentException();
+            // the dimensions were parsed with the metadata, no need to read the header again
+            options.outWidth = getSampledDimension(encodedImage.getWidth(), options.inSampleSize);
+            options.outHeight = getSampledDimension(encodedImage.getHeight(), options.inSampleSize);
+        }
+        else
+        {
+            options.inJustDecodeBounds = true;
+            // fill outWidth and outHeight
+            BitmapFactory.decodeStream(encodedImage.getInputStream(), null, options);
+            if (options.outWidth == -1 || options.outHeight == -1)
+            {
+                throw new IllegalArgumentException();
+            }
+            options.inJustDecodeBounds = false;
         }
 
-        options.inJustDecodeBounds = false;
         options.inDither = true;
         options.inPreferredConfig = bitmapConfig;
         options.inMutable = true;
@@ -86,6 +95,18 @@ public class ArtDecoder implements PlatformDecoder
         return options;
     }
 
+    /**
+     * Upper bound of the size of a sampled dimension, only used to size the bitmap to reuse.
+     * BitmapFactory rounds the sample size down to a power of 2, and rounds the sampled dimension
+     * up or down depending on the format.
+     */
+    @VisibleForTesting
+    static int getSampledDimension (int dimension, int sampleSize)
+    {
+        int powerOfTwo = sampleSize <= 1 ? 1 : Integer.highestOneBit(sampleSize);
+        return (dimension + powerOfTwo - 1) / powerOfTwo;
+    }
+
     /**
      * Creates a bitmap from encoded bytes.
      *
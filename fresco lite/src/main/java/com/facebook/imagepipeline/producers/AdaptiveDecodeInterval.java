@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.os.SystemClock;
+
+import com.facebook.common.internal.VisibleForTesting;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Adapts the minimum interval between the progressive decodes of an image to what decoding costs
+ * on the device.
+ * <p>
+ * <p> The interval is at least the one of {@link com.facebook.imagepipeline.common.ImageDecodeOptions},
+ * at least {@link #COST_FACTOR} times the last decode of the image, so that intermediate decodes
+ * of an image take a bounded share of the decode threads, and it grows with the average time
+ * decodes wait for a thread in the queue of the decode executor. That wait does not include the
+ * interval itself. While no decode is queued the average decays, so when decodes are cheap and the
+ * executor is idle the interval goes back to the configured one.
+ * <p>
+ * <p> Scans that arrive during a longer interval are not decoded, only the last one is.
+ */
+@ThreadSafe
+public class AdaptiveDecodeInterval implements JobScheduler.ExecutorQueueListener
+{
+
+    /**
+     * An image is decoded at most 1 / COST_FACTOR of the time
+     */
+    @VisibleForTesting
+    static final int COST_FACTOR = 4;
+
+    /**
+     * Weight of the queue time in the interval
+     */
+    @VisibleForTesting
+    static final int QUEUE_TIME_FACTOR = 2;
+
+    @VisibleForTesting
+    static final int MAX_INTERVAL_MS = 2000;
+
+    /**
+     * Weight of the last sample in the average queue time
+     */
+    private static final float QUEUE_TIME_SMOOTHING = 0.2f;
+
+    /**
+     * Time after which the average queue time is halved while no decode is queued
+     */
+    @VisibleForTesting
+    static final long QUEUE_TIME_HALF_LIFE_MS = 500;
+
+    @GuardedBy("this")
+    private float mAverageQueueTimeMs;
+    @GuardedBy("this")
+    private int mQueuedDecodes;
+    @GuardedBy("this")
+    private long mLastUpdateMs;
+
+    public AdaptiveDecodeInterval ()
+    {
+        mAverageQueueTimeMs = 0;
+        mQueuedDecodes = 0;
+        mLastUpdateMs = SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public synchronized void onJobQueued ()
+    {
+        decay(SystemClock.uptimeMillis());
+        mQueuedDecodes++;
+    }
+
+    /**
+     * Records how long a decode waited for a decode thread.
+     */
+    @Override
+    public synchronized void onJobDequeued (long waitTimeMs)
+    {
+        decay(SystemClock.uptimeMillis());
+        mQueuedDecodes = Math.max(0, mQueuedDecodes - 1);
+        if (waitTimeMs != REMOVED)
+        {
+            mAverageQueueTimeMs += QUEUE_TIME_SMOOTHING * (Math.max(0, waitTimeMs) - mAverageQueueTimeMs);
+        }
+    }
+
+    /**
+     * Decays the average for the time nothing was queued since the last update.
+     */
+    @GuardedBy("this")
+    private void decay (long nowMs)
+    {
+        if (mQueuedDecodes == 0 && nowMs > mLastUpdateMs)
+        {
+            mAverageQueueTimeMs *= (float) Math.pow(0.5, (double) (nowMs - mLastUpdateMs) / QUEUE_TIME_HALF_LIFE_MS);
+        }
+        mLastUpdateMs = nowMs;
+    }
+
+    /**
+     * @param minDecodeIntervalMs the interval requested by the image request
+     * @param lastDecodeTimeMs    how long the last decode of the image took, 0 if unknown
+     *
+     * @return the minimum interval between the next decodes of the image
+     */
+    public int getMinDecodeIntervalMs (int minDecodeIntervalMs, long lastDecodeTimeMs)
+    {
+        final float averageQueueTimeMs;
+        synchronized (this)
+        {
+            decay(SystemClock.uptimeMillis());
+            averageQueueTimeMs = mAverageQueueTimeMs;
+        }
+        long intervalMs = Math.max(minDecodeIntervalMs, COST_FACTOR * lastDecodeTimeMs);
+        intervalMs += (long) (QUEUE_TIME_FACTOR * averageQueueTimeMs);
+        return (int) Math.max(minDecodeIntervalMs, Math.min(MAX_INTERVAL_MS, intervalMs));
+    }
+}
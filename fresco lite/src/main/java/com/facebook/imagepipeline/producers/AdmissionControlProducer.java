@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.common.DeadlineExceededException;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Kicks off the requests once the {@link RequestAdmissionController} admits them.
+ * <p>
+ * <p> Queued requests are re-ordered when their priority changes and dropped as soon as they are
+ * cancelled. Rejected requests fail with a {@link CancellationException}.
+ */
+public class AdmissionControlProducer<T> implements Producer<T>
+{
+
+    @VisibleForTesting
+    static final String PRODUCER_NAME = "AdmissionControlProducer";
+
+    private static final CancellationException REJECTED_EXCEPTION = new CancellationException("Prefetch shed under memory pressure");
+
+    private final Producer<T> mInputProducer;
+    private final RequestAdmissionController mAdmissionController;
+
+    public AdmissionControlProducer (RequestAdmissionController admissionController, Producer<T> inputProducer)
+    {
+        mAdmissionController = Preconditions.checkNotNull(admissionController);
+        mInputProducer = Preconditions.checkNotNull(inputProducer);
+    }
+
+    @Override
+    public void produceResults (final Consumer<T> consumer, final ProducerContext producerContext)
+    {
+        final ProducerListener producerListener = producerContext.getListener();
+        producerListener.onProducerStart(producerContext.getId(), PRODUCER_NAME);
+
+        final long bytes = RequestAdmissionController.estimateBytes(producerContext.getImageRequest());
+        final RequestAdmissionController.PendingRequest pendingRequest = new RequestAdmissionController.PendingRequest(bytes, producerContext.isPrefetch(), producerContext.getPriority())
+        {
+            @Override
+            void onAdmitted ()
+            {
+                AdmittedConsumer admittedConsumer = new AdmittedConsumer(consumer, this);
+                if (producerContext.isDeadlineExceeded())
+                {
+                    // releases the admission for the next request
+                    DeadlineExceededException exception = new DeadlineExceededException(producerContext.getId());
+                    producerListener.onProducerFinishWithFailure(producerContext.getId(), PRODUCER_NAME, exception, null);
+                    admittedConsumer.onFailure(exception);
+                    return;
+                }
+                producerListener.onProducerFinishWithSuccess(producerContext.getId(), PRODUCER_NAME, null);
+                mInputProducer.produceResults(admittedConsumer, producerContext);
+            }
+
+            @Override
+            void onRejected ()
+            {
+                producerListener.onProducerFinishWithFailure(producerContext.getId(), PRODUCER_NAME, REJECTED_EXCEPTION, null);
+                consumer.onFailure(REJECTED_EXCEPTION);
+            }
+        };
+        mAdmissionController.submit(pendingRequest);
+        producerContext.addCallbacks(new BaseProducerContextCallbacks()
+        {
+            @Override
+            public void onCancellationRequested ()
+            {
+                if (mAdmissionController.remove(pendingRequest))
+                {
+                    producerListener.onProducerFinishWithCancellation(producerContext.getId(), PRODUCER_NAME, null);
+                    consumer.onCancellation();
+                }
+            }
+
+            @Override
+            public void onPriorityChanged ()
+            {
+                mAdmissionController.updatePriority(pendingRequest, producerContext.getPriority());
+            }
+        });
+    }
+
+    private class AdmittedConsumer extends DelegatingConsumer<T, T>
+    {
+        private final RequestAdmissionController.PendingRequest mRequest;
+
+        private AdmittedConsumer (Consumer<T> consumer, RequestAdmissionController.PendingRequest request)
+        {
+            super(consumer);
+            mRequest = request;
+        }
+
+        @Override
+        protected void onNewResultImpl (T newResult, boolean isLast)
+        {
+            getConsumer().onNewResult(newResult, isLast);
+            if (isLast)
+            {
+                onRequestFinished();
+            }
+        }
+
+        @Override
+        protected void onFailureImpl (Throwable t)
+        {
+            getConsumer().onFailure(t);
+            onRequestFinished();
+        }
+
+        @Override
+        protected void onCancellationImpl ()
+        {
+            getConsumer().onCancellation();
+            onRequestFinished();
+        }
+
+        private void onRequestFinished ()
+        {
+            mAdmissionController.onFinished(mRequest);
+        }
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.net.Uri;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.time.MonotonicClock;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Estimates the download speed of the network, overall and for each host.
+ * <p>
+ * <p> {@link NetworkFetchProducer} reports how many bytes each read of a response returned and how
+ * long the read blocked. The estimate is the number of bytes read in the last
+ * {@link #DEFAULT_WINDOW_MS} divided by the wall time during which at least one read was blocked,
+ * so idle periods between downloads don't lower it. Reads of concurrent downloads overlap, so the
+ * estimate is the speed of all of them together rather than the speed of a single connection.
+ * <p>
+ * <p> Apps can use the estimate to choose which image to request, for example a low resolution
+ * one first on a slow network and the full resolution one directly on a fast network.
+ */
+@ThreadSafe
+public class BandwidthMeter
+{
+
+    /**
+     * Returned when too little was downloaded recently to estimate the speed.
+     */
+    public static final long NO_ESTIMATE = -1;
+
+    public static final long DEFAULT_WINDOW_MS = 10 * 1000;
+
+    /**
+     * Minimum wall time spent reading in the window for an estimate to be made.
+     */
+    @VisibleForTesting
+    static final long MIN_ELAPSED_MS = 50;
+
+    private final MonotonicClock mClock;
+    private final long mWindowMs;
+
+    @GuardedBy("this")
+    private final Window mTotal;
+    @GuardedBy("this")
+    private final Map<String, Window> mHosts;
+
+    public BandwidthMeter (MonotonicClock clock)
+    {
+        this(clock, DEFAULT_WINDOW_MS);
+    }
+
+    public BandwidthMeter (MonotonicClock clock, long windowMs)
+    {
+        Preconditions.checkArgument(windowMs > 0);
+        mClock = clock;
+        mWindowMs = windowMs;
+        mTotal = new Window();
+        mHosts = new HashMap<>();
+    }
+
+    private static String getHost (Uri uri)
+    {
+        String host = uri.getHost();
+        return host == null ? "" : host;
+    }
+
+    /**
+     * Records a read of a response.
+     *
+     * @param uri       the uri being downloaded
+     * @param bytes     number of bytes read
+     * @param elapsedMs time the read blocked
+     */
+    public synchronized void onBytesRead (Uri uri, int bytes, long elapsedMs)
+    {
+        final long nowMs = mClock.now();
+        final String host = getHost(uri);
+        Window window = mHosts.get(host);
+        if (window == null)
+        {
+            window = new Window();
+            mHosts.put(host, window);
+        }
+        window.add(nowMs, bytes, elapsedMs);
+        mTotal.add(nowMs, bytes, elapsedMs);
+        prune(nowMs);
+    }
+
+    /**
+     * @return the estimated download speed in bytes per second, or {@link #NO_ESTIMATE}
+     */
+    public synchronized long getBytesPerSecondEstimate ()
+    {
+        prune(mClock.now());
+        return mTotal.getBytesPerSecond();
+    }
+
+    /**
+     * @return the estimated download speed from the host of the uri in bytes per second, or
+     * {@link #NO_ESTIMATE}
+     */
+    public synchronized long getBytesPerSecondEstimate (Uri uri)
+    {
+        prune(mClock.now());
+        Window window = mHosts.get(getHost(uri));
+        return window == null ? NO_ESTIMATE : window.getBytesPerSecond();
+    }
+
+    @GuardedBy("this")
+    private void prune (long nowMs)
+    {
+        final long oldestMs = nowMs - mWindowMs;
+        mTotal.prune(oldestMs);
+        Iterator<Window> iterator = mHosts.values().iterator();
+        while (iterator.hasNext())
+        {
+            Window window = iterator.next();
+            window.prune(oldestMs);
+            if (window.isEmpty())
+            {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Reads received during the window, oldest first.
+     */
+    private static class Window
+    {
+        private final ArrayDeque<Sample> mSamples = new ArrayDeque<>();
+        private long mBytes;
+        private long mBusyMs;
+        private long mBusyUntilMs;
+
+        /**
+         * Only counts the part of the read that does not overlap the previous ones as busy time.
+         */
+        void add (long timeMs, int bytes, long elapsedMs)
+        {
+            long busyMs = Math.max(0, timeMs - Math.max(timeMs - elapsedMs, mBusyUntilMs));
+            mBusyUntilMs = Math.max(mBusyUntilMs, timeMs);
+            mSamples.addLast(new Sample(timeMs, bytes, busyMs));
+            mBytes += bytes;
+            mBusyMs += busyMs;
+        }
+
+        void prune (long oldestMs)
+        {
+            Sample sample;
+            while ((sample = mSamples.peekFirst()) != null && sample.mTimeMs < oldestMs)
+            {
+                mSamples.removeFirst();
+                mBytes -= sample.mBytes;
+                mBusyMs -= sample.mBusyMs;
+            }
+        }
+
+        boolean isEmpty ()
+        {
+            return mSamples.isEmpty();
+        }
+
+        long getBytesPerSecond ()
+        {
+            return mBusyMs < MIN_ELAPSED_MS ? NO_ESTIMATE : mBytes * 1000 / mBusyMs;
+        }
+    }
+
+    private static class Sample
+    {
+        final long mTimeMs;
+        final int mBytes;
+        final long mBusyMs;
+
+        Sample (long timeMs, int bytes, long busyMs)
+        {
+            mTimeMs = timeMs;
+            mBytes = bytes;
+            mBusyMs = busyMs;
+        }
+    }
+}
@@ -8,6 +8,8 @@
  */
 package com.facebook.imagepipeline.producers;
 
+import android.os.SystemClock;
+
 import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.request.ImageRequest;
 
@@ -38,6 +40,8 @@ public class BaseProducerContext implements ProducerContext
     private boolean mIsIntermediateResultExpected;
     @GuardedBy("this")
     private boolean mIsCancelled;
+    @GuardedBy("this")
+    private long mDeadlineMs;
 
     public BaseProducerContext (ImageRequest imageRequest, String id, ProducerListener producerListener, Object callerContext, ImageRequest.RequestLevel lowestPermittedRequestLevel, boolean isPrefetch, boolean isIntermediateResultExpected, Priority priority)
     {
@@ -53,6 +57,9 @@ public class BaseProducerContext implements ProducerContext
 
         mIsCancelled = false;
         mCallbacks = new ArrayList<>();
+
+        final long latencyBudgetMs = imageRequest.getLatencyBudgetMs();
+        mDeadlineMs = latencyBudgetMs >= 0 ? SystemClock.uptimeMillis() + latencyBudgetMs : Long.MAX_VALUE;
     }
 
     /**
@@ -164,6 +171,27 @@ public class BaseProducerContext implements ProducerContext
         return mIsIntermediateResultExpected;
     }
 
+    @Override
+    public synchronized long getDeadlineMs ()
+    {
+        return mDeadlineMs;
+    }
+
+    @Override
+    public boolean isDeadlineExceeded ()
+    {
+        return SystemClock.uptimeMillis() > getDeadlineMs();
+    }
+
+    /**
+     * Changes the deadline. No callbacks are called, producers check the deadline when they are
+     * about to start more work.
+     */
+    public synchronized void setDeadlineMs (long deadlineMs)
+    {
+        mDeadlineMs = deadlineMs;
+    }
+
     @Override
     public void addCallbacks (ProducerContextCallbacks callbacks)
     {
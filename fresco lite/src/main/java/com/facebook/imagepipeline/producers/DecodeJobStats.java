@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Counts the decodes {@link DecodeProducer} ran and the ones it dropped because their request
+ * was cancelled while they were queued.
+ * <p>
+ * <p> A high share of dropped decodes is expected on screens that are flung a lot, it is CPU that
+ * is no longer spent on images nobody sees.
+ */
+@ThreadSafe
+public class DecodeJobStats
+{
+
+    private final AtomicLong mRunCount = new AtomicLong();
+    private final AtomicLong mDroppedCount = new AtomicLong();
+
+    public void onJobRun ()
+    {
+        mRunCount.incrementAndGet();
+    }
+
+    public void onJobDropped ()
+    {
+        mDroppedCount.incrementAndGet();
+    }
+
+    /**
+     * @return the number of decodes that ran
+     */
+    public long getRunCount ()
+    {
+        return mRunCount.get();
+    }
+
+    /**
+     * @return the number of decodes cancelled before they ran
+     */
+    public long getDroppedCount ()
+    {
+        return mDroppedCount.get();
+    }
+}
@@ -10,11 +10,13 @@
 package com.facebook.imagepipeline.producers;
 
 import android.graphics.Bitmap;
+import android.os.SystemClock;
 
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.UriUtil;
+import com.facebook.imagepipeline.common.DeadlineExceededException;
 import com.facebook.imagepipeline.common.ImageDecodeOptions;
 import com.facebook.imagepipeline.decoder.ImageDecoder;
 import com.facebook.imagepipeline.decoder.ProgressiveJpegConfig;
@@ -58,8 +60,17 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
     private final Producer<EncodedImage> mInputProducer;
     private final boolean mDownsampleEnabled;
     private final boolean mDownsampleEnabledForNetwork;
+    @Nullable
+    private final DecodeJobStats mDecodeJobStats;
+    @Nullable
+    private final AdaptiveDecodeInterval mAdaptiveDecodeInterval;
 
     public DecodeProducer (final ByteArrayPool byteArrayPool, final Executor executor, final ImageDecoder imageDecoder, final ProgressiveJpegConfig progressiveJpegConfig, final boolean downsampleEnabled, final boolean downsampleEnabledForNetwork, final Producer<EncodedImage> inputProducer)
+    {
+        this(byteArrayPool, executor, imageDecoder, progressiveJpegConfig, downsampleEnabled, downsampleEnabledForNetwork, inputProducer, null, null);
+    }
+
+    public DecodeProducer (final ByteArrayPool byteArrayPool, final Executor executor, final ImageDecoder imageDecoder, final ProgressiveJpegConfig progressiveJpegConfig, final boolean downsampleEnabled, final boolean downsampleEnabledForNetwork, final Producer<EncodedImage> inputProducer, @Nullable final DecodeJobStats decodeJobStats, @Nullable final AdaptiveDecodeInterval adaptiveDecodeInterval)
     {
         mByteArrayPool = Preconditions.checkNotNull(byteArrayPool);
         mExecutor = Preconditions.checkNotNull(executor);
@@ -68,6 +79,8 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         mDownsampleEnabled = downsampleEnabled;
         mDownsampleEnabledForNetwork = downsampleEnabledForNetwork;
         mInputProducer = Preconditions.checkNotNull(inputProducer);
+        mDecodeJobStats = decodeJobStats;
+        mAdaptiveDecodeInterval = adaptiveDecodeInterval;
     }
 
     @Override
@@ -119,13 +132,25 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
                                 encodedImage.setSampleSize(DownsampleUtil.determineSampleSize(request, encodedImage));
                             }
                         }
+                        if (mDecodeJobStats != null)
+                        {
+                            mDecodeJobStats.onJobRun();
+                        }
                         doDecode(encodedImage, isLast);
                     }
                 }
             };
-            mJobScheduler = new JobScheduler(mExecutor, job, mImageDecodeOptions.minDecodeIntervalMs);
+            mJobScheduler = new JobScheduler(mExecutor, job, mImageDecodeOptions.minDecodeIntervalMs, producerContext, mAdaptiveDecodeInterval);
             mProducerContext.addCallbacks(new BaseProducerContextCallbacks()
             {
+                @Override
+                public void onCancellationRequested ()
+                {
+                    // don't decode what is queued, nor wait for the input to be cancelled.
+                    // It is safe to discard the output of the previous producer.
+                    handleCancellation();
+                }
+
                 @Override
                 public void onIsIntermediateResultExpectedChanged ()
                 {
@@ -140,6 +165,10 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         @Override
         public void onNewResultImpl (EncodedImage newResult, boolean isLast)
         {
+            if (isFinished())
+            {
+                return;
+            }
             if (isLast && !EncodedImage.isValid(newResult))
             {
                 handleError(new NullPointerException("Encoded image is not valid."));
@@ -186,6 +215,11 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
             {
                 return;
             }
+            if (mProducerContext.isDeadlineExceeded())
+            {
+                handleError(new DeadlineExceededException(mProducerContext.getId()));
+                return;
+            }
 
             try
             {
@@ -195,9 +229,15 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
 
                 mProducerListener.onProducerStart(mProducerContext.getId(), PRODUCER_NAME);
                 CloseableImage image = null;
+                final long decodeStartMs = SystemClock.uptimeMillis();
                 try
                 {
                     image = mImageDecoder.decodeImage(encodedImage, length, quality, mImageDecodeOptions);
+                    if (mAdaptiveDecodeInterval != null && !isLast)
+                    {
+                        // widens or tightens the interval before the next scan is scheduled
+                        mJobScheduler.setMinimumJobIntervalMs(mAdaptiveDecodeInterval.getMinDecodeIntervalMs(mImageDecodeOptions.minDecodeIntervalMs, SystemClock.uptimeMillis() - decodeStartMs));
+                    }
                 }
                 catch (Exception e)
                 {
@@ -251,19 +291,25 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         /**
          * Finishes if not already finished and <code>shouldFinish</code> is specified.
          * <p> If just finished, the intermediate image gets released.
+         *
+         * @return true if this call finished the decoder
          */
-        private void maybeFinish (boolean shouldFinish)
+        private boolean maybeFinish (boolean shouldFinish)
         {
             synchronized (ProgressiveDecoder.this)
             {
                 if (!shouldFinish || mIsFinished)
                 {
-                    return;
+                    return false;
                 }
                 getConsumer().onProgressUpdate(1.0f);
                 mIsFinished = true;
             }
-            mJobScheduler.clearJob();
+            if (mJobScheduler.clearJob() && mDecodeJobStats != null)
+            {
+                mDecodeJobStats.onJobDropped();
+            }
+            return true;
         }
 
         /**
@@ -297,8 +343,11 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
          */
         private void handleCancellation ()
         {
-            maybeFinish(true);
-            getConsumer().onCancellation();
+            // the decoder may have finished with a result or a failure in the meantime
+            if (maybeFinish(true))
+            {
+                getConsumer().onCancellation();
+            }
         }
 
         protected abstract int getIntermediateImageEndOffset (EncodedImage encodedImage);
@@ -355,6 +404,12 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         @Override
         protected synchronized boolean updateDecodeJob (EncodedImage encodedImage, boolean isLast)
         {
+            if (!isLast && EncodedImage.isValid(encodedImage) && encodedImage.isEmbeddedThumbnail())
+            {
+                // the thumbnail is not part of the image, the jpeg parser must not see it. It is
+                // only worth decoding if no scan of the image was.
+                return mLastScheduledScanNumber == 0 && super.updateDecodeJob(encodedImage, isLast);
+            }
             boolean ret = super.updateDecodeJob(encodedImage, isLast);
             if (!isLast && EncodedImage.isValid(encodedImage))
             {
@@ -375,6 +430,10 @@ public class DecodeProducer implements Producer<CloseableReference<CloseableImag
         @Override
         protected int getIntermediateImageEndOffset (EncodedImage encodedImage)
         {
+            if (encodedImage.isEmbeddedThumbnail())
+            {
+                return encodedImage.getSize();
+            }
             return mProgressiveJpegParser.getBestScanEndOffset();
         }
 
@@ -9,18 +9,27 @@
 
 package com.facebook.imagepipeline.producers;
 
+import android.net.Uri;
+
 import com.facebook.cache.common.CacheKey;
 import com.facebook.common.internal.ImmutableMap;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.cache.BufferedDiskCache;
 import com.facebook.imagepipeline.cache.CacheKeyFactory;
+import com.facebook.imagepipeline.cache.CacheValidatorStore;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.request.ImageRequest;
 
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 import bolts.Continuation;
 import bolts.Task;
 
@@ -33,6 +42,16 @@ import bolts.Task;
  * the last result is also put into the disk cache.
  * <p>
  * <p>This implementation delegates disk cache requests to BufferedDiskCache.
+ * <p>
+ * <p>When a {@link CacheValidatorStore} is provided, an image found in the disk cache that is older
+ * than the max age of its request is still passed to the consumer, and a conditional request to
+ * the next producer checks in the background whether it changed. A changed image replaces the
+ * cached one, an unchanged one is only touched.
+ * <p>
+ * <p>When the disk cache is shared by several processes, a miss is only fetched once the cache gave
+ * this process the claim on it. While a peer process fetches the same image, the cache is looked
+ * up again periodically, without holding a thread, and the image is fetched anyway if the peer
+ * takes too long.
  */
 public class DiskCacheProducer implements Producer<EncodedImage>
 {
@@ -40,6 +59,10 @@ public class DiskCacheProducer implements Producer<EncodedImage>
     static final String PRODUCER_NAME = "DiskCacheProducer";
     @VisibleForTesting
     static final String VALUE_FOUND = "cached_value_found";
+    @VisibleForTesting
+    static final long PEER_FETCH_POLL_INTERVAL_MS = 100;
+    @VisibleForTesting
+    static final int PEER_FETCH_MAX_POLLS = 50;
 
     private final BufferedDiskCache mDefaultBufferedDiskCache;
     private final BufferedDiskCache mSmallImageBufferedDiskCache;
@@ -47,8 +70,17 @@ public class DiskCacheProducer implements Producer<EncodedImage>
     private final Producer<EncodedImage> mInputProducer;
     private final boolean mChooseCacheByImageSize;
     private final int mForceSmallCacheThresholdBytes;
+    @Nullable
+    private final CacheValidatorStore mCacheValidatorStore;
+    @GuardedBy("mUrisBeingRevalidated")
+    private final Set<Uri> mUrisBeingRevalidated = new HashSet<>();
 
     public DiskCacheProducer (BufferedDiskCache defaultBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory cacheKeyFactory, Producer<EncodedImage> inputProducer, int forceSmallCacheThresholdBytes)
+    {
+        this(defaultBufferedDiskCache, smallImageBufferedDiskCache, cacheKeyFactory, inputProducer, forceSmallCacheThresholdBytes, null);
+    }
+
+    public DiskCacheProducer (BufferedDiskCache defaultBufferedDiskCache, BufferedDiskCache smallImageBufferedDiskCache, CacheKeyFactory cacheKeyFactory, Producer<EncodedImage> inputProducer, int forceSmallCacheThresholdBytes, @Nullable CacheValidatorStore cacheValidatorStore)
     {
         mDefaultBufferedDiskCache = defaultBufferedDiskCache;
         mSmallImageBufferedDiskCache = smallImageBufferedDiskCache;
@@ -56,6 +88,7 @@ public class DiskCacheProducer implements Producer<EncodedImage>
         mInputProducer = inputProducer;
         mForceSmallCacheThresholdBytes = forceSmallCacheThresholdBytes;
         mChooseCacheByImageSize = (forceSmallCacheThresholdBytes > 0);
+        mCacheValidatorStore = cacheValidatorStore;
     }
 
     private static boolean isTaskCancelled (Task<?> task)
@@ -123,12 +156,12 @@ public class DiskCacheProducer implements Producer<EncodedImage>
         {
             diskLookupTask = preferredCache.get(cacheKey, isCancelled);
         }
-        Continuation<EncodedImage, Void> continuation = onFinishDiskReads(consumer, preferredCache, cacheKey, producerContext);
+        Continuation<EncodedImage, Void> continuation = onFinishDiskReads(consumer, preferredCache, cacheKey, producerContext, isCancelled);
         diskLookupTask.continueWith(continuation);
         subscribeTaskForRequestCancellation(isCancelled, producerContext);
     }
 
-    private Continuation<EncodedImage, Void> onFinishDiskReads (final Consumer<EncodedImage> consumer, final BufferedDiskCache preferredCache, final CacheKey preferredCacheKey, final ProducerContext producerContext)
+    private Continuation<EncodedImage, Void> onFinishDiskReads (final Consumer<EncodedImage> consumer, final BufferedDiskCache preferredCache, final CacheKey preferredCacheKey, final ProducerContext producerContext, final AtomicBoolean isCancelled)
     {
         final String requestId = producerContext.getId();
         final ProducerListener listener = producerContext.getListener();
@@ -145,7 +178,7 @@ public class DiskCacheProducer implements Producer<EncodedImage>
                 else if (task.isFaulted())
                 {
                     listener.onProducerFinishWithFailure(requestId, PRODUCER_NAME, task.getError(), null);
-                    maybeStartInputProducer(consumer, new DiskCacheConsumer(consumer, preferredCache, preferredCacheKey), producerContext);
+                    maybeFetchOnceClaimed(consumer, preferredCache, preferredCacheKey, producerContext, isCancelled, PEER_FETCH_MAX_POLLS);
                 }
                 else
                 {
@@ -156,11 +189,12 @@ public class DiskCacheProducer implements Producer<EncodedImage>
                         consumer.onProgressUpdate(1);
                         consumer.onNewResult(cachedReference, true);
                         cachedReference.close();
+                        maybeRevalidate(preferredCache, preferredCacheKey, producerContext);
                     }
                     else
                     {
                         listener.onProducerFinishWithSuccess(requestId, PRODUCER_NAME, getExtraMap(listener, requestId, false));
-                        maybeStartInputProducer(consumer, new DiskCacheConsumer(consumer, preferredCache, preferredCacheKey), producerContext);
+                        maybeFetchOnceClaimed(consumer, preferredCache, preferredCacheKey, producerContext, isCancelled, PEER_FETCH_MAX_POLLS);
                     }
                 }
                 return null;
@@ -168,6 +202,82 @@ public class DiskCacheProducer implements Producer<EncodedImage>
         };
     }
 
+    private void maybeRevalidate (BufferedDiskCache preferredCache, CacheKey preferredCacheKey, ProducerContext producerContext)
+    {
+        ImageRequest imageRequest = producerContext.getImageRequest();
+        long maxAgeMs = imageRequest.getDiskCacheMaxAgeMs();
+        if (mCacheValidatorStore == null || maxAgeMs == ImageRequest.DISK_CACHE_MAX_AGE_UNLIMITED || producerContext.getLowestPermittedRequestLevel().getValue() >= ImageRequest.RequestLevel.DISK_CACHE.getValue())
+        {
+            return;
+        }
+        Uri uri = imageRequest.getSourceUri();
+        CacheValidatorStore.Validators validators = mCacheValidatorStore.get(uri);
+        if (validators == null || !mCacheValidatorStore.isStale(validators, maxAgeMs))
+        {
+            return;
+        }
+        synchronized (mUrisBeingRevalidated)
+        {
+            if (!mUrisBeingRevalidated.add(uri))
+            {
+                return;
+            }
+        }
+        RevalidationConsumer revalidationConsumer = new RevalidationConsumer(preferredCache, preferredCacheKey, uri);
+        mInputProducer.produceResults(new DiskCacheConsumer(revalidationConsumer, preferredCache, preferredCacheKey, false), new RevalidationProducerContext(producerContext, validators));
+    }
+
+    /**
+     * Fetches a miss once the cache gave the claim on it, or looks it up again later while a peer
+     * process holds the claim.
+     *
+     * @param remainingPolls how many more times the cache is looked up before fetching anyway
+     */
+    private void maybeFetchOnceClaimed (final Consumer<EncodedImage> consumer, final BufferedDiskCache preferredCache, final CacheKey preferredCacheKey, final ProducerContext producerContext, final AtomicBoolean isCancelled, final int remainingPolls)
+    {
+        if (producerContext.getLowestPermittedRequestLevel().getValue() >= ImageRequest.RequestLevel.DISK_CACHE.getValue())
+        {
+            consumer.onNewResult(null, true);
+            return;
+        }
+        boolean claimed = preferredCache.claimFetch(preferredCacheKey);
+        if (claimed || remainingPolls <= 0)
+        {
+            mInputProducer.produceResults(new DiskCacheConsumer(consumer, preferredCache, preferredCacheKey, claimed), producerContext);
+            return;
+        }
+        JobScheduler.JobStartExecutorSupplier.get().schedule(new Runnable()
+        {
+            @Override
+            public void run ()
+            {
+                preferredCache.get(preferredCacheKey, isCancelled).continueWith(new Continuation<EncodedImage, Void>()
+                {
+                    @Override
+                    public Void then (Task<EncodedImage> task) throws Exception
+                    {
+                        if (isTaskCancelled(task))
+                        {
+                            consumer.onCancellation();
+                        }
+                        else if (!task.isFaulted() && task.getResult() != null)
+                        {
+                            EncodedImage cachedReference = task.getResult();
+                            consumer.onProgressUpdate(1);
+                            consumer.onNewResult(cachedReference, true);
+                            cachedReference.close();
+                        }
+                        else
+                        {
+                            maybeFetchOnceClaimed(consumer, preferredCache, preferredCacheKey, producerContext, isCancelled, remainingPolls - 1);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }, PEER_FETCH_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
     private void maybeStartInputProducer (Consumer<EncodedImage> consumerOfDiskCacheProducer, Consumer<EncodedImage> consumerOfInputProducer, ProducerContext producerContext)
     {
         if (producerContext.getLowestPermittedRequestLevel().getValue() >= ImageRequest.RequestLevel.DISK_CACHE.getValue())
@@ -195,19 +305,22 @@ public class DiskCacheProducer implements Producer<EncodedImage>
      * Consumer that consumes results from next producer in the sequence.
      * <p>
      * <p>The consumer puts the last result received into disk cache, and passes all results (success
-     * or failure) down to the next consumer.
+     * or failure) down to the next consumer. A claim on the fetch that does not end up in the cache
+     * it was taken on is released.
      */
     private class DiskCacheConsumer extends DelegatingConsumer<EncodedImage, EncodedImage>
     {
 
         private final BufferedDiskCache mCache;
         private final CacheKey mCacheKey;
+        private final boolean mHoldsClaim;
 
-        private DiskCacheConsumer (final Consumer<EncodedImage> consumer, final BufferedDiskCache cache, final CacheKey cacheKey)
+        private DiskCacheConsumer (final Consumer<EncodedImage> consumer, final BufferedDiskCache cache, final CacheKey cacheKey, final boolean holdsClaim)
         {
             super(consumer);
             mCache = cache;
             mCacheKey = cacheKey;
+            mHoldsClaim = holdsClaim;
         }
 
         @Override
@@ -215,24 +328,103 @@ public class DiskCacheProducer implements Producer<EncodedImage>
         {
             if (newResult != null && isLast)
             {
+                BufferedDiskCache cache = mCache;
                 if (mChooseCacheByImageSize)
                 {
                     int size = newResult.getSize();
-                    if (size > 0 && size < mForceSmallCacheThresholdBytes)
-                    {
-                        mSmallImageBufferedDiskCache.put(mCacheKey, newResult);
-                    }
-                    else
-                    {
-                        mDefaultBufferedDiskCache.put(mCacheKey, newResult);
-                    }
+                    cache = (size > 0 && size < mForceSmallCacheThresholdBytes) ? mSmallImageBufferedDiskCache : mDefaultBufferedDiskCache;
+                }
+                if (cache == mCache)
+                {
+                    // the claim is released once written, so that peers waiting on it find it
+                    cache.put(mCacheKey, newResult, mHoldsClaim);
                 }
                 else
                 {
-                    mCache.put(mCacheKey, newResult);
+                    cache.put(mCacheKey, newResult);
+                    maybeReleaseClaim();
                 }
             }
+            else if (isLast)
+            {
+                maybeReleaseClaim();
+            }
             getConsumer().onNewResult(newResult, isLast);
         }
+
+        @Override
+        protected void onFailureImpl (Throwable t)
+        {
+            maybeReleaseClaim();
+            super.onFailureImpl(t);
+        }
+
+        @Override
+        protected void onCancellationImpl ()
+        {
+            maybeReleaseClaim();
+            super.onCancellationImpl();
+        }
+
+        private void maybeReleaseClaim ()
+        {
+            if (mHoldsClaim)
+            {
+                mCache.releaseFetch(mCacheKey);
+            }
+        }
+    }
+
+    /**
+     * Consumer of the revalidation of a stale image. A changed image was already written by the
+     * {@link DiskCacheConsumer} in front of it; a null result means the cached image is current.
+     */
+    private class RevalidationConsumer extends BaseConsumer<EncodedImage>
+    {
+
+        private final BufferedDiskCache mCache;
+        private final CacheKey mCacheKey;
+        private final Uri mUri;
+
+        private RevalidationConsumer (BufferedDiskCache cache, CacheKey cacheKey, Uri uri)
+        {
+            mCache = cache;
+            mCacheKey = cacheKey;
+            mUri = uri;
+        }
+
+        @Override
+        protected void onNewResultImpl (EncodedImage newResult, boolean isLast)
+        {
+            if (!isLast)
+            {
+                return;
+            }
+            if (newResult == null)
+            {
+                mCache.touch(mCacheKey);
+            }
+            onFinish();
+        }
+
+        @Override
+        protected void onFailureImpl (Throwable t)
+        {
+            onFinish();
+        }
+
+        @Override
+        protected void onCancellationImpl ()
+        {
+            onFinish();
+        }
+
+        private void onFinish ()
+        {
+            synchronized (mUrisBeingRevalidated)
+            {
+                mUrisBeingRevalidated.remove(mUri);
+            }
+        }
     }
 }
@@ -12,6 +12,9 @@ package com.facebook.imagepipeline.producers;
 import android.net.Uri;
 
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ProgressiveMetaDataParser;
+
+import javax.annotation.Nullable;
 
 /**
  * Used by {@link NetworkFetcher} to encapsulate the state of one network fetch.
@@ -24,12 +27,31 @@ public class FetchState
     private final Consumer<EncodedImage> mConsumer;
     private final ProducerContext mContext;
     private long mLastIntermediateResultTimeMs;
+    private int mResumeOffset;
+    @Nullable
+    private String mResumeETag;
+    @Nullable
+    private String mResumeLastModified;
+    private int mResponseOffset;
+    @Nullable
+    private String mResponseETag;
+    @Nullable
+    private String mResponseLastModified;
+    @Nullable
+    private String mRevalidateETag;
+    @Nullable
+    private String mRevalidateLastModified;
+    private boolean mResponseNotModified;
+    private final ProgressiveMetaDataParser mMetaDataParser;
+    private boolean mExifThumbnailChecked;
 
     public FetchState (Consumer<EncodedImage> consumer, ProducerContext context)
     {
         mConsumer = consumer;
         mContext = context;
         mLastIntermediateResultTimeMs = 0;
+        mMetaDataParser = new ProgressiveMetaDataParser();
+        mExifThumbnailChecked = false;
     }
 
     public Consumer<EncodedImage> getConsumer ()
@@ -66,4 +88,131 @@ public class FetchState
     {
         mLastIntermediateResultTimeMs = lastIntermediateResultTimeMs;
     }
+
+    /**
+     * Gets the number of bytes of a previous download of this uri that are already available.
+     * Fetchers that support it may request the rest of the body only, when the response still
+     * matches the validators returned by {@link #getResumeETag()} and
+     * {@link #getResumeLastModified()}.
+     */
+    public int getResumeOffset ()
+    {
+        return mResumeOffset;
+    }
+
+    @Nullable
+    public String getResumeETag ()
+    {
+        return mResumeETag;
+    }
+
+    @Nullable
+    public String getResumeLastModified ()
+    {
+        return mResumeLastModified;
+    }
+
+    public void setResumeFrom (int resumeOffset, @Nullable String eTag, @Nullable String lastModified)
+    {
+        mResumeOffset = resumeOffset;
+        mResumeETag = eTag;
+        mResumeLastModified = lastModified;
+    }
+
+    /**
+     * Gets the offset in the body of the first byte of the response. Only non-zero when the
+     * fetcher resumed the download from {@link #getResumeOffset()}.
+     */
+    public int getResponseOffset ()
+    {
+        return mResponseOffset;
+    }
+
+    public void setResponseOffset (int responseOffset)
+    {
+        mResponseOffset = responseOffset;
+    }
+
+    @Nullable
+    public String getResponseETag ()
+    {
+        return mResponseETag;
+    }
+
+    @Nullable
+    public String getResponseLastModified ()
+    {
+        return mResponseLastModified;
+    }
+
+    /**
+     * Records the validators of the response, so that an interrupted download can be resumed
+     * later.
+     */
+    public void setResponseValidators (@Nullable String eTag, @Nullable String lastModified)
+    {
+        mResponseETag = eTag;
+        mResponseLastModified = lastModified;
+    }
+
+    /**
+     * Gets the ETag of the cached image, if the fetch is a revalidation. Fetchers that support it
+     * send a conditional request, and report with {@link #setResponseNotModified} that the cached
+     * image is still current.
+     */
+    @Nullable
+    public String getRevalidateETag ()
+    {
+        return mRevalidateETag;
+    }
+
+    @Nullable
+    public String getRevalidateLastModified ()
+    {
+        return mRevalidateLastModified;
+    }
+
+    public boolean isRevalidation ()
+    {
+        return mRevalidateETag != null || mRevalidateLastModified != null;
+    }
+
+    public void setRevalidateWith (@Nullable String eTag, @Nullable String lastModified)
+    {
+        mRevalidateETag = eTag;
+        mRevalidateLastModified = lastModified;
+    }
+
+    public boolean isResponseNotModified ()
+    {
+        return mResponseNotModified;
+    }
+
+    public void setResponseNotModified (boolean responseNotModified)
+    {
+        mResponseNotModified = responseNotModified;
+    }
+
+    /**
+     * Gets the parser of the meta data of the bytes received so far. It is shared by all the
+     * results of the fetch, so that each of them only parses the bytes that are new.
+     */
+    public ProgressiveMetaDataParser getMetaDataParser ()
+    {
+        return mMetaDataParser;
+    }
+
+    /**
+     * Whether the bytes received so far were already looked at for an EXIF thumbnail, which is
+     * only done once per fetch.
+     */
+    public boolean isExifThumbnailChecked ()
+    {
+        return mExifThumbnailChecked;
+    }
+
+    public void setExifThumbnailChecked (boolean exifThumbnailChecked)
+    {
+        mExifThumbnailChecked = exifThumbnailChecked;
+    }
 }
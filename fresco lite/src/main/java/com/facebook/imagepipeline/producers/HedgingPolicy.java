@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+
+import java.util.Arrays;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Decides when a network request that is slow to respond is duplicated.
+ * <p>
+ * <p> A duplicate request is sent when no response arrived after the given percentile of the
+ * recent times to first byte, so that about (100 - percentile)% of the requests are duplicated.
+ * <p>
+ * <p> Duplicates are also limited by a budget: each request adds budgetRatio to it, each
+ * duplicate takes one from it. The additional load on the servers therefore stays below
+ * budgetRatio even when all requests are slow, for example on a bad network.
+ */
+@ThreadSafe
+public class HedgingPolicy
+{
+
+    public static final int DEFAULT_PERCENTILE = 95;
+    public static final float DEFAULT_BUDGET_RATIO = 0.05f;
+    public static final long DEFAULT_MIN_DELAY_MS = 50;
+    public static final long DEFAULT_INITIAL_DELAY_MS = 1000;
+
+    /**
+     * Number of times to first byte the percentile is computed from.
+     */
+    @VisibleForTesting
+    static final int MAX_SAMPLES = 100;
+
+    /**
+     * The initial delay is used until this many times to first byte are known.
+     */
+    @VisibleForTesting
+    static final int MIN_SAMPLES = 20;
+
+    /**
+     * Maximum number of duplicates that can be sent in a row.
+     */
+    @VisibleForTesting
+    static final float MAX_BUDGET = 10;
+
+    private final int mPercentile;
+    private final float mBudgetRatio;
+    private final long mMinDelayMs;
+    private final long mInitialDelayMs;
+
+    @GuardedBy("this")
+    private final long[] mSamples = new long[MAX_SAMPLES];
+    @GuardedBy("this")
+    private int mSampleCount;
+    @GuardedBy("this")
+    private int mNextSample;
+    @GuardedBy("this")
+    private float mBudget;
+
+    public HedgingPolicy ()
+    {
+        this(DEFAULT_PERCENTILE, DEFAULT_BUDGET_RATIO, DEFAULT_MIN_DELAY_MS, DEFAULT_INITIAL_DELAY_MS);
+    }
+
+    /**
+     * @param percentile     percentile of the times to first byte after which a request is
+     *                       duplicated
+     * @param budgetRatio    maximum number of duplicates per request
+     * @param minDelayMs     minimum time to wait before duplicating a request
+     * @param initialDelayMs time to wait before duplicating a request while too few times to
+     *                       first byte are known
+     */
+    public HedgingPolicy (int percentile, float budgetRatio, long minDelayMs, long initialDelayMs)
+    {
+        Preconditions.checkArgument(percentile > 0 && percentile < 100);
+        Preconditions.checkArgument(budgetRatio > 0);
+        Preconditions.checkArgument(minDelayMs >= 0);
+        mPercentile = percentile;
+        mBudgetRatio = budgetRatio;
+        mMinDelayMs = minDelayMs;
+        mInitialDelayMs = Math.max(minDelayMs, initialDelayMs);
+        mSampleCount = 0;
+        mNextSample = 0;
+        mBudget = 0;
+    }
+
+    /**
+     * Called for every request, adds to the budget.
+     */
+    public synchronized void onRequest ()
+    {
+        mBudget = Math.min(MAX_BUDGET, mBudget + mBudgetRatio);
+    }
+
+    /**
+     * Records the time between the start of a request and the arrival of its response.
+     */
+    public synchronized void onFirstByte (long elapsedMs)
+    {
+        mSamples[mNextSample] = elapsedMs;
+        mNextSample = (mNextSample + 1) % MAX_SAMPLES;
+        mSampleCount = Math.min(MAX_SAMPLES, mSampleCount + 1);
+    }
+
+    /**
+     * @return the time after which a request without response is duplicated
+     */
+    public synchronized long getDelayMs ()
+    {
+        if (mSampleCount < MIN_SAMPLES)
+        {
+            return mInitialDelayMs;
+        }
+        long[] samples = Arrays.copyOf(mSamples, mSampleCount);
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(mPercentile / 100.0 * mSampleCount) - 1;
+        return Math.max(mMinDelayMs, samples[index]);
+    }
+
+    /**
+     * Takes a duplicate from the budget.
+     *
+     * @return false if the budget is exhausted, the request is not duplicated then
+     */
+    public synchronized boolean tryAcquire ()
+    {
+        if (mBudget < 1)
+        {
+            return false;
+        }
+        mBudget -= 1;
+        return true;
+    }
+}
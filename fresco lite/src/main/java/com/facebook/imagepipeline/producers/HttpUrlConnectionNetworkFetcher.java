@@ -14,6 +14,7 @@ import android.net.Uri;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.image.EncodedImage;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -21,6 +22,10 @@ import java.util.Locale;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nullable;
 
 /**
  * Network fetcher that uses the simplest Android stack.
@@ -35,6 +40,7 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
     public static final int HTTP_PERMANENT_REDIRECT = 308;
     private static final int NUM_NETWORK_THREADS = 3;
     private static final int MAX_REDIRECTS = 5;
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("bytes (\\d+)-\\d+/(\\d+|\\*)");
     private final ExecutorService mExecutorService;
 
     public HttpUrlConnectionNetworkFetcher ()
@@ -76,6 +82,46 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
         }
     }
 
+    /**
+     * Returns the validator to send in If-Range, null if the download cannot be resumed safely.
+     * Weak ETags may match different bodies, so they are not used.
+     */
+    @Nullable
+    private static String getIfRangeValidator (FetchState fetchState)
+    {
+        String eTag = fetchState.getResumeETag();
+        if (eTag != null && !eTag.startsWith("W/"))
+        {
+            return eTag;
+        }
+        return fetchState.getResumeLastModified();
+    }
+
+    /**
+     * Returns the offset of the first byte of a 206 response, -1 if it cannot be parsed.
+     */
+    private static long getContentRangeStart (HttpURLConnection connection)
+    {
+        String contentRange = connection.getHeaderField("Content-Range");
+        if (contentRange == null)
+        {
+            return -1;
+        }
+        Matcher matcher = CONTENT_RANGE_PATTERN.matcher(contentRange.trim());
+        if (!matcher.matches())
+        {
+            return -1;
+        }
+        try
+        {
+            return Long.parseLong(matcher.group(1));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
     private static String error (String format, Object... args)
     {
         return String.format(Locale.getDefault(), format, args);
@@ -113,15 +159,42 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
 
     @VisibleForTesting
     void fetchSync (FetchState fetchState, Callback callback)
+    {
+        fetchSync(fetchState, callback, null);
+    }
+
+    /**
+     * @param attempt if not null, told about the connections of the fetch, which is abandoned
+     *                without calling the callback if the attempt says so
+     */
+    void fetchSync (FetchState fetchState, Callback callback, @Nullable Attempt attempt)
     {
         HttpURLConnection connection = null;
 
         try
         {
-            connection = downloadFrom(fetchState.getUri(), MAX_REDIRECTS);
+            connection = downloadFrom(fetchState, fetchState.getUri(), MAX_REDIRECTS, attempt);
 
-            if (connection != null)
+            if (attempt != null && !attempt.onResponseStarted())
+            {
+                return;
+            }
+            if (connection != null && connection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED)
+            {
+                fetchState.setResponseNotModified(true);
+                callback.onResponse(new ByteArrayInputStream(new byte[0]), 0);
+            }
+            else if (connection != null)
             {
+                fetchState.setResponseValidators(connection.getHeaderField("ETag"), connection.getHeaderField("Last-Modified"));
+                if (connection.getResponseCode() == HttpURLConnection.HTTP_PARTIAL)
+                {
+                    if (getContentRangeStart(connection) != fetchState.getResumeOffset())
+                    {
+                        throw new IOException(error("URL %s returned an unexpected range %s", fetchState.getUri().toString(), connection.getHeaderField("Content-Range")));
+                    }
+                    fetchState.setResponseOffset(fetchState.getResumeOffset());
+                }
                 callback.onResponse(connection.getInputStream(), -1);
             }
         }
@@ -139,12 +212,31 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
 
     }
 
-    private HttpURLConnection downloadFrom (Uri uri, int maxRedirects) throws IOException
+    private HttpURLConnection downloadFrom (FetchState fetchState, Uri uri, int maxRedirects, @Nullable Attempt attempt) throws IOException
     {
         HttpURLConnection connection = openConnectionTo(uri);
+        if (attempt != null && !attempt.onConnectionOpened(connection))
+        {
+            throw new IOException(error("Fetch of URL %s was abandoned", uri.toString()));
+        }
+        if (fetchState.getRevalidateETag() != null)
+        {
+            connection.setRequestProperty("If-None-Match", fetchState.getRevalidateETag());
+        }
+        if (fetchState.getRevalidateLastModified() != null)
+        {
+            connection.setRequestProperty("If-Modified-Since", fetchState.getRevalidateLastModified());
+        }
+        String ifRangeValidator = getIfRangeValidator(fetchState);
+        if (fetchState.getResumeOffset() > 0 && ifRangeValidator != null)
+        {
+            // If the image changed since, the server ignores the range and sends all of it
+            connection.setRequestProperty("Range", "bytes=" + fetchState.getResumeOffset() + "-");
+            connection.setRequestProperty("If-Range", ifRangeValidator);
+        }
         int responseCode = connection.getResponseCode();
 
-        if (isHttpSuccess(responseCode))
+        if (isHttpSuccess(responseCode) || (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && fetchState.isRevalidation()))
         {
             return connection;
 
@@ -159,7 +251,7 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
 
             if (maxRedirects > 0 && nextUri != null && !nextUri.getScheme().equals(originalScheme))
             {
-                return downloadFrom(nextUri, maxRedirects - 1);
+                return downloadFrom(fetchState, nextUri, maxRedirects - 1, attempt);
             }
             else
             {
@@ -175,4 +267,25 @@ public class HttpUrlConnectionNetworkFetcher extends BaseNetworkFetcher<FetchSta
         }
     }
 
+    /**
+     * One of possibly several fetches of the same image, only one of which is used.
+     */
+    interface Attempt
+    {
+
+        /**
+         * Called when a connection is opened, before the request is sent. The attempt may
+         * disconnect it from another thread to abandon the fetch.
+         *
+         * @return false if the attempt was abandoned, the connection is not used then
+         */
+        boolean onConnectionOpened (HttpURLConnection connection);
+
+        /**
+         * Called when the response headers were received, before the fetch state is updated.
+         *
+         * @return false if the response must not be used
+         */
+        boolean onResponseStarted ();
+    }
 }
@@ -11,6 +11,7 @@ package com.facebook.imagepipeline.producers;
 import android.os.SystemClock;
 
 import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.common.Priority;
 import com.facebook.imagepipeline.image.EncodedImage;
 
 import java.util.concurrent.Executor;
@@ -18,11 +19,15 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Manages jobs so that only one can be executed at a time and no more often than once in
  * <code>mMinimumJobIntervalMs</code> milliseconds.
+ * <p>
+ * <p> When a producer context is given, jobs are executed with its priority, and a queued job is
+ * re-sorted when the priority changes. See {@link PriorityRunnable}.
  */
 public class JobScheduler
 {
@@ -30,9 +35,14 @@ public class JobScheduler
     static final String QUEUE_TIME_KEY = "queueTime";
     private final Executor mExecutor;
     private final JobRunnable mJobRunnable;
-    private final Runnable mDoJobRunnable;
+    private final PriorityRunnable mDoJobRunnable;
     private final Runnable mSubmitJobRunnable;
-    private final int mMinimumJobIntervalMs;
+    @GuardedBy("this")
+    private int mMinimumJobIntervalMs;
+    @Nullable
+    private final ProducerContext mProducerContext;
+    @Nullable
+    private final ExecutorQueueListener mExecutorQueueListener;
     // job data
     @GuardedBy("this")
     @VisibleForTesting
@@ -50,13 +60,32 @@ public class JobScheduler
     @GuardedBy("this")
     @VisibleForTesting
     long mJobStartTime;
+    // when the job was handed to the executor, after the minimum interval
+    @GuardedBy("this")
+    @VisibleForTesting
+    long mJobExecuteTime;
 
     public JobScheduler (Executor executor, JobRunnable jobRunnable, int minimumJobIntervalMs)
+    {
+        this(executor, jobRunnable, minimumJobIntervalMs, null);
+    }
+
+    public JobScheduler (Executor executor, JobRunnable jobRunnable, int minimumJobIntervalMs, @Nullable ProducerContext producerContext)
+    {
+        this(executor, jobRunnable, minimumJobIntervalMs, producerContext, null);
+    }
+
+    /**
+     * @param executorQueueListener notified when jobs enter and leave the queue of the executor
+     */
+    public JobScheduler (Executor executor, JobRunnable jobRunnable, int minimumJobIntervalMs, @Nullable ProducerContext producerContext, @Nullable ExecutorQueueListener executorQueueListener)
     {
         mExecutor = executor;
         mJobRunnable = jobRunnable;
         mMinimumJobIntervalMs = minimumJobIntervalMs;
-        mDoJobRunnable = new Runnable()
+        mProducerContext = producerContext;
+        mExecutorQueueListener = executorQueueListener;
+        mDoJobRunnable = new PriorityRunnable()
         {
             @Override
             public void run ()
@@ -77,6 +106,18 @@ public class JobScheduler
         mJobState = JobState.IDLE;
         mJobSubmitTime = 0;
         mJobStartTime = 0;
+        mJobExecuteTime = 0;
+        if (producerContext != null)
+        {
+            producerContext.addCallbacks(new BaseProducerContextCallbacks()
+            {
+                @Override
+                public void onPriorityChanged ()
+                {
+                    mDoJobRunnable.updatePriority(mExecutor, mProducerContext.getPriority());
+                }
+            });
+        }
     }
 
     private static boolean shouldProcess (EncodedImage encodedImage, boolean isLast)
@@ -90,18 +131,46 @@ public class JobScheduler
      * Clears the currently set job.
      * <p>
      * <p> In case the currently set job has been scheduled but not started yet, the job won't be
-     * executed.
+     * executed. It is removed from the queue of the executor if possible.
+     *
+     * @return true if a scheduled job was dropped before it started
      */
-    public void clearJob ()
+    public boolean clearJob ()
     {
         EncodedImage oldEncodedImage;
+        boolean dropped = false;
         synchronized (this)
         {
             oldEncodedImage = mEncodedImage;
             mEncodedImage = null;
             mIsLast = false;
+            if (oldEncodedImage != null)
+            {
+                switch (mJobState)
+                {
+                    case QUEUED:
+                        dropped = true;
+                        // if it is not in the executor yet, it will do nothing once submitted
+                        if (PriorityRunnable.remove(mExecutor, mDoJobRunnable))
+                        {
+                            mJobState = JobState.IDLE;
+                            if (mExecutorQueueListener != null)
+                            {
+                                mExecutorQueueListener.onJobDequeued(ExecutorQueueListener.REMOVED);
+                            }
+                        }
+                        break;
+                    case RUNNING_AND_PENDING:
+                        dropped = true;
+                        mJobState = JobState.RUNNING;
+                        break;
+                    default:
+                        break;
+                }
+            }
         }
         EncodedImage.closeSafely(oldEncodedImage);
+        return dropped;
     }
 
     /**
@@ -195,7 +264,15 @@ public class JobScheduler
 
     private void submitJob ()
     {
-        mExecutor.execute(mDoJobRunnable);
+        synchronized (this)
+        {
+            mJobExecuteTime = SystemClock.uptimeMillis();
+        }
+        if (mExecutorQueueListener != null)
+        {
+            mExecutorQueueListener.onJobQueued();
+        }
+        mDoJobRunnable.execute(mExecutor, mProducerContext == null ? Priority.HIGH : mProducerContext.getPriority());
     }
 
     private void doJob ()
@@ -203,6 +280,7 @@ public class JobScheduler
         long now = SystemClock.uptimeMillis();
         EncodedImage input;
         boolean isLast;
+        long executorWaitTime;
         synchronized (this)
         {
             input = mEncodedImage;
@@ -211,6 +289,11 @@ public class JobScheduler
             mIsLast = false;
             mJobState = JobState.RUNNING;
             mJobStartTime = now;
+            executorWaitTime = now - mJobExecuteTime;
+        }
+        if (mExecutorQueueListener != null)
+        {
+            mExecutorQueueListener.onJobDequeued(executorWaitTime);
         }
 
         try
@@ -253,6 +336,14 @@ public class JobScheduler
         }
     }
 
+    /**
+     * Changes the minimum interval between two jobs, starting with the next job scheduled.
+     */
+    public synchronized void setMinimumJobIntervalMs (int minimumJobIntervalMs)
+    {
+        mMinimumJobIntervalMs = minimumJobIntervalMs;
+    }
+
     /**
      * Gets the queued time in milliseconds for the currently running job.
      * <p>
@@ -263,6 +354,33 @@ public class JobScheduler
         return mJobStartTime - mJobSubmitTime;
     }
 
+    /**
+     * Gets how long the currently running job waited for a thread of the executor, unlike
+     * {@link #getQueuedTime} it does not include the minimum interval between jobs.
+     * <p>
+     * <p> The result is only valid if called from {@link JobRunnable#run}.
+     */
+    public synchronized long getExecutorWaitTime ()
+    {
+        return mJobStartTime - mJobExecuteTime;
+    }
+
+    /**
+     * Notified when jobs enter and leave the queue of the executor, from any thread.
+     */
+    public interface ExecutorQueueListener
+    {
+        long REMOVED = -1;
+
+        void onJobQueued ();
+
+        /**
+         * @param waitTimeMs how long the job waited for a thread, {@link #REMOVED} if it was removed
+         *                   from the queue instead
+         */
+        void onJobDequeued (long waitTimeMs);
+    }
+
     @VisibleForTesting
     enum JobState
     {
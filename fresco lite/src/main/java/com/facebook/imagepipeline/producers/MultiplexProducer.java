@@ -12,17 +12,16 @@ package com.facebook.imagepipeline.producers;
 import android.util.Pair;
 
 import com.facebook.common.internal.Preconditions;
-import com.facebook.common.internal.Sets;
 import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.imagepipeline.common.Priority;
 
 import java.io.Closeable;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -44,23 +43,21 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
 {
 
     /**
-     * Map of multiplexers guarded by "this" lock. The lock should be used only to synchronize
-     * accesses to this map. In particular, no callbacks or third party code should be run under
-     * "this" lock.
+     * Concurrent map of multiplexers, so that requests for different keys don't contend on a
+     * lock. Entries are only added with putIfAbsent and removed with remove(key, value).
      * <p>
      * <p> The map might contain entries in progress, entries in progress for which cancellation
      * has been requested and ignored, or cancelled entries for which onCancellation has not been
      * called yet.
      */
-    @GuardedBy("this")
     @VisibleForTesting
-    final Map<K, Multiplexer> mMultiplexers;
+    final ConcurrentMap<K, Multiplexer> mMultiplexers;
     private final Producer<T> mInputProducer;
 
     protected MultiplexProducer (Producer<T> inputProducer)
     {
         mInputProducer = inputProducer;
-        mMultiplexers = new HashMap<>();
+        mMultiplexers = new ConcurrentHashMap<>();
     }
 
     @Override
@@ -69,25 +66,26 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
         K key = getKey(context);
         Multiplexer multiplexer;
         boolean createdNewMultiplexer;
-        // We do want to limit scope of this lock to guard only accesses to mMultiplexers map.
-        // However what we would like to do here is to atomically lookup mMultiplexers, add new
-        // consumer to consumers set associated with the map's entry and call consumer's callback with
-        // last intermediate result. We should not do all of those things under this lock.
+        // What we would like to do here is to atomically lookup mMultiplexers, add new consumer to
+        // consumers list associated with the map's entry and call consumer's callback with last
+        // intermediate result. We should not do all of those things atomically.
         do
         {
             createdNewMultiplexer = false;
-            synchronized (this)
+            multiplexer = getExistingMultiplexer(key);
+            if (multiplexer == null)
             {
-                multiplexer = getExistingMultiplexer(key);
+                Multiplexer newMultiplexer = new Multiplexer(key);
+                multiplexer = mMultiplexers.putIfAbsent(key, newMultiplexer);
                 if (multiplexer == null)
                 {
-                    multiplexer = createAndPutNewMultiplexer(key);
+                    multiplexer = newMultiplexer;
                     createdNewMultiplexer = true;
                 }
             }
-            // addNewConsumer may call consumer's onNewResult method immediately. For this reason
-            // we release "this" lock. If multiplexer is removed from mMultiplexers in the meantime,
-            // which is not very probable, then addNewConsumer will fail and we will be able to retry.
+            // addNewConsumer may call consumer's onNewResult method immediately. If multiplexer is
+            // removed from mMultiplexers in the meantime, which is not very probable, then
+            // addNewConsumer will fail and we will be able to retry.
         }
         while (!multiplexer.addNewConsumer(consumer, context));
 
@@ -97,24 +95,14 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
         }
     }
 
-    private synchronized Multiplexer getExistingMultiplexer (K key)
+    private Multiplexer getExistingMultiplexer (K key)
     {
         return mMultiplexers.get(key);
     }
 
-    private synchronized Multiplexer createAndPutNewMultiplexer (K key)
+    private void removeMultiplexer (K key, Multiplexer multiplexer)
     {
-        Multiplexer multiplexer = new Multiplexer(key);
-        mMultiplexers.put(key, multiplexer);
-        return multiplexer;
-    }
-
-    private synchronized void removeMultiplexer (K key, Multiplexer multiplexer)
-    {
-        if (mMultiplexers.get(key) == multiplexer)
-        {
-            mMultiplexers.remove(key);
-        }
+        mMultiplexers.remove(key, multiplexer);
     }
 
     protected abstract K getKey (ProducerContext producerContext);
@@ -141,8 +129,11 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
         private final K mKey;
 
         /**
-         * Set of consumer-context pairs participating in multiplexing. Cancelled pairs
-         * are removed from the set.
+         * List of consumer-context pairs participating in multiplexing. Cancelled pairs
+         * are removed from the list.
+         * <p>
+         * <p> The list is modified in place, callbacks iterate over a copy taken under the lock, or
+         * over the list itself once it was replaced by an empty one.
          * <p>
          * <p> Following invariant is maintained: if mConsumerContextPairs is not empty, then this
          * instance of Multiplexer is present in mMultiplexers map. This way all ongoing multiplexed
@@ -155,7 +146,17 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
          * <li> cancellation notification is received and mConsumerContextPairs is empty </li>
          * </ul>
          */
-        private final CopyOnWriteArraySet<Pair<Consumer<T>, ProducerContext>> mConsumerContextPairs;
+        @GuardedBy("Multiplexer.this")
+        private ArrayList<Pair<Consumer<T>, ProducerContext>> mConsumerContextPairs;
+
+        /**
+         * Copy of mConsumerContextPairs that results and progress are forwarded to outside of the
+         * lock. It is never modified, only dropped when the pairs change and built again on the next
+         * event, so that events do not allocate while the consumers stay the same.
+         */
+        @GuardedBy("Multiplexer.this")
+        @Nullable
+        private Pair<Consumer<T>, ProducerContext>[] mConsumerContextPairsSnapshot;
 
         @GuardedBy("Multiplexer.this")
         @Nullable
@@ -189,7 +190,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
 
         public Multiplexer (K key)
         {
-            mConsumerContextPairs = Sets.newCopyOnWriteArraySet();
+            mConsumerContextPairs = new ArrayList<>(1);
             mKey = key;
         }
 
@@ -221,6 +222,8 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                     return false;
                 }
                 mConsumerContextPairs.add(consumerContextPair);
+                mConsumerContextPairsSnapshot = null;
+                updateDeadline();
                 prefetchCallbacks = updateIsPrefetch();
                 priorityCallbacks = updatePriority();
                 intermediateResultsCallbacks = updateIsIntermediateResultExpected();
@@ -281,7 +284,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
 
                     synchronized (Multiplexer.this)
                     {
-                        pairWasRemoved = mConsumerContextPairs.remove(consumerContextPair);
+                        pairWasRemoved = removeConsumerContextPair(consumerContextPair);
                         if (pairWasRemoved)
                         {
                             if (mConsumerContextPairs.isEmpty())
@@ -290,6 +293,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                             }
                             else
                             {
+                                updateDeadline();
                                 isPrefetchCallbacks = updateIsPrefetch();
                                 priorityCallbacks = updatePriority();
                                 isIntermediateResultExpectedCallbacks = updateIsIntermediateResultExpected();
@@ -352,8 +356,9 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                     return;
                 }
 
-                ProducerContext producerContext = mConsumerContextPairs.iterator().next().second;
+                ProducerContext producerContext = mConsumerContextPairs.get(0).second;
                 mMultiplexProducerContext = new BaseProducerContext(producerContext.getImageRequest(), producerContext.getId(), producerContext.getListener(), producerContext.getCallerContext(), producerContext.getLowestPermittedRequestLevel(), computeIsPrefetch(), computeIsIntermediateResultExpected(), computePriority());
+                mMultiplexProducerContext.setDeadlineMs(computeDeadlineMs());
 
                 mForwardingConsumer = new ForwardingConsumer();
                 multiplexProducerContext = mMultiplexProducerContext;
@@ -362,6 +367,49 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
             mInputProducer.produceResults(forwardingConsumer, multiplexProducerContext);
         }
 
+        /**
+         * Removes the pair, compared by identity.
+         *
+         * @return true if the pair was in the list
+         */
+        @GuardedBy("Multiplexer.this")
+        private boolean removeConsumerContextPair (Pair<Consumer<T>, ProducerContext> consumerContextPair)
+        {
+            for (int i = 0; i < mConsumerContextPairs.size(); i++)
+            {
+                if (mConsumerContextPairs.get(i) == consumerContextPair)
+                {
+                    mConsumerContextPairs.remove(i);
+                    mConsumerContextPairsSnapshot = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Takes all the pairs, leaving the list empty.
+         */
+        @GuardedBy("Multiplexer.this")
+        private List<Pair<Consumer<T>, ProducerContext>> takeConsumerContextPairs ()
+        {
+            List<Pair<Consumer<T>, ProducerContext>> pairs = mConsumerContextPairs;
+            mConsumerContextPairs = new ArrayList<>(1);
+            mConsumerContextPairsSnapshot = null;
+            return pairs;
+        }
+
+        @GuardedBy("Multiplexer.this")
+        @SuppressWarnings("unchecked")
+        private Pair<Consumer<T>, ProducerContext>[] getConsumerContextPairsSnapshot ()
+        {
+            if (mConsumerContextPairsSnapshot == null)
+            {
+                mConsumerContextPairsSnapshot = mConsumerContextPairs.toArray(new Pair[mConsumerContextPairs.size()]);
+            }
+            return mConsumerContextPairsSnapshot;
+        }
+
         @Nullable
         private synchronized List<ProducerContextCallbacks> updateIsPrefetch ()
         {
@@ -416,6 +464,27 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
             return mMultiplexProducerContext.setPriorityNoCallbacks(computePriority());
         }
 
+        private synchronized void updateDeadline ()
+        {
+            if (mMultiplexProducerContext != null)
+            {
+                mMultiplexProducerContext.setDeadlineMs(computeDeadlineMs());
+            }
+        }
+
+        /**
+         * The shared request is only given up once all the consumers would give it up
+         */
+        private synchronized long computeDeadlineMs ()
+        {
+            long deadlineMs = Long.MIN_VALUE;
+            for (Pair<Consumer<T>, ProducerContext> pair : mConsumerContextPairs)
+            {
+                deadlineMs = Math.max(deadlineMs, pair.second.getDeadlineMs());
+            }
+            return deadlineMs;
+        }
+
         private synchronized Priority computePriority ()
         {
             Priority priority = Priority.LOW;
@@ -437,9 +506,8 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                     return;
                 }
 
-                iterator = mConsumerContextPairs.iterator();
+                iterator = takeConsumerContextPairs().iterator();
 
-                mConsumerContextPairs.clear();
                 removeMultiplexer(mKey, this);
                 closeSafely(mLastIntermediateResult);
                 mLastIntermediateResult = null;
@@ -457,7 +525,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
 
         public void onNextResult (final ForwardingConsumer consumer, final T closeableObject, final boolean isFinal)
         {
-            Iterator<Pair<Consumer<T>, ProducerContext>> iterator;
+            final Pair<Consumer<T>, ProducerContext>[] pairs;
             synchronized (Multiplexer.this)
             {
                 // check for late callbacks
@@ -469,21 +537,20 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                 closeSafely(mLastIntermediateResult);
                 mLastIntermediateResult = null;
 
-                iterator = mConsumerContextPairs.iterator();
+                pairs = getConsumerContextPairsSnapshot();
                 if (!isFinal)
                 {
                     mLastIntermediateResult = cloneOrNull(closeableObject);
                 }
                 else
                 {
-                    mConsumerContextPairs.clear();
+                    takeConsumerContextPairs();
                     removeMultiplexer(mKey, this);
                 }
             }
 
-            while (iterator.hasNext())
+            for (Pair<Consumer<T>, ProducerContext> pair : pairs)
             {
-                Pair<Consumer<T>, ProducerContext> pair = iterator.next();
                 synchronized (pair)
                 {
                     pair.first.onNewResult(closeableObject, isFinal);
@@ -512,7 +579,7 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
 
         public void onProgressUpdate (ForwardingConsumer forwardingConsumer, float progress)
         {
-            Iterator<Pair<Consumer<T>, ProducerContext>> iterator;
+            final Pair<Consumer<T>, ProducerContext>[] pairs;
             synchronized (Multiplexer.this)
             {
                 // check for late callbacks
@@ -522,12 +589,11 @@ public abstract class MultiplexProducer<K, T extends Closeable> implements Produ
                 }
 
                 mLastProgress = progress;
-                iterator = mConsumerContextPairs.iterator();
+                pairs = getConsumerContextPairsSnapshot();
             }
 
-            while (iterator.hasNext())
+            for (Pair<Consumer<T>, ProducerContext> pair : pairs)
             {
-                Pair<Consumer<T>, ProducerContext> pair = iterator.next();
                 synchronized (pair)
                 {
                     pair.first.onProgressUpdate(progress);
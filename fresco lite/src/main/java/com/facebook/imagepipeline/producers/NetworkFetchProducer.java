@@ -10,18 +10,30 @@
 package com.facebook.imagepipeline.producers;
 
 import android.os.SystemClock;
+import android.util.Pair;
 
+import com.facebook.common.internal.Closeables;
 import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
 import com.facebook.common.references.CloseableReference;
+import com.facebook.common.streams.LimitedInputStream;
+import com.facebook.common.util.StreamUtil;
+import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.common.DeadlineExceededException;
+import com.facebook.imagepipeline.cache.CacheValidatorStore;
+import com.facebook.imagepipeline.cache.PartialDownloadStore;
 import com.facebook.imagepipeline.image.EncodedImage;
+import com.facebook.imagepipeline.image.ProgressiveMetaDataParser;
 import com.facebook.imagepipeline.memory.ByteArrayPool;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
 import com.facebook.imagepipeline.memory.PooledByteBufferFactory;
 import com.facebook.imagepipeline.memory.PooledByteBufferOutputStream;
+import com.facebook.imageutils.JfifUtil;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
@@ -33,11 +45,25 @@ import javax.annotation.Nullable;
  * <p>
  * <p>Clients should provide an instance of {@link NetworkFetcher} to make use of their networking
  * stack. Use {@link HttpUrlConnectionNetworkFetcher} as a model.
+ * <p>
+ * <p>When a {@link PartialDownloadStore} is provided, the bytes of downloads that fail or are
+ * cancelled are kept, and the next fetch of the same uri asks the fetcher to resume from there.
+ * <p>
+ * <p>When a {@link CacheValidatorStore} is provided, the validators of the responses are kept, and
+ * the fetches of a {@link RevalidationProducerContext} are conditional. If the image did not
+ * change, the final result is null.
+ * <p>
+ * <p>When a {@link BandwidthMeter} is provided, it is told how fast each response is read.
+ * <p>
+ * <p>When EXIF thumbnails are enabled, the thumbnail embedded in a JPEG is passed to the consumer
+ * as an intermediate result as soon as the EXIF data is received, before any scan of the image.
+ * It is marked with {@link EncodedImage#isEmbeddedThumbnail()}.
  */
 public class NetworkFetchProducer implements Producer<EncodedImage>
 {
 
     public static final String INTERMEDIATE_RESULT_PRODUCER_EVENT = "intermediate_result";
+    public static final String EXIF_THUMBNAIL_PRODUCER_EVENT = "exif_thumbnail";
     @VisibleForTesting
     static final String PRODUCER_NAME = "NetworkFetchProducer";
     /**
@@ -47,16 +73,38 @@ public class NetworkFetchProducer implements Producer<EncodedImage>
      */
     @VisibleForTesting
     static final long TIME_BETWEEN_PARTIAL_RESULTS_MS = 100;
+    private static final Class<?> TAG = NetworkFetchProducer.class;
     private static final int READ_SIZE = 16 * 1024;
+    /**
+     * The EXIF thumbnail is given up on if no EXIF segment was found in the first bytes
+     */
+    @VisibleForTesting
+    static final int EXIF_THUMBNAIL_MAX_SCAN_BYTES = 64 * 1024;
     private final PooledByteBufferFactory mPooledByteBufferFactory;
     private final ByteArrayPool mByteArrayPool;
     private final NetworkFetcher mNetworkFetcher;
+    @Nullable
+    private final PartialDownloadStore mPartialDownloadStore;
+    @Nullable
+    private final CacheValidatorStore mCacheValidatorStore;
+    @Nullable
+    private final BandwidthMeter mBandwidthMeter;
+    private final boolean mExifThumbnailsEnabled;
 
     public NetworkFetchProducer (PooledByteBufferFactory pooledByteBufferFactory, ByteArrayPool byteArrayPool, NetworkFetcher networkFetcher)
+    {
+        this(pooledByteBufferFactory, byteArrayPool, networkFetcher, null, null, null, false);
+    }
+
+    public NetworkFetchProducer (PooledByteBufferFactory pooledByteBufferFactory, ByteArrayPool byteArrayPool, NetworkFetcher networkFetcher, @Nullable PartialDownloadStore partialDownloadStore, @Nullable CacheValidatorStore cacheValidatorStore, @Nullable BandwidthMeter bandwidthMeter, boolean exifThumbnailsEnabled)
     {
         mPooledByteBufferFactory = pooledByteBufferFactory;
         mByteArrayPool = byteArrayPool;
         mNetworkFetcher = networkFetcher;
+        mPartialDownloadStore = partialDownloadStore;
+        mCacheValidatorStore = cacheValidatorStore;
+        mBandwidthMeter = bandwidthMeter;
+        mExifThumbnailsEnabled = exifThumbnailsEnabled;
     }
 
     private static float calculateProgress (int downloaded, int total)
@@ -87,12 +135,40 @@ public class NetworkFetchProducer implements Producer<EncodedImage>
     {
         context.getListener().onProducerStart(context.getId(), PRODUCER_NAME);
         final FetchState fetchState = mNetworkFetcher.createFetchState(consumer, context);
+        if (context.isDeadlineExceeded())
+        {
+            onFailure(fetchState, new DeadlineExceededException(context.getId()));
+            return;
+        }
+        final boolean isRevalidation = mCacheValidatorStore != null && context instanceof RevalidationProducerContext;
+        if (isRevalidation)
+        {
+            CacheValidatorStore.Validators validators = ((RevalidationProducerContext) context).getValidators();
+            fetchState.setRevalidateWith(validators.getETag(), validators.getLastModified());
+        }
+        final PartialDownloadStore.PartialDownload partialDownload = mPartialDownloadStore == null || isRevalidation ? null : mPartialDownloadStore.get(fetchState.getUri());
+        if (partialDownload != null)
+        {
+            fetchState.setResumeFrom(partialDownload.getSize(), partialDownload.getETag(), partialDownload.getLastModified());
+        }
+        final AtomicBoolean isCancelled = new AtomicBoolean(false);
+        if (mPartialDownloadStore != null)
+        {
+            context.addCallbacks(new BaseProducerContextCallbacks()
+            {
+                @Override
+                public void onCancellationRequested ()
+                {
+                    isCancelled.set(true);
+                }
+            });
+        }
         mNetworkFetcher.fetch(fetchState, new NetworkFetcher.Callback()
         {
             @Override
             public void onResponse (InputStream response, int responseLength) throws IOException
             {
-                NetworkFetchProducer.this.onResponse(fetchState, response, responseLength);
+                NetworkFetchProducer.this.onResponse(fetchState, response, responseLength, partialDownload, isCancelled);
             }
 
             @Override
@@ -109,12 +185,19 @@ public class NetworkFetchProducer implements Producer<EncodedImage>
         });
     }
 
-    private void onResponse (FetchState fetchState, InputStream responseData, int responseContentLength) throws IOException
+    private void onResponse (FetchState fetchState, InputStream responseData, int responseContentLength, @Nullable PartialDownloadStore.PartialDownload partialDownload, AtomicBoolean isCancelled) throws IOException
     {
+        if (fetchState.isResponseNotModified() && fetchState.getContext() instanceof RevalidationProducerContext)
+        {
+            handleNotModified(fetchState, ((RevalidationProducerContext) fetchState.getContext()).getValidators());
+            return;
+        }
+        final boolean isResumed = partialDownload != null && fetchState.getResponseOffset() == partialDownload.getSize();
+        final int contentLength = responseContentLength > 0 && isResumed ? responseContentLength + partialDownload.getSize() : responseContentLength;
         final PooledByteBufferOutputStream pooledOutputStream;
-        if (responseContentLength > 0)
+        if (contentLength > 0)
         {
-            pooledOutputStream = mPooledByteBufferFactory.newOutputStream(responseContentLength);
+            pooledOutputStream = mPooledByteBufferFactory.newOutputStream(contentLength);
         }
         else
         {
@@ -123,18 +206,44 @@ public class NetworkFetchProducer implements Producer<EncodedImage>
         final byte[] ioArray = mByteArrayPool.get(READ_SIZE);
         try
         {
+            if (isResumed)
+            {
+                mPartialDownloadStore.copyTo(fetchState.getUri(), partialDownload, pooledOutputStream);
+            }
             int length;
-            while ((length = responseData.read(ioArray)) >= 0)
+            while ((length = readResponse(fetchState, responseData, ioArray, pooledOutputStream)) >= 0)
             {
                 if (length > 0)
                 {
                     pooledOutputStream.write(ioArray, 0, length);
+                    maybeHandleExifThumbnail(pooledOutputStream, fetchState);
                     maybeHandleIntermediateResult(pooledOutputStream, fetchState);
-                    float progress = calculateProgress(pooledOutputStream.size(), responseContentLength);
+                    float progress = calculateProgress(pooledOutputStream.size(), contentLength);
                     fetchState.getConsumer().onProgressUpdate(progress);
                 }
+                if (isCancelled.get())
+                {
+                    // the bytes are kept, no need to download the rest for nobody
+                    keepPartialDownload(fetchState, pooledOutputStream);
+                    onCancellation(fetchState);
+                    return;
+                }
+                if (fetchState.getContext().isDeadlineExceeded())
+                {
+                    keepPartialDownload(fetchState, pooledOutputStream);
+                    onFailure(fetchState, new DeadlineExceededException(fetchState.getId()));
+                    return;
+                }
             }
             mNetworkFetcher.onFetchCompletion(fetchState, pooledOutputStream.size());
+            if (partialDownload != null)
+            {
+                mPartialDownloadStore.remove(fetchState.getUri());
+            }
+            if (mCacheValidatorStore != null)
+            {
+                mCacheValidatorStore.put(fetchState.getUri(), fetchState.getResponseETag(), fetchState.getResponseLastModified());
+            }
             handleFinalResult(pooledOutputStream, fetchState);
         }
         finally
@@ -144,6 +253,50 @@ public class NetworkFetchProducer implements Producer<EncodedImage>
         }
     }
 
+    /**
+     * Reads the next bytes of the response, keeping the bytes already read if it fails.
+     */
+    private int readResponse (FetchState fetchState, InputStream responseData, byte[] ioArray, PooledByteBufferOutputStream pooledOutputStream) throws IOException
+    {
+        try
+        {
+            if (mBandwidthMeter == null)
+            {
+                return responseData.read(ioArray);
+            }
+            final long startMs = SystemClock.uptimeMillis();
+            final int length = responseData.read(ioArray);
+            if (length > 0)
+            {
+                mBandwidthMeter.onBytesRead(fetchState.getUri(), length, SystemClock.uptimeMillis() - startMs);
+            }
+            return length;
+        }
+        catch (IOException ioe)
+        {
+            keepPartialDownload(fetchState, pooledOutputStream);
+            throw ioe;
+        }
+    }
+
+    private void keepPartialDownload (FetchState fetchState, PooledByteBufferOutputStream pooledOutputStream)
+    {
+        if (mPartialDownloadStore == null || pooledOutputStream.size() == 0)
+        {
+            return;
+        }
+        FLog.v(TAG, "Download of %s interrupted after %d bytes", fetchState.getUri(), pooledOutputStream.size());
+        PooledByteBuffer body = pooledOutputStream.toByteBuffer();
+        try
+        {
+            mPartialDownloadStore.put(fetchState.getUri(), fetchState.getResponseETag(), fetchState.getResponseLastModified(), body);
+        }
+        finally
+        {
+            body.close();
+        }
+    }
+
     private void maybeHandleIntermediateResult (PooledByteBufferOutputStream pooledOutputStream, FetchState fetchState)
     {
         final long nowMs = SystemClock.uptimeMillis();
@@ -151,7 +304,106 @@ public class NetworkFetchProducer implements Producer<EncodedImage>
         {
             fetchState.setLastIntermediateResultTimeMs(nowMs);
             fetchState.getListener().onProducerEvent(fetchState.getId(), PRODUCER_NAME, INTERMEDIATE_RESULT_PRODUCER_EVENT);
-            notifyConsumer(pooledOutputStream, false, fetchState.getConsumer());
+            notifyConsumer(pooledOutputStream, false, fetchState);
+        }
+    }
+
+    /**
+     * Passes the EXIF thumbnail to the consumer once the EXIF data of a JPEG was received.
+     */
+    private void maybeHandleExifThumbnail (PooledByteBufferOutputStream pooledOutputStream, FetchState fetchState) throws IOException
+    {
+        if (!mExifThumbnailsEnabled || fetchState.isExifThumbnailChecked())
+        {
+            return;
+        }
+        if (!shouldPropagateIntermediateResults(fetchState) || pooledOutputStream.size() > EXIF_THUMBNAIL_MAX_SCAN_BYTES)
+        {
+            fetchState.setExifThumbnailChecked(true);
+            return;
+        }
+        final ProgressiveMetaDataParser metaDataParser = fetchState.getMetaDataParser();
+        CloseableReference<PooledByteBuffer> result = CloseableReference.of(pooledOutputStream.toByteBuffer());
+        EncodedImage encodedImage = null;
+        EncodedImage thumbnail = null;
+        try
+        {
+            encodedImage = new EncodedImage(result);
+            metaDataParser.parseMoreData(encodedImage);
+            ImageFormat imageFormat = encodedImage.getImageFormat();
+            if (metaDataParser.hasFailed() || (imageFormat != ImageFormat.UNKNOWN && imageFormat != ImageFormat.JPEG))
+            {
+                fetchState.setExifThumbnailChecked(true);
+                return;
+            }
+            if (!metaDataParser.hasParsedExif())
+            {
+                return;
+            }
+            fetchState.setExifThumbnailChecked(true);
+            if (encodedImage.getImageFormat() != ImageFormat.JPEG || metaDataParser.getExifOffset() < 0)
+            {
+                return;
+            }
+            thumbnail = readExifThumbnail(encodedImage, metaDataParser.getExifOffset(), metaDataParser.getExifLength());
+            if (thumbnail == null)
+            {
+                return;
+            }
+            thumbnail.setRotationAngle(JfifUtil.getAutoRotateAngleFromOrientation(metaDataParser.getExifOrientation()));
+            thumbnail.setIsEmbeddedThumbnail(true);
+            fetchState.getListener().onProducerEvent(fetchState.getId(), PRODUCER_NAME, EXIF_THUMBNAIL_PRODUCER_EVENT);
+            fetchState.getConsumer().onNewResult(thumbnail, false);
+        }
+        finally
+        {
+            EncodedImage.closeSafely(thumbnail);
+            EncodedImage.closeSafely(encodedImage);
+            CloseableReference.closeSafely(result);
+        }
+    }
+
+    /**
+     * Copies the JPEG thumbnail of the EXIF data at the given offset, null if there is none.
+     */
+    @Nullable
+    private EncodedImage readExifThumbnail (EncodedImage encodedImage, int exifOffset, int exifLength) throws IOException
+    {
+        Pair<Integer, Integer> location;
+        InputStream is = encodedImage.getInputStream();
+        try
+        {
+            StreamUtil.skip(is, exifOffset);
+            location = JfifUtil.getExifThumbnail(new LimitedInputStream(is, exifLength), exifLength);
+        }
+        finally
+        {
+            Closeables.closeQuietly(is);
+        }
+        if (location == null)
+        {
+            return null;
+        }
+
+        CloseableReference<PooledByteBuffer> thumbnailRef = null;
+        is = encodedImage.getInputStream();
+        try
+        {
+            StreamUtil.skip(is, exifOffset + location.first);
+            thumbnailRef = CloseableReference.of(mPooledByteBufferFactory.newByteBuffer(new LimitedInputStream(is, location.second), location.second));
+            EncodedImage thumbnail = new EncodedImage(thumbnailRef);
+            thumbnail.parseMetaData();
+            if (thumbnail.getImageFormat() != ImageFormat.JPEG || thumbnail.getWidth() <= 0 || thumbnail.getHeight() <= 0)
+            {
+                thumbnail.close();
+                return null;
+            }
+            return thumbnail;
+        }
+        finally
+        {
+            Closeables.closeQuietly(is);
+            CloseableReference.closeSafely(thumbnailRef);
         }
     }
 
@@ -159,18 +411,30 @@ public class NetworkFetchProducer implements Producer<EncodedImage>
     {
         Map<String, String> extraMap = getExtraMap(fetchState, pooledOutputStream.size());
         fetchState.getListener().onProducerFinishWithSuccess(fetchState.getId(), PRODUCER_NAME, extraMap);
-        notifyConsumer(pooledOutputStream, true, fetchState.getConsumer());
+        notifyConsumer(pooledOutputStream, true, fetchState);
     }
 
-    private void notifyConsumer (PooledByteBufferOutputStream pooledOutputStream, boolean isFinal, Consumer<EncodedImage> consumer)
+    private void handleNotModified (FetchState fetchState, CacheValidatorStore.Validators validators)
+    {
+        mCacheValidatorStore.markValidated(fetchState.getUri(), validators);
+        mNetworkFetcher.onFetchCompletion(fetchState, 0);
+        fetchState.getListener().onProducerFinishWithSuccess(fetchState.getId(), PRODUCER_NAME, getExtraMap(fetchState, 0));
+        fetchState.getConsumer().onNewResult(null, true);
+    }
+
+    private void notifyConsumer (PooledByteBufferOutputStream pooledOutputStream, boolean isFinal, FetchState fetchState)
     {
         CloseableReference<PooledByteBuffer> result = CloseableReference.of(pooledOutputStream.toByteBuffer());
         EncodedImage encodedImage = null;
         try
         {
             encodedImage = new EncodedImage(result);
-            encodedImage.parseMetaData();
-            consumer.onNewResult(encodedImage, isFinal);
+            ProgressiveMetaDataParser metaDataParser = fetchState.getMetaDataParser();
+            if (!metaDataParser.parseMoreData(encodedImage) && (isFinal || metaDataParser.hasFailed()))
+            {
+                encodedImage.parseMetaData();
+            }
+            fetchState.getConsumer().onNewResult(encodedImage, isFinal);
         }
         finally
         {
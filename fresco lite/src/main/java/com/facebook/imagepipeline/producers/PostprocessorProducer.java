@@ -80,6 +80,7 @@ public class PostprocessorProducer implements Producer<CloseableReference<Closea
         private final ProducerListener mListener;
         private final String mRequestId;
         private final Postprocessor mPostprocessor;
+        private final ProducerContext mProducerContext;
 
         @GuardedBy("PostprocessorConsumer.this")
         private boolean mIsClosed;
@@ -99,6 +100,7 @@ public class PostprocessorProducer implements Producer<CloseableReference<Closea
             mListener = listener;
             mRequestId = requestId;
             mPostprocessor = postprocessor;
+            mProducerContext = producerContext;
             producerContext.addCallbacks(new BaseProducerContextCallbacks()
             {
                 @Override
@@ -156,7 +158,7 @@ public class PostprocessorProducer implements Producer<CloseableReference<Closea
 
         private void submitPostprocessing ()
         {
-            mExecutor.execute(new Runnable()
+            new PriorityRunnable()
             {
                 @Override
                 public void run ()
@@ -185,7 +187,7 @@ public class PostprocessorProducer implements Producer<CloseableReference<Closea
                     }
                     clearRunningAndStartIfDirty();
                 }
-            });
+            }.execute(mExecutor, mProducerContext.getPriority());
         }
 
         private void clearRunningAndStartIfDirty ()
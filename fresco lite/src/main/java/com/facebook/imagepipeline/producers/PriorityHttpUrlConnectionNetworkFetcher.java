@@ -0,0 +1,588 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import android.os.SystemClock;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.logging.FLog;
+import com.facebook.imagepipeline.common.Priority;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * {@link HttpUrlConnectionNetworkFetcher} that runs the requests by priority instead of in
+ * submission order.
+ * <p>
+ * <p> Queued requests are ordered by the {@link Priority} of their {@link ProducerContext} and
+ * then by submission time. A request is moved in the queue when its priority changes and is
+ * dropped from the queue as soon as it is cancelled, so that a backlog of prefetches does not
+ * delay the images that are visible on screen.
+ * <p>
+ * <p> The number of requests running at the same time for one host can be limited, so that a
+ * slow host cannot hold all the network threads while requests to other hosts wait. A request to
+ * a host at its limit waits for one of them to finish, without holding a thread. There is no limit
+ * by default, since apps loading all their images from one host would be slowed down.
+ * <p>
+ * <p> When a {@link HedgingPolicy} is given, a request that got no response after the delay of
+ * the policy is sent again. The first of the two to get a response is used and the other one is
+ * disconnected.
+ */
+public class PriorityHttpUrlConnectionNetworkFetcher extends HttpUrlConnectionNetworkFetcher
+{
+
+    public static final int DEFAULT_NUM_THREADS = 3;
+    public static final long DEFAULT_KEEP_ALIVE_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final Class<?> TAG = PriorityHttpUrlConnectionNetworkFetcher.class;
+
+    private final ThreadPoolExecutor mThreadPoolExecutor;
+    private final AtomicLong mSequenceNumber = new AtomicLong();
+    private final int mMaxRequestsPerHost;
+    @Nullable
+    private final HedgingPolicy mHedgingPolicy;
+    @Nullable
+    private final ScheduledExecutorService mHedgeScheduler;
+
+    @GuardedBy("this")
+    private final Map<String, Integer> mRunningRequestsPerHost = new HashMap<>();
+    @GuardedBy("this")
+    private final Map<String, PriorityQueue<FetchTask>> mWaitingRequestsPerHost = new HashMap<>();
+
+    public PriorityHttpUrlConnectionNetworkFetcher ()
+    {
+        this(DEFAULT_NUM_THREADS, DEFAULT_KEEP_ALIVE_MS);
+    }
+
+    /**
+     * @param numThreads  maximum number of requests running at the same time
+     * @param keepAliveMs time after which an idle network thread is stopped
+     */
+    public PriorityHttpUrlConnectionNetworkFetcher (int numThreads, long keepAliveMs)
+    {
+        this(numThreads, keepAliveMs, numThreads);
+    }
+
+    /**
+     * @param numThreads         maximum number of requests running at the same time
+     * @param keepAliveMs        time after which an idle network thread is stopped
+     * @param maxRequestsPerHost maximum number of requests to the same host running at the same
+     *                           time, numThreads for no limit
+     */
+    public PriorityHttpUrlConnectionNetworkFetcher (int numThreads, long keepAliveMs, int maxRequestsPerHost)
+    {
+        this(numThreads, keepAliveMs, maxRequestsPerHost, null);
+    }
+
+    /**
+     * @param numThreads         maximum number of requests running at the same time
+     * @param keepAliveMs        time after which an idle network thread is stopped
+     * @param maxRequestsPerHost maximum number of requests to the same host running at the same
+     *                           time
+     * @param hedgingPolicy      decides when slow requests are sent again, null to never send them
+     *                           again
+     */
+    public PriorityHttpUrlConnectionNetworkFetcher (int numThreads, long keepAliveMs, int maxRequestsPerHost, @Nullable HedgingPolicy hedgingPolicy)
+    {
+        this(newThreadPoolExecutor(numThreads, keepAliveMs), maxRequestsPerHost, hedgingPolicy, hedgingPolicy == null ? null : Executors.newSingleThreadScheduledExecutor());
+    }
+
+    @VisibleForTesting
+    PriorityHttpUrlConnectionNetworkFetcher (ThreadPoolExecutor threadPoolExecutor, int maxRequestsPerHost, @Nullable HedgingPolicy hedgingPolicy, @Nullable ScheduledExecutorService hedgeScheduler)
+    {
+        super(threadPoolExecutor);
+        Preconditions.checkArgument(maxRequestsPerHost > 0);
+        Preconditions.checkArgument((hedgingPolicy == null) == (hedgeScheduler == null));
+        mThreadPoolExecutor = threadPoolExecutor;
+        mMaxRequestsPerHost = maxRequestsPerHost;
+        mHedgingPolicy = hedgingPolicy;
+        mHedgeScheduler = hedgeScheduler;
+    }
+
+    private static String getHost (FetchState fetchState)
+    {
+        String host = fetchState.getUri().getHost();
+        return host == null ? "" : host;
+    }
+
+    private static ThreadPoolExecutor newThreadPoolExecutor (int numThreads, long keepAliveMs)
+    {
+        Preconditions.checkArgument(numThreads > 0);
+        Preconditions.checkArgument(keepAliveMs >= 0);
+        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(numThreads, numThreads, keepAliveMs, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<Runnable>());
+        if (keepAliveMs > 0)
+        {
+            threadPoolExecutor.allowCoreThreadTimeOut(true);
+        }
+        return threadPoolExecutor;
+    }
+
+    @Override
+    public void fetch (final FetchState fetchState, final Callback callback)
+    {
+        final HedgedFetch hedgedFetch;
+        final FetchTask task;
+        if (mHedgingPolicy == null)
+        {
+            hedgedFetch = null;
+            task = new FetchTask(fetchState, callback, mSequenceNumber.getAndIncrement(), null);
+        }
+        else
+        {
+            mHedgingPolicy.onRequest();
+            hedgedFetch = new HedgedFetch(fetchState, callback, mSequenceNumber.getAndIncrement());
+            task = hedgedFetch.newFirstTask();
+        }
+        mThreadPoolExecutor.execute(task);
+        fetchState.getContext().addCallbacks(new BaseProducerContextCallbacks()
+        {
+            @Override
+            public void onCancellationRequested ()
+            {
+                boolean cancelled = task.cancel();
+                if (hedgedFetch != null)
+                {
+                    // also disconnects the requests that got no response yet
+                    cancelled = hedgedFetch.cancel();
+                }
+                if (cancelled)
+                {
+                    callback.onCancellation();
+                }
+            }
+
+            @Override
+            public void onPriorityChanged ()
+            {
+                task.updatePriority();
+            }
+        });
+    }
+
+    /**
+     * Starts the request if its host is below its limit, otherwise makes it wait for a request to
+     * the same host to finish.
+     *
+     * @return true if the request can run
+     */
+    private synchronized boolean startOrWait (FetchTask task)
+    {
+        Integer running = mRunningRequestsPerHost.get(task.mHost);
+        int count = running == null ? 0 : running;
+        if (count < mMaxRequestsPerHost)
+        {
+            mRunningRequestsPerHost.put(task.mHost, count + 1);
+            return true;
+        }
+        PriorityQueue<FetchTask> waiting = mWaitingRequestsPerHost.get(task.mHost);
+        if (waiting == null)
+        {
+            waiting = new PriorityQueue<>();
+            mWaitingRequestsPerHost.put(task.mHost, waiting);
+        }
+        waiting.add(task);
+        return false;
+    }
+
+    /**
+     * Hands the slot of a finished request to the next request waiting for the same host.
+     */
+    private void finish (FetchTask task)
+    {
+        FetchTask next;
+        synchronized (this)
+        {
+            int count = mRunningRequestsPerHost.get(task.mHost) - 1;
+            if (count == 0)
+            {
+                mRunningRequestsPerHost.remove(task.mHost);
+            }
+            else
+            {
+                mRunningRequestsPerHost.put(task.mHost, count);
+            }
+            PriorityQueue<FetchTask> waiting = mWaitingRequestsPerHost.get(task.mHost);
+            next = waiting == null ? null : waiting.poll();
+            if (waiting != null && waiting.isEmpty())
+            {
+                mWaitingRequestsPerHost.remove(task.mHost);
+            }
+        }
+        if (next != null)
+        {
+            mThreadPoolExecutor.execute(next);
+        }
+    }
+
+    /**
+     * Removes the request from the requests waiting for their host.
+     *
+     * @return true if the request was waiting
+     */
+    private synchronized boolean removeWaiting (FetchTask task)
+    {
+        PriorityQueue<FetchTask> waiting = mWaitingRequestsPerHost.get(task.mHost);
+        if (waiting == null || !waiting.remove(task))
+        {
+            return false;
+        }
+        if (waiting.isEmpty())
+        {
+            mWaitingRequestsPerHost.remove(task.mHost);
+        }
+        return true;
+    }
+
+    /**
+     * Request waiting in the queue of the executor, or for its host.
+     * <p>
+     * <p> The priority is part of the ordering of the queues, so it is only changed while the
+     * task is out of them.
+     */
+    @VisibleForTesting
+    class FetchTask implements Runnable, Comparable<FetchTask>
+    {
+        private final FetchState mFetchState;
+        private final Callback mCallback;
+        private final long mSequenceNumber;
+        private final String mHost;
+        @Nullable
+        private final HedgedFetch.HedgeAttempt mAttempt;
+
+        // Written under the lock of this task, read by the queue without it.
+        private volatile Priority mPriority;
+
+        FetchTask (FetchState fetchState, Callback callback, long sequenceNumber, @Nullable HedgedFetch.HedgeAttempt attempt)
+        {
+            mFetchState = fetchState;
+            mAttempt = attempt;
+            mCallback = callback;
+            mSequenceNumber = sequenceNumber;
+            mHost = getHost(fetchState);
+            mPriority = fetchState.getContext().getPriority();
+        }
+
+        @Override
+        public void run ()
+        {
+            if (!startOrWait(this))
+            {
+                return;
+            }
+            try
+            {
+                if (mAttempt == null)
+                {
+                    fetchSync(mFetchState, mCallback);
+                }
+                else if (mAttempt.start())
+                {
+                    fetchSync(mFetchState, mAttempt, mAttempt);
+                }
+            }
+            finally
+            {
+                finish(this);
+            }
+        }
+
+        /**
+         * Removes this task from the queues.
+         *
+         * @return true if the task was still queued, false if it is already running or done
+         */
+        synchronized boolean cancel ()
+        {
+            return mThreadPoolExecutor.remove(this) || removeWaiting(this);
+        }
+
+        /**
+         * Moves this task to the position of its new priority, if it is still queued.
+         */
+        synchronized void updatePriority ()
+        {
+            Priority priority = mFetchState.getContext().getPriority();
+            if (priority == mPriority || !(mThreadPoolExecutor.remove(this) || removeWaiting(this)))
+            {
+                return;
+            }
+            mPriority = priority;
+            // a task waiting for its host goes back to waiting when run, at its new position
+            mThreadPoolExecutor.execute(this);
+        }
+
+        @Override
+        public int compareTo (FetchTask other)
+        {
+            Priority priority = mPriority;
+            Priority otherPriority = other.mPriority;
+            if (priority != otherPriority)
+            {
+                // Higher priorities first.
+                return otherPriority.ordinal() - priority.ordinal();
+            }
+            return mSequenceNumber < other.mSequenceNumber ? -1 : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+
+    /**
+     * A request and its copy, if it was sent again. The first one to get a response is passed to
+     * the callback, and so is its failure if reading the response fails. The failure of a request
+     * that got no response is only passed to it if the other one failed as well.
+     */
+    private class HedgedFetch
+    {
+        private final FetchState mFetchState;
+        private final Callback mCallback;
+        private final long mSequenceNumber;
+
+        // Set once a request got a response, they all failed or the fetch was cancelled.
+        @GuardedBy("this")
+        private boolean mDone;
+        @GuardedBy("this")
+        private final List<HedgeAttempt> mAttempts = new ArrayList<>(2);
+        @GuardedBy("this")
+        @Nullable
+        private HedgeAttempt mWinner;
+        @GuardedBy("this")
+        @Nullable
+        private ScheduledFuture<?> mHedgeFuture;
+        @GuardedBy("this")
+        @Nullable
+        private FetchTask mHedgeTask;
+
+        HedgedFetch (FetchState fetchState, Callback callback, long sequenceNumber)
+        {
+            mFetchState = fetchState;
+            mCallback = callback;
+            mSequenceNumber = sequenceNumber;
+            mDone = false;
+        }
+
+        synchronized FetchTask newFirstTask ()
+        {
+            HedgeAttempt attempt = new HedgeAttempt();
+            mAttempts.add(attempt);
+            return new FetchTask(mFetchState, attempt, mSequenceNumber, attempt);
+        }
+
+        /**
+         * Schedules the copy of the request, once the first one started.
+         */
+        @GuardedBy("this")
+        private void scheduleHedge ()
+        {
+            mHedgeFuture = mHedgeScheduler.schedule(new Runnable()
+            {
+                @Override
+                public void run ()
+                {
+                    hedge();
+                }
+            }, mHedgingPolicy.getDelayMs(), TimeUnit.MILLISECONDS);
+        }
+
+        private void hedge ()
+        {
+            final FetchTask task;
+            synchronized (this)
+            {
+                if (mDone || mHedgeTask != null || !mHedgingPolicy.tryAcquire())
+                {
+                    return;
+                }
+                HedgeAttempt attempt = new HedgeAttempt();
+                mAttempts.add(attempt);
+                // same sequence number, the copy is not queued behind the requests sent since
+                task = new FetchTask(mFetchState, attempt, mSequenceNumber, attempt);
+                mHedgeTask = task;
+            }
+            FLog.v(TAG, "No response from %s yet, sending the request again", mFetchState.getUri());
+            mThreadPoolExecutor.execute(task);
+        }
+
+        private synchronized boolean claim (HedgeAttempt attempt)
+        {
+            if (mDone)
+            {
+                return false;
+            }
+            mDone = true;
+            mWinner = attempt;
+            mHedgingPolicy.onFirstByte(SystemClock.uptimeMillis() - attempt.mStartMs);
+            abandonAllBut(attempt);
+            return true;
+        }
+
+        private void onFailure (HedgeAttempt attempt, Throwable throwable)
+        {
+            synchronized (this)
+            {
+                attempt.mFinished = true;
+                if (mDone)
+                {
+                    // reading the response of the winner failed, the others were abandoned
+                    if (attempt != mWinner)
+                    {
+                        return;
+                    }
+                }
+                else
+                {
+                    for (HedgeAttempt other : mAttempts)
+                    {
+                        if (!other.mFinished)
+                        {
+                            // the other request may still succeed
+                            return;
+                        }
+                    }
+                    mDone = true;
+                    abandonAllBut(null);
+                }
+            }
+            mCallback.onFailure(throwable);
+        }
+
+        /**
+         * Disconnects the requests that got no response yet.
+         *
+         * @return false if a request already got a response, or they all failed
+         */
+        synchronized boolean cancel ()
+        {
+            if (mDone)
+            {
+                return false;
+            }
+            mDone = true;
+            abandonAllBut(null);
+            return true;
+        }
+
+        @GuardedBy("this")
+        private void abandonAllBut (@Nullable HedgeAttempt winner)
+        {
+            if (mHedgeFuture != null)
+            {
+                mHedgeFuture.cancel(false);
+            }
+            if (mHedgeTask != null)
+            {
+                mHedgeTask.cancel();
+            }
+            for (HedgeAttempt attempt : mAttempts)
+            {
+                if (attempt != winner)
+                {
+                    attempt.abandon();
+                }
+            }
+        }
+
+        /**
+         * One of the requests, passes the response to the callback only if it is the first one.
+         */
+        class HedgeAttempt implements Attempt, Callback
+        {
+            @GuardedBy("HedgedFetch.this")
+            @Nullable
+            private HttpURLConnection mConnection;
+            @GuardedBy("HedgedFetch.this")
+            private boolean mFinished;
+            @GuardedBy("HedgedFetch.this")
+            private long mStartMs;
+
+            /**
+             * @return false if the fetch is already done, the request is not sent then
+             */
+            boolean start ()
+            {
+                synchronized (HedgedFetch.this)
+                {
+                    if (mDone)
+                    {
+                        return false;
+                    }
+                    mStartMs = SystemClock.uptimeMillis();
+                    if (mHedgeFuture == null)
+                    {
+                        scheduleHedge();
+                    }
+                    return true;
+                }
+            }
+
+            @GuardedBy("HedgedFetch.this")
+            private void abandon ()
+            {
+                if (mConnection != null)
+                {
+                    mConnection.disconnect();
+                }
+            }
+
+            @Override
+            public boolean onConnectionOpened (HttpURLConnection connection)
+            {
+                synchronized (HedgedFetch.this)
+                {
+                    if (mDone)
+                    {
+                        return false;
+                    }
+                    mConnection = connection;
+                    return true;
+                }
+            }
+
+            @Override
+            public boolean onResponseStarted ()
+            {
+                return claim(this);
+            }
+
+            @Override
+            public void onResponse (InputStream response, int responseLength) throws IOException
+            {
+                mCallback.onResponse(response, responseLength);
+            }
+
+            @Override
+            public void onFailure (Throwable throwable)
+            {
+                HedgedFetch.this.onFailure(this, throwable);
+            }
+
+            @Override
+            public void onCancellation ()
+            {
+                mCallback.onCancellation();
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.executors.ConstrainedExecutorService;
+import com.facebook.imagepipeline.common.Priority;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A runnable that carries the {@link Priority} of the request it works for.
+ * <p>
+ * <p> Executors whose queue is a {@link java.util.concurrent.PriorityBlockingQueue} run queued
+ * runnables by order of priority, then oldest first. The priority is only read when the runnable
+ * is executed; use {@link #updatePriority} to move a queued runnable to its new place.
+ */
+public abstract class PriorityRunnable implements Runnable, Comparable<PriorityRunnable>
+{
+
+    private static final AtomicLong sNextSequenceNumber = new AtomicLong();
+
+    private volatile Priority mPriority;
+    private volatile long mSequenceNumber;
+
+    protected PriorityRunnable ()
+    {
+        this(Priority.HIGH);
+    }
+
+    protected PriorityRunnable (Priority priority)
+    {
+        mPriority = priority;
+        mSequenceNumber = sNextSequenceNumber.getAndIncrement();
+    }
+
+    public Priority getPriority ()
+    {
+        return mPriority;
+    }
+
+    /**
+     * Executes this runnable with the given priority, behind the queued runnables of the same
+     * priority.
+     */
+    public synchronized void execute (Executor executor, Priority priority)
+    {
+        mPriority = priority;
+        mSequenceNumber = sNextSequenceNumber.getAndIncrement();
+        executor.execute(this);
+    }
+
+    /**
+     * Moves this runnable to its place for the given priority if it is still queued in the
+     * executor. It keeps its place among the runnables of the same priority.
+     *
+     * @return true if the runnable was queued
+     */
+    public synchronized boolean updatePriority (Executor executor, Priority priority)
+    {
+        if (priority == mPriority)
+        {
+            return false;
+        }
+        if (!remove(executor, this))
+        {
+            return false;
+        }
+        mPriority = priority;
+        executor.execute(this);
+        return true;
+    }
+
+    /**
+     * Removes a runnable from the queue of the executor, if the executor supports it.
+     *
+     * @return true if the runnable was queued
+     */
+    public static boolean remove (Executor executor, Runnable runnable)
+    {
+        if (executor instanceof ThreadPoolExecutor)
+        {
+            return ((ThreadPoolExecutor) executor).remove(runnable);
+        }
+        if (executor instanceof ConstrainedExecutorService)
+        {
+            return ((ConstrainedExecutorService) executor).remove(runnable);
+        }
+        return false;
+    }
+
+    /**
+     * Higher priority first, then by sequence number
+     */
+    @Override
+    public int compareTo (PriorityRunnable other)
+    {
+        Priority priority = mPriority;
+        Priority otherPriority = other.mPriority;
+        if (priority != otherPriority)
+        {
+            return otherPriority.ordinal() - priority.ordinal();
+        }
+        long sequenceNumber = mSequenceNumber;
+        long otherSequenceNumber = other.mSequenceNumber;
+        return sequenceNumber < otherSequenceNumber ? -1 : (sequenceNumber == otherSequenceNumber ? 0 : 1);
+    }
+}
@@ -66,6 +66,18 @@ public interface ProducerContext
      */
     boolean isIntermediateResultExpected ();
 
+    /**
+     * @return the uptime in ms after which the request is given up, Long.MAX_VALUE if never
+     */
+    long getDeadlineMs ();
+
+    /**
+     * @return true if the request is past its deadline, in which case producers should fail it
+     * with a {@link com.facebook.imagepipeline.common.DeadlineExceededException} instead of
+     * starting more work
+     */
+    boolean isDeadlineExceeded ();
+
     /**
      * Adds callbacks to the set of callbacks that are executed at various points during the
      * processing of a request.
@@ -0,0 +1,285 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.common.internal.Preconditions;
+import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.common.memory.MemoryTrimType;
+import com.facebook.common.memory.MemoryTrimmable;
+import com.facebook.common.time.MonotonicClock;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.common.ResizeOptions;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Bounds the requests the pipeline runs at the same time, shared by all the
+ * {@link AdmissionControlProducer}s.
+ * <p>
+ * <p> A request is admitted while fewer than the maximum number of requests are in flight and
+ * the estimated bytes of the requests in flight, its own included, stay under the maximum. A
+ * request bigger than the maximum is admitted once nothing else is in flight. The others are
+ * queued and admitted by order of {@link Priority}, then oldest first, as requests finish.
+ * <p>
+ * <p> When memory is trimmed, prefetches are shed for a while: the queued ones fail with a
+ * {@link java.util.concurrent.CancellationException} and new ones are rejected right away.
+ * Prefetches already in flight complete.
+ */
+@ThreadSafe
+public class RequestAdmissionController implements MemoryTrimmable
+{
+
+    /**
+     * Bytes assumed for requests without resize options
+     */
+    @VisibleForTesting
+    static final long DEFAULT_ESTIMATED_BYTES = 2 * 1024 * 1024;
+
+    /**
+     * How long prefetches are shed after memory was trimmed
+     */
+    @VisibleForTesting
+    static final long MEMORY_PRESSURE_DURATION_MS = 10 * 1000;
+
+    private static final int BYTES_PER_PIXEL = 4;
+
+    private final int mMaxInFlightRequests;
+    private final long mMaxInFlightBytes;
+    private final Executor mExecutor;
+    private final MonotonicClock mClock;
+
+    @GuardedBy("this")
+    private final PriorityQueue<PendingRequest> mPendingRequests;
+    @GuardedBy("this")
+    private int mInFlightRequests;
+    @GuardedBy("this")
+    private long mInFlightBytes;
+    @GuardedBy("this")
+    private long mNextSequenceNumber;
+    @GuardedBy("this")
+    private long mMemoryPressureEndMs;
+
+    /**
+     * @param executor executor on which queued requests are kicked off
+     */
+    public RequestAdmissionController (int maxInFlightRequests, long maxInFlightBytes, Executor executor, MonotonicClock clock)
+    {
+        Preconditions.checkArgument(maxInFlightRequests > 0 && maxInFlightBytes > 0);
+        mMaxInFlightRequests = maxInFlightRequests;
+        mMaxInFlightBytes = maxInFlightBytes;
+        mExecutor = Preconditions.checkNotNull(executor);
+        mClock = Preconditions.checkNotNull(clock);
+        mPendingRequests = new PriorityQueue<>();
+        mInFlightRequests = 0;
+        mInFlightBytes = 0;
+        mNextSequenceNumber = 0;
+        mMemoryPressureEndMs = 0;
+    }
+
+    /**
+     * @return the bytes the decoded image of the request is expected to take
+     */
+    public static long estimateBytes (ImageRequest imageRequest)
+    {
+        ResizeOptions resizeOptions = imageRequest.getResizeOptions();
+        if (resizeOptions == null)
+        {
+            return DEFAULT_ESTIMATED_BYTES;
+        }
+        return (long) resizeOptions.width * resizeOptions.height * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Admits the request, queues it, or rejects it if it is a prefetch and memory is short.
+     */
+    void submit (PendingRequest request)
+    {
+        final boolean admitted;
+        synchronized (this)
+        {
+            if (request.mIsPrefetch && isUnderMemoryPressure())
+            {
+                admitted = false;
+            }
+            else if (mPendingRequests.isEmpty() && canAdmit(request.mBytes))
+            {
+                admit(request);
+                admitted = true;
+            }
+            else
+            {
+                request.mSequenceNumber = mNextSequenceNumber++;
+                mPendingRequests.add(request);
+                return;
+            }
+        }
+        if (admitted)
+        {
+            request.onAdmitted();
+        }
+        else
+        {
+            request.onRejected();
+        }
+    }
+
+    /**
+     * @return whether the request was still queued
+     */
+    synchronized boolean remove (PendingRequest request)
+    {
+        return mPendingRequests.remove(request);
+    }
+
+    synchronized void updatePriority (PendingRequest request, Priority priority)
+    {
+        if (mPendingRequests.remove(request))
+        {
+            request.mPriority = priority;
+            mPendingRequests.add(request);
+        }
+    }
+
+    /**
+     * Releases what an admitted request held and kicks off the queued requests that now fit.
+     */
+    void onFinished (PendingRequest request)
+    {
+        final List<PendingRequest> admittedRequests = new ArrayList<>();
+        synchronized (this)
+        {
+            mInFlightRequests--;
+            mInFlightBytes -= request.mBytes;
+            PendingRequest next;
+            while ((next = mPendingRequests.peek()) != null && canAdmit(next.mBytes))
+            {
+                mPendingRequests.poll();
+                admit(next);
+                admittedRequests.add(next);
+            }
+        }
+        for (final PendingRequest admittedRequest : admittedRequests)
+        {
+            mExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run ()
+                {
+                    admittedRequest.onAdmitted();
+                }
+            });
+        }
+    }
+
+    @Override
+    public void trim (MemoryTrimType trimType)
+    {
+        final List<PendingRequest> shedRequests = new ArrayList<>();
+        synchronized (this)
+        {
+            mMemoryPressureEndMs = mClock.now() + MEMORY_PRESSURE_DURATION_MS;
+            Iterator<PendingRequest> iterator = mPendingRequests.iterator();
+            while (iterator.hasNext())
+            {
+                PendingRequest request = iterator.next();
+                if (request.mIsPrefetch)
+                {
+                    iterator.remove();
+                    shedRequests.add(request);
+                }
+            }
+        }
+        for (PendingRequest request : shedRequests)
+        {
+            request.onRejected();
+        }
+    }
+
+    public synchronized int getInFlightRequests ()
+    {
+        return mInFlightRequests;
+    }
+
+    public synchronized long getInFlightBytes ()
+    {
+        return mInFlightBytes;
+    }
+
+    public synchronized int getPendingRequests ()
+    {
+        return mPendingRequests.size();
+    }
+
+    @GuardedBy("this")
+    private boolean canAdmit (long bytes)
+    {
+        if (mInFlightRequests == 0)
+        {
+            return true;
+        }
+        return mInFlightRequests < mMaxInFlightRequests && mInFlightBytes + bytes <= mMaxInFlightBytes;
+    }
+
+    @GuardedBy("this")
+    private void admit (PendingRequest request)
+    {
+        mInFlightRequests++;
+        mInFlightBytes += request.mBytes;
+    }
+
+    @GuardedBy("this")
+    private boolean isUnderMemoryPressure ()
+    {
+        return mClock.now() < mMemoryPressureEndMs;
+    }
+
+    /**
+     * A request waiting for admission. Its priority is only updated while it is out of the queue.
+     */
+    abstract static class PendingRequest implements Comparable<PendingRequest>
+    {
+        final long mBytes;
+        final boolean mIsPrefetch;
+        Priority mPriority;
+        long mSequenceNumber;
+
+        PendingRequest (long bytes, boolean isPrefetch, Priority priority)
+        {
+            mBytes = bytes;
+            mIsPrefetch = isPrefetch;
+            mPriority = priority;
+        }
+
+        abstract void onAdmitted ();
+
+        abstract void onRejected ();
+
+        /**
+         * Higher priority first, then oldest first
+         */
+        @Override
+        public int compareTo (PendingRequest other)
+        {
+            if (mPriority != other.mPriority)
+            {
+                return other.mPriority.ordinal() - mPriority.ordinal();
+            }
+            return mSequenceNumber < other.mSequenceNumber ? -1 : (mSequenceNumber == other.mSequenceNumber ? 0 : 1);
+        }
+    }
+}
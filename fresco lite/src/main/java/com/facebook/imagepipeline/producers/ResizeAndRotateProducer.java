@@ -16,6 +16,7 @@ import com.facebook.common.internal.VisibleForTesting;
 import com.facebook.common.references.CloseableReference;
 import com.facebook.common.util.TriState;
 import com.facebook.imageformat.ImageFormat;
+import com.facebook.imagepipeline.common.DeadlineExceededException;
 import com.facebook.imagepipeline.common.ResizeOptions;
 import com.facebook.imagepipeline.image.EncodedImage;
 import com.facebook.imagepipeline.memory.PooledByteBuffer;
@@ -172,7 +173,7 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage>
                     doTransform(encodedImage, isLast);
                 }
             };
-            mJobScheduler = new JobScheduler(mExecutor, job, MIN_TRANSFORM_INTERVAL_MS);
+            mJobScheduler = new JobScheduler(mExecutor, job, MIN_TRANSFORM_INTERVAL_MS, producerContext);
 
             mProducerContext.addCallbacks(new BaseProducerContextCallbacks()
             {
@@ -211,6 +212,12 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage>
                 }
                 return;
             }
+            // the embedded thumbnail is only shown until the image arrives, not worth transcoding
+            if (!isLast && newResult.isEmbeddedThumbnail())
+            {
+                getConsumer().onNewResult(newResult, false);
+                return;
+            }
             TriState shouldTransform = shouldTransform(mProducerContext.getImageRequest(), newResult);
             // ignore the intermediate result if we don't know what to do with it
             if (!isLast && shouldTransform == TriState.UNSET)
@@ -236,6 +243,11 @@ public class ResizeAndRotateProducer implements Producer<EncodedImage>
 
         private void doTransform (EncodedImage encodedImage, boolean isLast)
         {
+            if (mProducerContext.isDeadlineExceeded())
+            {
+                getConsumer().onFailure(new DeadlineExceededException(mProducerContext.getId()));
+                return;
+            }
             mProducerContext.getListener().onProducerStart(mProducerContext.getId(), PRODUCER_NAME);
             ImageRequest imageRequest = mProducerContext.getImageRequest();
             PooledByteBufferOutputStream outputStream = mPooledByteBufferFactory.newOutputStream();
@@ -0,0 +1,43 @@
+/*
+ * Copyright (c) 2015-present, Facebook, Inc.
+ * All rights reserved.
+ *
+ * This source code is licensed under the BSD-style license found in the
+ * LICENSE file in the root directory of this source tree. An additional grant
+ * of patent rights can be found in the PATENTS file in the same directory.
+ */
+
+package com.facebook.imagepipeline.producers;
+
+import com.facebook.imagepipeline.cache.CacheValidatorStore;
+import com.facebook.imagepipeline.common.Priority;
+import com.facebook.imagepipeline.request.ImageRequest;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * ProducerContext of the background request that checks whether a stale disk cache entry is
+ * still current.
+ * <p>
+ * <p> The network fetch of such a request is conditional: it only returns a body if the image
+ * changed since the validators were received.
+ */
+@ThreadSafe
+public class RevalidationProducerContext extends BaseProducerContext
+{
+
+    private final CacheValidatorStore.Validators mValidators;
+
+    public RevalidationProducerContext (ProducerContext originalContext, CacheValidatorStore.Validators validators)
+    {
+        super(originalContext.getImageRequest(), originalContext.getId() + "_revalidation", originalContext.getListener(), originalContext.getCallerContext(), ImageRequest.RequestLevel.FULL_FETCH, true, false, Priority.LOW);
+        mValidators = validators;
+        // the stale image was already returned, nobody waits for the revalidation
+        setDeadlineMs(Long.MAX_VALUE);
+    }
+
+    public CacheValidatorStore.Validators getValidators ()
+    {
+        return mValidators;
+    }
+}
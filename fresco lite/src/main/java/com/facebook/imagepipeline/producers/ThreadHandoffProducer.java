@@ -64,6 +64,6 @@ public class ThreadHandoffProducer<T> implements Producer<T>
                 mThreadHandoffProducerQueue.remove(statefulRunnable);
             }
         });
-        mThreadHandoffProducerQueue.addToQueueOrExecute(statefulRunnable);
+        mThreadHandoffProducerQueue.addToQueueOrExecute(statefulRunnable, context);
     }
 }
@@ -10,28 +10,73 @@
 package com.facebook.imagepipeline.producers;
 
 import com.facebook.common.internal.Preconditions;
+import com.facebook.imagepipeline.common.Priority;
 
-import java.util.ArrayDeque;
-import java.util.Deque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
 import java.util.concurrent.Executor;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Hands requests off to the executor, or holds them while queueing, typically while a list is
+ * scrolled.
+ * <p>
+ * <p> When queueing stops, the held requests are released by order of the priority of their
+ * {@link ProducerContext}, newest first, so that the rows visible after a fling start before the
+ * ones that scrolled by. They are released in batches: the next batch is only released once the
+ * previous one ran, and requests added in the meantime are handed off right away. Requests whose
+ * context was cancelled are dropped.
+ */
 public class ThreadHandoffProducerQueue
 {
-    private final Deque<Runnable> mRunnableList;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 8;
+
     private final Executor mExecutor;
+    private final int mMaxBatchSize;
+    @GuardedBy("this")
+    private final List<Entry> mEntries;
+    @GuardedBy("this")
     private boolean mQueueing = false;
+    @GuardedBy("this")
+    private int mBatchRemaining = 0;
+    @GuardedBy("this")
+    private long mNextSequenceNumber = 0;
 
     public ThreadHandoffProducerQueue (Executor executor)
     {
+        this(executor, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    /**
+     * @param maxBatchSize how many held requests are released at a time
+     */
+    public ThreadHandoffProducerQueue (Executor executor, int maxBatchSize)
+    {
+        Preconditions.checkArgument(maxBatchSize > 0);
         mExecutor = Preconditions.checkNotNull(executor);
-        mRunnableList = new ArrayDeque<>();
+        mMaxBatchSize = maxBatchSize;
+        mEntries = new ArrayList<>();
     }
 
-    public synchronized void addToQueueOrExecute (Runnable runnable)
+    public void addToQueueOrExecute (Runnable runnable)
+    {
+        addToQueueOrExecute(runnable, null);
+    }
+
+    /**
+     * @param producerContext context of the request, whose priority orders the release
+     */
+    public synchronized void addToQueueOrExecute (Runnable runnable, @Nullable ProducerContext producerContext)
     {
         if (mQueueing)
         {
-            mRunnableList.add(runnable);
+            mEntries.add(new Entry(runnable, producerContext, mNextSequenceNumber++));
         }
         else
         {
@@ -47,25 +92,122 @@ public class ThreadHandoffProducerQueue
     public synchronized void stopQueuing ()
     {
         mQueueing = false;
-        execInQueue();
-    }
-
-    private void execInQueue ()
-    {
-        while (!mRunnableList.isEmpty())
+        if (mBatchRemaining == 0)
         {
-            mExecutor.execute(mRunnableList.pop());
+            releaseNextBatch();
         }
-        mRunnableList.clear();
     }
 
     public synchronized void remove (Runnable runnable)
     {
-        mRunnableList.remove(runnable);
+        Iterator<Entry> iterator = mEntries.iterator();
+        while (iterator.hasNext())
+        {
+            if (iterator.next().mRunnable == runnable)
+            {
+                iterator.remove();
+                return;
+            }
+        }
     }
 
     public synchronized boolean isQueueing ()
     {
         return mQueueing;
     }
+
+    @GuardedBy("this")
+    private void releaseNextBatch ()
+    {
+        if (mQueueing || mEntries.isEmpty())
+        {
+            return;
+        }
+        // priorities are read once, they may change while sorting
+        Iterator<Entry> iterator = mEntries.iterator();
+        while (iterator.hasNext())
+        {
+            Entry entry = iterator.next();
+            if (entry.isCancelled())
+            {
+                iterator.remove();
+            }
+            else
+            {
+                entry.mPriority = entry.mProducerContext == null ? Priority.HIGH : entry.mProducerContext.getPriority();
+            }
+        }
+        Collections.sort(mEntries, ENTRY_COMPARATOR);
+
+        final List<Entry> batchEntries = mEntries.subList(0, Math.min(mMaxBatchSize, mEntries.size()));
+        // the executor may run the batch, and release the next one, before this returns
+        final List<Entry> batch = new ArrayList<>(batchEntries);
+        batchEntries.clear();
+        mBatchRemaining = batch.size();
+        for (final Entry entry : batch)
+        {
+            mExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run ()
+                {
+                    try
+                    {
+                        entry.mRunnable.run();
+                    }
+                    finally
+                    {
+                        onBatchEntryRun();
+                    }
+                }
+            });
+        }
+    }
+
+    private synchronized void onBatchEntryRun ()
+    {
+        mBatchRemaining--;
+        if (mBatchRemaining == 0)
+        {
+            releaseNextBatch();
+        }
+    }
+
+    /**
+     * Higher priority first, then newest first
+     */
+    private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>()
+    {
+        @Override
+        public int compare (Entry lhs, Entry rhs)
+        {
+            if (lhs.mPriority != rhs.mPriority)
+            {
+                return rhs.mPriority.ordinal() - lhs.mPriority.ordinal();
+            }
+            return lhs.mSequenceNumber > rhs.mSequenceNumber ? -1 : (lhs.mSequenceNumber == rhs.mSequenceNumber ? 0 : 1);
+        }
+    };
+
+    private static class Entry
+    {
+        final Runnable mRunnable;
+        @Nullable
+        final ProducerContext mProducerContext;
+        final long mSequenceNumber;
+        Priority mPriority;
+
+        Entry (Runnable runnable, @Nullable ProducerContext producerContext, long sequenceNumber)
+        {
+            mRunnable = runnable;
+            mProducerContext = producerContext;
+            mSequenceNumber = sequenceNumber;
+            mPriority = Priority.HIGH;
+        }
+
+        boolean isCancelled ()
+        {
+            return mProducerContext instanceof BaseProducerContext && ((BaseProducerContext) mProducerContext).isCancelled();
+        }
+    }
 }
@@ -9,12 +9,12 @@
 
 package com.facebook.imagepipeline.producers;
 
-import android.util.Pair;
-
 import com.facebook.common.internal.Preconditions;
 import com.facebook.common.internal.VisibleForTesting;
+import com.facebook.imagepipeline.common.DeadlineExceededException;
+import com.facebook.imagepipeline.common.Priority;
 
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.PriorityQueue;
 import java.util.concurrent.Executor;
 
 import javax.annotation.concurrent.GuardedBy;
@@ -22,6 +22,11 @@ import javax.annotation.concurrent.GuardedBy;
 /**
  * Only permits a configurable number of requests to be kicked off simultaneously. If that number
  * is exceeded, then requests are queued up and kicked off once other requests complete.
+ * <p>
+ * <p> Queued requests are kicked off by order of {@link Priority}, then most recent first in LIFO
+ * mode or oldest first otherwise. LIFO suits lists scrolled quickly: the rows that just became
+ * visible are served before the rows that already scrolled off. Queued requests are re-ordered
+ * when their priority changes and dropped as soon as they are cancelled.
  */
 public class ThrottlingProducer<T> implements Producer<T>
 {
@@ -31,19 +36,33 @@ public class ThrottlingProducer<T> implements Producer<T>
 
     private final Producer<T> mInputProducer;
     private final int mMaxSimultaneousRequests;
+    private final boolean mLifo;
     @GuardedBy("this")
-    private final ConcurrentLinkedQueue<Pair<Consumer<T>, ProducerContext>> mPendingRequests;
+    private final PriorityQueue<PendingRequest> mPendingRequests;
     private final Executor mExecutor;
     @GuardedBy("this")
     private int mNumCurrentRequests;
+    @GuardedBy("this")
+    private long mNextSequenceNumber;
 
     public ThrottlingProducer (int maxSimultaneousRequests, Executor executor, final Producer<T> inputProducer)
+    {
+        this(maxSimultaneousRequests, false, executor, inputProducer);
+    }
+
+    /**
+     * @param lifo whether the most recent of the queued requests of the same priority is kicked
+     *             off first
+     */
+    public ThrottlingProducer (int maxSimultaneousRequests, boolean lifo, Executor executor, final Producer<T> inputProducer)
     {
         mMaxSimultaneousRequests = maxSimultaneousRequests;
+        mLifo = lifo;
         mExecutor = Preconditions.checkNotNull(executor);
         mInputProducer = Preconditions.checkNotNull(inputProducer);
-        mPendingRequests = new ConcurrentLinkedQueue<Pair<Consumer<T>, ProducerContext>>();
+        mPendingRequests = new PriorityQueue<>();
         mNumCurrentRequests = 0;
+        mNextSequenceNumber = 0;
     }
 
     @Override
@@ -52,34 +71,108 @@ public class ThrottlingProducer<T> implements Producer<T>
         final ProducerListener producerListener = producerContext.getListener();
         producerListener.onProducerStart(producerContext.getId(), PRODUCER_NAME);
 
-        boolean delayRequest;
+        final PendingRequest pendingRequest;
         synchronized (this)
         {
             if (mNumCurrentRequests >= mMaxSimultaneousRequests)
             {
-                mPendingRequests.add(Pair.create(consumer, producerContext));
-                delayRequest = true;
+                pendingRequest = new PendingRequest(consumer, producerContext, mNextSequenceNumber++);
+                mPendingRequests.add(pendingRequest);
             }
             else
             {
                 mNumCurrentRequests++;
-                delayRequest = false;
+                pendingRequest = null;
             }
         }
 
-        if (!delayRequest)
+        if (pendingRequest == null)
         {
             produceResultsInternal(consumer, producerContext);
+            return;
         }
+        producerContext.addCallbacks(new BaseProducerContextCallbacks()
+        {
+            @Override
+            public void onCancellationRequested ()
+            {
+                synchronized (ThrottlingProducer.this)
+                {
+                    if (!mPendingRequests.remove(pendingRequest))
+                    {
+                        return;
+                    }
+                }
+                producerListener.onProducerFinishWithCancellation(producerContext.getId(), PRODUCER_NAME, null);
+                consumer.onCancellation();
+            }
+
+            @Override
+            public void onPriorityChanged ()
+            {
+                synchronized (ThrottlingProducer.this)
+                {
+                    if (mPendingRequests.remove(pendingRequest))
+                    {
+                        pendingRequest.mPriority = producerContext.getPriority();
+                        mPendingRequests.add(pendingRequest);
+                    }
+                }
+            }
+        });
     }
 
     void produceResultsInternal (Consumer<T> consumer, ProducerContext producerContext)
     {
         ProducerListener producerListener = producerContext.getListener();
+        ThrottlerConsumer throttlerConsumer = new ThrottlerConsumer(consumer);
+        if (producerContext.isDeadlineExceeded())
+        {
+            // frees the slot for the next request
+            DeadlineExceededException exception = new DeadlineExceededException(producerContext.getId());
+            producerListener.onProducerFinishWithFailure(producerContext.getId(), PRODUCER_NAME, exception, null);
+            throttlerConsumer.onFailure(exception);
+            return;
+        }
         producerListener.onProducerFinishWithSuccess(producerContext.getId(), PRODUCER_NAME, null);
-        mInputProducer.produceResults(new ThrottlerConsumer(consumer), producerContext);
+        mInputProducer.produceResults(throttlerConsumer, producerContext);
     }
 
+    /**
+     * A queued request. Its priority is only updated while it is out of the queue.
+     */
+    private class PendingRequest implements Comparable<PendingRequest>
+    {
+        final Consumer<T> mConsumer;
+        final ProducerContext mProducerContext;
+        final long mSequenceNumber;
+        Priority mPriority;
+
+        PendingRequest (Consumer<T> consumer, ProducerContext producerContext, long sequenceNumber)
+        {
+            mConsumer = consumer;
+            mProducerContext = producerContext;
+            mSequenceNumber = sequenceNumber;
+            mPriority = producerContext.getPriority();
+        }
+
+        /**
+         * Higher priority first, then by sequence number
+         */
+        @Override
+        public int compareTo (PendingRequest other)
+        {
+            if (mPriority != other.mPriority)
+            {
+                return other.mPriority.ordinal() - mPriority.ordinal();
+            }
+            if (mSequenceNumber == other.mSequenceNumber)
+            {
+                return 0;
+            }
+            return (mSequenceNumber < other.mSequenceNumber) != mLifo ? -1 : 1;
+        }
+    }
     private class ThrottlerConsumer extends DelegatingConsumer<T, T>
     {
 
@@ -114,24 +207,24 @@ public class ThrottlingProducer<T> implements Producer<T>
 
         private void onRequestFinished ()
         {
-            final Pair<Consumer<T>, ProducerContext> nextRequestPair;
+            final PendingRequest nextRequest;
             synchronized (ThrottlingProducer.this)
             {
-                nextRequestPair = mPendingRequests.poll();
-                if (nextRequestPair == null)
+                nextRequest = mPendingRequests.poll();
+                if (nextRequest == null)
                 {
                     mNumCurrentRequests--;
                 }
             }
 
-            if (nextRequestPair != null)
+            if (nextRequest != null)
             {
                 mExecutor.execute(new Runnable()
                 {
                     @Override
                     public void run ()
                     {
-                        produceResultsInternal(nextRequestPair.first, nextRequestPair.second);
+                        produceResultsInternal(nextRequest.mConsumer, nextRequest.mProducerContext);
                     }
                 });
             }
@@ -29,6 +29,12 @@ import javax.annotation.concurrent.Immutable;
 public class ImageRequest
 {
 
+    /* Disk cache entries never expire */
+    public static final long DISK_CACHE_MAX_AGE_UNLIMITED = -1;
+
+    /* The request is never given up */
+    public static final long LATENCY_BUDGET_UNLIMITED = -1;
+
     /** Cache choice */
     private final CacheChoice mCacheChoice;
 
@@ -47,6 +53,8 @@ public class ImageRequest
     private final RequestLevel mLowestPermittedRequestLevel;
     /** Whether the disk cache should be used for this request */
     private final boolean mIsDiskCacheEnabled;
+    private final long mDiskCacheMaxAgeMs;
+    private final long mLatencyBudgetMs;
     /** Postprocessor to run on the output bitmap. */
     private final Postprocessor mPostprocessor;
     /** resize options */
@@ -71,6 +79,8 @@ public class ImageRequest
         mRequestPriority = builder.getRequestPriority();
         mLowestPermittedRequestLevel = builder.getLowestPermittedRequestLevel();
         mIsDiskCacheEnabled = builder.isDiskCacheEnabled();
+        mDiskCacheMaxAgeMs = builder.getDiskCacheMaxAgeMs();
+        mLatencyBudgetMs = builder.getLatencyBudgetMs();
 
         mPostprocessor = builder.getPostprocessor();
     }
@@ -147,6 +157,24 @@ public class ImageRequest
         return mIsDiskCacheEnabled;
     }
 
+    /**
+     * Gets the age after which the disk cache entry of the image is revalidated with the server,
+     * or {@link #DISK_CACHE_MAX_AGE_UNLIMITED} if it is never revalidated.
+     */
+    public long getDiskCacheMaxAgeMs ()
+    {
+        return mDiskCacheMaxAgeMs;
+    }
+
+    /**
+     * Gets how long after its submission the request is given up, or
+     * {@link #LATENCY_BUDGET_UNLIMITED}.
+     */
+    public long getLatencyBudgetMs ()
+    {
+        return mLatencyBudgetMs;
+    }
+
     public synchronized File getSourceFile ()
     {
         if (mSourceFile == null)
@@ -43,6 +43,8 @@ public class ImageRequestBuilder
     @Nullable
     Postprocessor mPostprocessor = null;
     private boolean mDiskCacheEnabled = true;
+    private long mDiskCacheMaxAgeMs = ImageRequest.DISK_CACHE_MAX_AGE_UNLIMITED;
+    private long mLatencyBudgetMs = ImageRequest.LATENCY_BUDGET_UNLIMITED;
 
     private ImageRequestBuilder ()
     {
@@ -93,7 +95,7 @@ public class ImageRequestBuilder
      */
     public static ImageRequestBuilder fromRequest (ImageRequest imageRequest)
     {
-        return ImageRequestBuilder.newBuilderWithSource(imageRequest.getSourceUri()).setAutoRotateEnabled(imageRequest.getAutoRotateEnabled()).setImageDecodeOptions(imageRequest.getImageDecodeOptions()).setCacheChoice(imageRequest.getCacheChoice()).setLocalThumbnailPreviewsEnabled(imageRequest.getLocalThumbnailPreviewsEnabled()).setLowestPermittedRequestLevel(imageRequest.getLowestPermittedRequestLevel()).setPostprocessor(imageRequest.getPostprocessor()).setProgressiveRenderingEnabled(imageRequest.getProgressiveRenderingEnabled()).setRequestPriority(imageRequest.getPriority()).setResizeOptions(imageRequest.getResizeOptions());
+        return ImageRequestBuilder.newBuilderWithSource(imageRequest.getSourceUri()).setAutoRotateEnabled(imageRequest.getAutoRotateEnabled()).setImageDecodeOptions(imageRequest.getImageDecodeOptions()).setCacheChoice(imageRequest.getCacheChoice()).setLocalThumbnailPreviewsEnabled(imageRequest.getLocalThumbnailPreviewsEnabled()).setLowestPermittedRequestLevel(imageRequest.getLowestPermittedRequestLevel()).setPostprocessor(imageRequest.getPostprocessor()).setProgressiveRenderingEnabled(imageRequest.getProgressiveRenderingEnabled()).setRequestPriority(imageRequest.getPriority()).setResizeOptions(imageRequest.getResizeOptions()).setDiskCacheMaxAgeMs(imageRequest.getDiskCacheMaxAgeMs()).setLatencyBudgetMs(imageRequest.getLatencyBudgetMs());
     }
 
     /**
@@ -259,6 +261,49 @@ public class ImageRequestBuilder
         return mDiskCacheEnabled && UriUtil.isNetworkUri(mSourceUri);
     }
 
+    /** Gets the age after which the disk cache entry is revalidated. */
+    public long getDiskCacheMaxAgeMs ()
+    {
+        return mDiskCacheMaxAgeMs;
+    }
+
+    /**
+     * Sets the age after which the disk cache entry of the image is stale. A stale entry is still
+     * returned right away, while a conditional request checks in the background whether the image
+     * changed on the server. Only applies when disk cache revalidation is enabled in the
+     * experiments of the pipeline config.
+     *
+     * @param diskCacheMaxAgeMs the maximum age, or {@link ImageRequest#DISK_CACHE_MAX_AGE_UNLIMITED}
+     *
+     * @return the modified builder instance
+     */
+    public ImageRequestBuilder setDiskCacheMaxAgeMs (long diskCacheMaxAgeMs)
+    {
+        mDiskCacheMaxAgeMs = diskCacheMaxAgeMs;
+        return this;
+    }
+
+    /** Gets how long after its submission the request is given up. */
+    public long getLatencyBudgetMs ()
+    {
+        return mLatencyBudgetMs;
+    }
+
+    /**
+     * Sets how long after its submission the request is given up. Past that deadline, the
+     * pipeline stops the request before its next fetch, read or decode, and the data source fails
+     * with a {@link com.facebook.imagepipeline.common.DeadlineExceededException}.
+     *
+     * @param latencyBudgetMs the budget, or {@link ImageRequest#LATENCY_BUDGET_UNLIMITED}
+     *
+     * @return the modified builder instance
+     */
+    public ImageRequestBuilder setLatencyBudgetMs (long latencyBudgetMs)
+    {
+        mLatencyBudgetMs = latencyBudgetMs;
+        return this;
+    }
+
     /** Returns the request priority. */
     public Priority getRequestPriority ()
     {
@@ -9,12 +9,16 @@
 
 package com.facebook.imageutils;
 
+import android.util.Pair;
+
 import com.facebook.common.internal.Preconditions;
 
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.annotation.Nullable;
+
 /**
  * Util for obtaining information from JPEG file.
  */
@@ -90,6 +94,29 @@ public class JfifUtil
         }
     }
 
+    /**
+     * Finds the JPEG thumbnail in the EXIF data of an APP1 block.
+     *
+     * @param is     the input stream positioned at the beginning of the TIFF data of an APP1 EXIF
+     *               block
+     * @param length length of the TIFF data
+     *
+     * @return offset of the thumbnail from the beginning of the TIFF data and its length, null if
+     * there is none
+     */
+    @Nullable
+    public static Pair<Integer, Integer> getExifThumbnail (InputStream is, int length)
+    {
+        try
+        {
+            return TiffUtil.readThumbnailFromTIFF(is, length);
+        }
+        catch (IOException ioe)
+        {
+            return null;
+        }
+    }
+
     /**
      * Reads the content of the input stream until specified marker is found. Marker will be
      * consumed and the input stream will be positioned after the specified marker.
@@ -142,7 +169,7 @@ public class JfifUtil
         return false;
     }
 
-    private static boolean isSOFn (int marker)
+    public static boolean isSOFn (int marker)
     {
         // There are no SOF4, SOF8, SOF12
         switch (marker)
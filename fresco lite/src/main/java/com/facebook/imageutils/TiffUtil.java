@@ -10,12 +10,15 @@
 package com.facebook.imageutils;
 
 import android.media.ExifInterface;
+import android.util.Pair;
 
 import com.facebook.common.logging.FLog;
 
 import java.io.IOException;
 import java.io.InputStream;
 
+import javax.annotation.Nullable;
+
 /**
  * Util for getting exif orientation from a jpeg stored as a byte array.
  */
@@ -25,6 +28,8 @@ class TiffUtil
     public static final int TIFF_BYTE_ORDER_BIG_END = 0x4D4D002A;
     public static final int TIFF_BYTE_ORDER_LITTLE_END = 0x49492A00;
     public static final int TIFF_TAG_ORIENTATION = 0x0112;
+    public static final int TIFF_TAG_JPEG_INTERCHANGE_FORMAT = 0x0201;
+    public static final int TIFF_TAG_JPEG_INTERCHANGE_FORMAT_LENGTH = 0x0202;
     public static final int TIFF_TYPE_SHORT = 3;
     private static final Class<?> TAG = TiffUtil.class;
 
@@ -84,6 +89,93 @@ class TiffUtil
         return getOrientationFromTiffEntry(is, length, tiffHeader.isLittleEndian);
     }
 
+    /**
+     * Finds the JPEG thumbnail in TIFF data. The thumbnail is described by the second IFD.
+     *
+     * @param is     the input stream of TIFF data
+     * @param length length of the TIFF data
+     *
+     * @return offset of the thumbnail from the beginning of the TIFF data and its length, null if
+     * there is none
+     */
+    @Nullable
+    public static Pair<Integer, Integer> readThumbnailFromTIFF (InputStream is, int length) throws IOException
+    {
+        // read tiff header
+        TiffHeader tiffHeader = new TiffHeader();
+        int remaining = readTiffHeader(is, length, tiffHeader);
+
+        // move to the first IFD
+        int toSkip = tiffHeader.firstIfdOffset - 8;
+        if (remaining == 0 || toSkip > remaining)
+        {
+            return null;
+        }
+        is.skip(toSkip);
+        remaining -= toSkip;
+
+        // skip the entries of the first IFD, they are followed by the offset of the second one
+        if (remaining < 2)
+        {
+            return null;
+        }
+        int numEntries = StreamProcessor.readPackedInt(is, 2, tiffHeader.isLittleEndian);
+        remaining -= 2;
+        if (numEntries * 12 + 4 > remaining)
+        {
+            return null;
+        }
+        is.skip(numEntries * 12);
+        remaining -= numEntries * 12;
+        int secondIfdOffset = StreamProcessor.readPackedInt(is, 4, tiffHeader.isLittleEndian);
+        remaining -= 4;
+
+        // move to the second IFD, it can only be after the first one
+        toSkip = secondIfdOffset - (length - remaining);
+        if (secondIfdOffset == 0 || toSkip < 0 || toSkip + 2 > remaining)
+        {
+            return null;
+        }
+        is.skip(toSkip);
+        remaining -= toSkip;
+
+        int thumbnailOffset = 0;
+        int thumbnailLength = 0;
+        numEntries = StreamProcessor.readPackedInt(is, 2, tiffHeader.isLittleEndian);
+        remaining -= 2;
+        while (numEntries-- > 0 && remaining >= 12)
+        {
+            // {TAG [2], TYPE [2], COUNT [4], VALUE/OFFSET [4]}
+            int tag = StreamProcessor.readPackedInt(is, 2, tiffHeader.isLittleEndian);
+            int type = StreamProcessor.readPackedInt(is, 2, tiffHeader.isLittleEndian);
+            is.skip(4);
+            int value;
+            if (type == TIFF_TYPE_SHORT)
+            {
+                value = StreamProcessor.readPackedInt(is, 2, tiffHeader.isLittleEndian);
+                is.skip(2);
+            }
+            else
+            {
+                value = StreamProcessor.readPackedInt(is, 4, tiffHeader.isLittleEndian);
+            }
+            remaining -= 12;
+            if (tag == TIFF_TAG_JPEG_INTERCHANGE_FORMAT)
+            {
+                thumbnailOffset = value;
+            }
+            else if (tag == TIFF_TAG_JPEG_INTERCHANGE_FORMAT_LENGTH)
+            {
+                thumbnailLength = value;
+            }
+        }
+        if (thumbnailOffset <= 0 || thumbnailLength <= 0 || thumbnailOffset > length - thumbnailLength)
+        {
+            return null;
+        }
+        return new Pair<>(thumbnailOffset, thumbnailLength);
+    }
+
     /**
      * Reads the TIFF header to the provided structure.
      *